@@ -0,0 +1,154 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.benchmarks;
+
+import com.mma.missedmessagealerts.core.Clock;
+import com.mma.missedmessagealerts.core.DetectionStateMachine;
+import com.mma.missedmessagealerts.core.MessageSource;
+import com.mma.missedmessagealerts.core.Scheduler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures one detection tick, the work the listener service does every
+ * second while messages are pending, against fake providers that report
+ * the given number of unread messages.
+ *
+ * @author Michael R. Falcone
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DetectionTickBenchmark {
+
+
+    /*
+     * Stands in for a provider query, returning a fixed row count.
+     */
+    private static final class FakeSource implements MessageSource {
+
+        int mCount;
+        int mQueries;
+
+        @Override
+        public int countUnread() {
+
+            ++mQueries;
+            return mCount;
+        }
+    }
+
+
+    private static final class NoOpScheduler implements Scheduler {
+
+        @Override
+        public void postDelayed(Runnable task, long delayMs) {
+        }
+
+        @Override
+        public void removeCallbacks(Runnable task) {
+        }
+    }
+
+
+    @Param({"0", "1", "50"})
+    public int unreadCount;
+
+    private DetectionStateMachine mDetection;
+    private FakeSource[] mSources;
+
+
+    @Setup
+    public void setUp() {
+
+        mSources = new FakeSource[DetectionStateMachine.SOURCE_COUNT];
+
+        for (int i = 0; i < mSources.length; ++i) {
+
+            mSources[i] = new FakeSource();
+            mSources[i].mCount = unreadCount;
+        }
+
+        Clock clock = new Clock() {
+
+            @Override
+            public long currentTimeMillis() {
+                return 0;
+            }
+
+            @Override
+            public int getTimeZoneOffset(long timeMillis) {
+                return 0;
+            }
+        };
+
+        DetectionStateMachine.Settings settings = new DetectionStateMachine.Settings() {
+
+            @Override
+            public boolean isAlertsEnabled() {
+                return true;
+            }
+
+            @Override
+            public boolean isChannelEnabled(int channel) {
+                return true;
+            }
+        };
+
+        DetectionStateMachine.Output output = new DetectionStateMachine.Output() {
+
+            @Override
+            public void onStartAlerting(int channel) {
+            }
+
+            @Override
+            public void onStopAlerting(int channel, boolean anyPending) {
+            }
+
+            @Override
+            public void onAcknowledged(int channel, long latencyMs) {
+            }
+        };
+
+        mDetection = new DetectionStateMachine(clock, new NoOpScheduler(), settings, output, mSources);
+    }
+
+
+    /**
+     * A tick with every source pending, as after a call ends.
+     */
+    @Benchmark
+    public boolean tick() {
+
+        mDetection.runInitialScan();
+        return mDetection.isAnyPending();
+    }
+}
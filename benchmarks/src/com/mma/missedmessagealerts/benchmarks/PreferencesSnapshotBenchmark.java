@@ -0,0 +1,132 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.benchmarks;
+
+import com.mma.missedmessagealerts.core.AlertProfile;
+import com.mma.missedmessagealerts.core.VibratePatterns;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading the alert settings through AlertPreferences getters with
+ * reading them from a compiled AlertProfile snapshot. The getters are
+ * modelled by a map with the locking, key concatenation and string parsing
+ * that SharedPreferences and AlertPreferences do on every read.
+ *
+ * @author Michael R. Falcone
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PreferencesSnapshotBenchmark {
+
+
+    private static final String PREFIX = "TEXT";
+
+    private final Map<String, Object> mValues = new HashMap<String, Object>();
+    private AlertProfile mProfile;
+
+
+    @Setup
+    public void setUp() {
+
+        mValues.put(PREFIX + "PREF_ENABLE_COM_TYPE", Boolean.TRUE);
+        mValues.put(PREFIX + "PREF_ALERT_INTERVAL", "60");
+        mValues.put(PREFIX + "PREF_ALERT_DURATION", "900");
+        mValues.put(PREFIX + "PREF_VIBRATE_ALERT", Boolean.TRUE);
+        mValues.put(PREFIX + "PREF_VIBRATE_STYLE", "3");
+        mValues.put(PREFIX + "PREF_AUDIO_ALERT", Boolean.TRUE);
+        mValues.put(PREFIX + "PREF_AUDIO_ALERT_VOLUME", 80);
+
+        mProfile = new AlertProfile.Builder(PREFIX)
+                .setIntervalMs(60000)
+                .setDurationMs(900000)
+                .setFlashScreen(true, false)
+                .setVibrate(true, VibratePatterns.forStyle(3))
+                .setAudio(true, "content://tone", 0.8f, true)
+                .build();
+    }
+
+
+    /**
+     * The settings an alert needs, read through the getters.
+     */
+    @Benchmark
+    public long getters() {
+
+        long interval = Integer.parseInt(getString("PREF_ALERT_INTERVAL")) * 1000L;
+        long duration = Integer.parseInt(getString("PREF_ALERT_DURATION")) * 1000L;
+        boolean vibrate = getBoolean("PREF_VIBRATE_ALERT");
+        long[] pattern = VibratePatterns.forStyle(getString("PREF_VIBRATE_STYLE"));
+        boolean audio = getBoolean("PREF_AUDIO_ALERT");
+        float volume = getInt("PREF_AUDIO_ALERT_VOLUME") / 100.0f;
+
+        return interval + duration + (vibrate ? pattern.length : 0) + (audio ? (long) volume : 0);
+    }
+
+
+    /**
+     * The same settings read from the compiled profile.
+     */
+    @Benchmark
+    public long snapshot() {
+
+        AlertProfile profile = mProfile.getForTier(AlertProfile.TIER_FULL);
+
+        return profile.intervalMs + profile.durationMs + (profile.vibrate ? profile.vibratePattern.length : 0)
+                + (profile.audio ? (long) profile.volume : 0);
+    }
+
+
+    private String getString(String key) {
+
+        synchronized (this) {
+            return (String) mValues.get(PREFIX + key);
+        }
+    }
+
+
+    private boolean getBoolean(String key) {
+
+        synchronized (this) {
+            return (Boolean) mValues.get(PREFIX + key);
+        }
+    }
+
+
+    private int getInt(String key) {
+
+        synchronized (this) {
+            return (Integer) mValues.get(PREFIX + key);
+        }
+    }
+}
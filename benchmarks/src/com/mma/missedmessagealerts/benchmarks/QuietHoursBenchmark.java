@@ -0,0 +1,92 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.benchmarks;
+
+import com.mma.missedmessagealerts.core.AlertProfile;
+import com.mma.missedmessagealerts.core.AlertStateMachine;
+import com.mma.missedmessagealerts.core.VibratePatterns;
+import com.mma.missedmessagealerts.core.WallClock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the quiet-hours check as it was done when text alerts started,
+ * with three Calendar instances, against the minute-of-day comparison of
+ * the compiled profile.
+ *
+ * @author Michael R. Falcone
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QuietHoursBenchmark {
+
+
+    private WallClock mClock;
+    private AlertProfile mProfile;
+
+
+    @Setup
+    public void setUp() {
+
+        mClock = new WallClock();
+        mProfile = new AlertProfile.Builder("TEXT")
+                .setIntervalMs(60000)
+                .setDurationMs(900000)
+                .setFlashScreen(true, false)
+                .setVibrate(true, VibratePatterns.forStyle(0))
+                .setAudio(false, "", 1.0f, true)
+                .setScheduling(true, AlertProfile.toMinuteOfDay(1, 30), AlertProfile.toMinuteOfDay(7, 0))
+                .build();
+    }
+
+
+    @Benchmark
+    public boolean calendar() {
+
+        Calendar now = Calendar.getInstance();
+        Calendar start = (Calendar)now.clone();
+        Calendar end = (Calendar)now.clone();
+        start.set(Calendar.HOUR_OF_DAY, 1);
+        start.set(Calendar.MINUTE, 30);
+        end.set(Calendar.HOUR_OF_DAY, 7);
+        end.set(Calendar.MINUTE, 0);
+
+        return now.compareTo(start) >= 0 && now.compareTo(end) < 0;
+    }
+
+
+    @Benchmark
+    public boolean minuteOfDay() {
+
+        return mProfile.isQuietAt(AlertStateMachine.getMinuteOfDay(mClock, mClock.currentTimeMillis()));
+    }
+}
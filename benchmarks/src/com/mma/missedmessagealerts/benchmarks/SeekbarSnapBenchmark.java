@@ -0,0 +1,86 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.benchmarks;
+
+import com.mma.seekbarpreference.DefinedValues;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures snapping DefinedSeekbar progress to its defined values, which
+ * runs on every progress change while the user drags the thumb, and
+ * sorting the values when they are set.
+ *
+ * @author Michael R. Falcone
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SeekbarSnapBenchmark {
+
+
+    @Param({"5", "20", "100"})
+    public int valueCount;
+
+    private int[] mValues;
+    private int[] mSorted;
+    private int mProgress = 0;
+
+
+    @Setup
+    public void setUp() {
+
+        mValues = new int[valueCount];
+        mSorted = new int[valueCount];
+
+        // unsorted, as values from resources may be
+        for (int i = 0; i < valueCount; ++i)
+            mValues[i] = ((i * 7) % valueCount) * 10;
+
+        DefinedValues.sort(mValues, valueCount, mSorted);
+    }
+
+
+    @Benchmark
+    public int snap() {
+
+        mProgress = (mProgress + 13) % (valueCount * 10);
+        return DefinedValues.snap(mSorted, valueCount - 1, mProgress);
+    }
+
+
+    @Benchmark
+    public int[] sort() {
+
+        DefinedValues.sort(mValues, valueCount, mSorted);
+        return mSorted;
+    }
+}
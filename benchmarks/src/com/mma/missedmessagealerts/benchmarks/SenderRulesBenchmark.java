@@ -0,0 +1,190 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.benchmarks;
+
+import com.mma.missedmessagealerts.core.PhoneNumbers;
+import com.mma.missedmessagealerts.core.SenderRules;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matches senders against 10000 rules, mostly exact numbers with some
+ * prefixes and short codes. The compiled trie is compared with checking
+ * every rule in turn, for a number that matches exactly, one that matches
+ * a prefix and one that matches nothing.
+ *
+ * @author Michael R. Falcone
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SenderRulesBenchmark {
+
+
+    private static final int RULE_COUNT = 10000;
+    private static final int PREFIX_RULES = 2000;
+    private static final int SHORT_CODE_RULES = 500;
+
+    private SenderRules mRules;
+
+    // the same rules for the linear scan, normalized once
+    private String[] mPatterns = new String[RULE_COUNT];
+    private int[] mMatches = new int[RULE_COUNT];
+    private int[] mActions = new int[RULE_COUNT];
+
+    private String mExactNumber;
+    private String mPrefixNumber;
+    private String mUnknownNumber = "+1 (999) 555-0199";
+
+
+    @Setup
+    public void setUp() {
+
+        Random random = new Random(42);
+        mRules = new SenderRules();
+
+        for (int i = 0; i < RULE_COUNT; ++i) {
+
+            int match;
+            int digits;
+
+            if (i < SHORT_CODE_RULES) {
+
+                match = SenderRules.MATCH_SHORT_CODE;
+                digits = 5;
+            }
+            else if (i < SHORT_CODE_RULES + PREFIX_RULES) {
+
+                match = SenderRules.MATCH_PREFIX;
+                digits = 6;
+            }
+            else {
+
+                match = SenderRules.MATCH_EXACT;
+                digits = 11;
+            }
+
+            StringBuilder pattern = new StringBuilder(digits);
+
+            // long numbers share a country code as real ones would
+            if (digits > 5)
+                pattern.append('1');
+
+            while (pattern.length() < digits)
+                pattern.append((char) ('0' + random.nextInt(10)));
+
+            int action = SenderRules.ACTION_ALWAYS_ALERT + random.nextInt(2);
+
+            mRules.add(match, pattern.toString(), action, -1);
+            mPatterns[i] = pattern.toString();
+            mMatches[i] = match;
+            mActions[i] = action;
+        }
+
+        mExactNumber = "+" + mPatterns[RULE_COUNT - 1];
+        mPrefixNumber = "+" + mPatterns[SHORT_CODE_RULES] + "00000";
+    }
+
+
+    @Benchmark
+    public int trieExact() {
+
+        return mRules.match(mExactNumber);
+    }
+
+
+    @Benchmark
+    public int triePrefix() {
+
+        return mRules.match(mPrefixNumber);
+    }
+
+
+    @Benchmark
+    public int trieUnknown() {
+
+        return mRules.match(mUnknownNumber);
+    }
+
+
+    @Benchmark
+    public int linearExact() {
+
+        return linearMatch(mExactNumber);
+    }
+
+
+    @Benchmark
+    public int linearPrefix() {
+
+        return linearMatch(mPrefixNumber);
+    }
+
+
+    @Benchmark
+    public int linearUnknown() {
+
+        return linearMatch(mUnknownNumber);
+    }
+
+
+    /*
+     * Checks every rule, keeping the most specific match as the trie does.
+     */
+    private int linearMatch(String number) {
+
+        String digits = PhoneNumbers.normalize(number);
+        boolean short_code = digits.length() <= SenderRules.SHORT_CODE_MAX_DIGITS;
+        int best = SenderRules.ACTION_NONE;
+        int best_rank = -1;
+
+        for (int i = 0; i < RULE_COUNT; ++i) {
+
+            String pattern = mPatterns[i];
+            int rank;
+
+            if (mMatches[i] == SenderRules.MATCH_EXACT)
+                rank = digits.equals(pattern) ? Integer.MAX_VALUE : -1;
+            else if (mMatches[i] == SenderRules.MATCH_SHORT_CODE)
+                rank = short_code && digits.startsWith(pattern) ? 1000 + pattern.length() : -1;
+            else
+                rank = digits.startsWith(pattern) ? pattern.length() : -1;
+
+            if (rank > best_rank) {
+
+                best_rank = rank;
+                best = mActions[i];
+            }
+        }
+
+        return best;
+    }
+}
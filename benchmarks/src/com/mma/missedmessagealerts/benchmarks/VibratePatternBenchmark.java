@@ -0,0 +1,176 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.benchmarks;
+
+import com.mma.missedmessagealerts.core.AlertProfile;
+import com.mma.missedmessagealerts.core.AlertStateMachine;
+import com.mma.missedmessagealerts.core.Channels;
+import com.mma.missedmessagealerts.core.PendingSource;
+import com.mma.missedmessagealerts.core.VibratePatterns;
+import com.mma.missedmessagealerts.core.VirtualTimeScheduler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures resolving the vibrate pattern for an alert. The first benchmark
+ * parses the style preference as was done on every alert, the second looks
+ * up a custom pattern, which is compiled once and then cached, and the
+ * third runs a whole coalesced alert of all channels, which vibrates with
+ * the cached combined pattern.
+ *
+ * @author Michael R. Falcone
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VibratePatternBenchmark {
+
+
+    private static final long INTERVAL_MS = 60000;
+
+    private String mStyle = "3";
+    private String mCustomPattern = "300 on, 60 off, 120 on x3";
+
+    private VirtualTimeScheduler mScheduler;
+    private AlertStateMachine mAlerts;
+    private long mVibrated;
+
+
+    @Setup
+    public void setUp() {
+
+        mScheduler = new VirtualTimeScheduler(0, 0);
+
+        PendingSource pending = new PendingSource() {
+
+            @Override
+            public boolean isPending(int channel) {
+                return true;
+            }
+        };
+
+        AlertStateMachine.Settings settings = new AlertStateMachine.Settings() {
+
+            @Override
+            public boolean isAlertsEnabled() {
+                return true;
+            }
+
+            @Override
+            public boolean isChannelEnabled(int channel) {
+                return true;
+            }
+
+            @Override
+            public AlertProfile compileProfile(int channel) {
+                return new AlertProfile.Builder("")
+                        .setIntervalMs(INTERVAL_MS)
+                        .setVibrate(true, VibratePatterns.forStyle(channel))
+                        .setAudio(false, "", 1.0f, true)
+                        .build();
+            }
+
+            @Override
+            public long getCoalesceWindowMs() {
+                return INTERVAL_MS;
+            }
+
+            @Override
+            public int getPowerTier() {
+                return AlertProfile.TIER_FULL;
+            }
+        };
+
+        AlertStateMachine.Output output = new AlertStateMachine.Output() {
+
+            @Override
+            public boolean isUserActive() {
+                return false;
+            }
+
+            @Override
+            public void vibrate(long[] pattern, int channel) {
+                mVibrated += pattern.length;
+            }
+
+            @Override
+            public void playTone(AlertProfile profile, int channel) {
+            }
+
+            @Override
+            public void stopTone(int channel) {
+            }
+
+            @Override
+            public void flashScreen(AlertProfile profile, int channel) {
+            }
+
+            @Override
+            public void holdWakeLock(int channel, long timeoutMs) {
+            }
+
+            @Override
+            public void releaseWakeLock(int channel, boolean anyAlerting) {
+            }
+
+            @Override
+            public void onAlertsFinished() {
+            }
+        };
+
+        mAlerts = new AlertStateMachine(mScheduler, mScheduler, pending, settings, output);
+        mAlerts.startAlertsFor(-1);
+    }
+
+
+    @Benchmark
+    public long[] parseStyle() {
+
+        return VibratePatterns.forStyle(mStyle);
+    }
+
+
+    @Benchmark
+    public long[] customStyle() {
+
+        return VibratePatterns.forStyle(VibratePatterns.STYLE_CUSTOM, mCustomPattern);
+    }
+
+
+    /**
+     * One alert of every channel, combined into a single vibration.
+     */
+    @Benchmark
+    public long combinedAlert() {
+
+        mScheduler.advanceBy(INTERVAL_MS);
+        return mVibrated;
+    }
+}
@@ -33,13 +33,20 @@ public class AlertPreferences {
     public static final String NOPREFIX_KEY_ENABLED = "PREF_ENABLE_COM_TYPE";
     public static final String NOPREFIX_KEY_ALERT_INTERVAL = "PREF_ALERT_INTERVAL";
     public static final String NOPREFIX_KEY_ALERT_DURATION = "PREF_ALERT_DURATION";
+    public static final String NOPREFIX_KEY_ADAPTIVE_INTERVAL = "PREF_ADAPTIVE_INTERVAL";
+    public static final String NOPREFIX_KEY_MIN_ALERT_INTERVAL = "PREF_MIN_ALERT_INTERVAL";
+    public static final String NOPREFIX_KEY_MAX_ALERT_INTERVAL = "PREF_MAX_ALERT_INTERVAL";
+    public static final String NOPREFIX_KEY_ESCALATE = "PREF_ESCALATE";
+    public static final String NOPREFIX_KEY_ESCALATION_STEP = "PREF_ESCALATION_STEP";
     public static final String NOPREFIX_KEY_FLASH_SCREEN_ALERT = "PREF_FLASH_SCREEN_ALERT";
     public static final String NOPREFIX_KEY_DIM_FLASH_MODE = "PREF_DIM_FLASH_MODE";
     public static final String NOPREFIX_KEY_VIBRATE_ALERT = "PREF_VIBRATE_ALERT";
     public static final String NOPREFIX_KEY_VIBRATE_STYLE = "PREF_VIBRATE_STYLE";
+    public static final String NOPREFIX_KEY_VIBRATE_CUSTOM = "PREF_VIBRATE_CUSTOM";
     public static final String NOPREFIX_KEY_AUDIO_ALERT = "PREF_AUDIO_ALERT";
     public static final String NOPREFIX_KEY_ALERT_TONE = "PREF_ALERT_TONE";
     public static final String NOPREFIX_KEY_AUDIO_ALERT_VOLUME = "PREF_AUDIO_ALERT_VOLUME";
+    public static final String NOPREFIX_KEY_CRESCENDO = "PREF_CRESCENDO";
     public static final String NOPREFIX_KEY_AUDIO_DISABLE_ON_SILENT = "PREF_AUDIO_DISABLE_ON_SILENT";
     public static final String NOPREFIX_KEY_ENABLE_SCHEDULING = "PREF_ENABLE_SCHEDULING";
     public static final String NOPREFIX_KEY_SCHEDULED_HOUR_START = "PREF_SCHEDULED_HOUR_START";
@@ -53,13 +60,20 @@ public class AlertPreferences {
     public final String KEY_ENABLED;
     public final String KEY_ALERT_INTERVAL;
     public final String KEY_ALERT_DURATION;
+    public final String KEY_ADAPTIVE_INTERVAL;
+    public final String KEY_MIN_ALERT_INTERVAL;
+    public final String KEY_MAX_ALERT_INTERVAL;
+    public final String KEY_ESCALATE;
+    public final String KEY_ESCALATION_STEP;
     public final String KEY_FLASH_SCREEN_ALERT;
     public final String KEY_DIM_FLASH_MODE;
     public final String KEY_VIBRATE_ALERT;
     public final String KEY_VIBRATE_STYLE;
+    public final String KEY_VIBRATE_CUSTOM;
     public final String KEY_AUDIO_ALERT;
     public final String KEY_ALERT_TONE;
     public final String KEY_AUDIO_ALERT_VOLUME;
+    public final String KEY_CRESCENDO;
     public final String KEY_AUDIO_DISABLE_ON_SILENT;
     public final String KEY_ENABLE_SCHEDULING;
     public final String KEY_SCHEDULED_HOUR_START;
@@ -105,13 +119,20 @@ public class AlertPreferences {
         KEY_ENABLED = keyPrefix + NOPREFIX_KEY_ENABLED;
         KEY_ALERT_INTERVAL = keyPrefix + NOPREFIX_KEY_ALERT_INTERVAL;
         KEY_ALERT_DURATION = keyPrefix + NOPREFIX_KEY_ALERT_DURATION;
+        KEY_ADAPTIVE_INTERVAL = keyPrefix + NOPREFIX_KEY_ADAPTIVE_INTERVAL;
+        KEY_MIN_ALERT_INTERVAL = keyPrefix + NOPREFIX_KEY_MIN_ALERT_INTERVAL;
+        KEY_MAX_ALERT_INTERVAL = keyPrefix + NOPREFIX_KEY_MAX_ALERT_INTERVAL;
+        KEY_ESCALATE = keyPrefix + NOPREFIX_KEY_ESCALATE;
+        KEY_ESCALATION_STEP = keyPrefix + NOPREFIX_KEY_ESCALATION_STEP;
         KEY_FLASH_SCREEN_ALERT = keyPrefix + NOPREFIX_KEY_FLASH_SCREEN_ALERT;
         KEY_DIM_FLASH_MODE = keyPrefix + NOPREFIX_KEY_DIM_FLASH_MODE;
         KEY_VIBRATE_ALERT = keyPrefix + NOPREFIX_KEY_VIBRATE_ALERT;
         KEY_VIBRATE_STYLE = keyPrefix + NOPREFIX_KEY_VIBRATE_STYLE;
+        KEY_VIBRATE_CUSTOM = keyPrefix + NOPREFIX_KEY_VIBRATE_CUSTOM;
         KEY_AUDIO_ALERT = keyPrefix + NOPREFIX_KEY_AUDIO_ALERT;
         KEY_ALERT_TONE = keyPrefix + NOPREFIX_KEY_ALERT_TONE;
         KEY_AUDIO_ALERT_VOLUME = keyPrefix + NOPREFIX_KEY_AUDIO_ALERT_VOLUME;
+        KEY_CRESCENDO = keyPrefix + NOPREFIX_KEY_CRESCENDO;
         KEY_AUDIO_DISABLE_ON_SILENT = keyPrefix + NOPREFIX_KEY_AUDIO_DISABLE_ON_SILENT;
         KEY_ENABLE_SCHEDULING = keyPrefix + NOPREFIX_KEY_ENABLE_SCHEDULING;
         KEY_SCHEDULED_HOUR_START = keyPrefix + NOPREFIX_KEY_SCHEDULED_HOUR_START;
@@ -143,13 +164,20 @@ public class AlertPreferences {
         mEditor.putBoolean(KEY_ENABLED, mEnabledByDefault);
         mEditor.putString(KEY_ALERT_INTERVAL, mResources.getString(R.string.pref_default_alertinterval));
         mEditor.putString(KEY_ALERT_DURATION, mResources.getString(R.string.pref_default_alertduration));
+        mEditor.putBoolean(KEY_ADAPTIVE_INTERVAL, mResources.getBoolean(R.bool.pref_default_adaptiveinterval));
+        mEditor.putString(KEY_MIN_ALERT_INTERVAL, mResources.getString(R.string.pref_default_minalertinterval));
+        mEditor.putString(KEY_MAX_ALERT_INTERVAL, mResources.getString(R.string.pref_default_maxalertinterval));
+        mEditor.putBoolean(KEY_ESCALATE, mResources.getBoolean(R.bool.pref_default_escalate));
+        mEditor.putString(KEY_ESCALATION_STEP, mResources.getString(R.string.pref_default_escalationstep));
         mEditor.putBoolean(KEY_FLASH_SCREEN_ALERT, mResources.getBoolean(R.bool.pref_default_flashscreenalert));
         mEditor.putBoolean(KEY_DIM_FLASH_MODE, mResources.getBoolean(R.bool.pref_default_dimflashmode));
         mEditor.putBoolean(KEY_VIBRATE_ALERT, mResources.getBoolean(R.bool.pref_default_vibratealert));
         mEditor.putString(KEY_VIBRATE_STYLE, mResources.getString(R.string.pref_default_vibratestyle));
+        mEditor.putString(KEY_VIBRATE_CUSTOM, mResources.getString(R.string.pref_default_vibratecustom));
         mEditor.putBoolean(KEY_AUDIO_ALERT, mResources.getBoolean(R.bool.pref_default_audioalert));
         mEditor.putString(KEY_ALERT_TONE, mResources.getString(R.string.pref_default_alerttone));
         mEditor.putInt(KEY_AUDIO_ALERT_VOLUME, mResources.getInteger(R.integer.pref_default_audioalertvolume));
+        mEditor.putString(KEY_CRESCENDO, mResources.getString(R.string.pref_default_crescendo));
         mEditor.putBoolean(KEY_AUDIO_DISABLE_ON_SILENT, mResources.getBoolean(R.bool.pref_default_audiodisableonsilent));
         mEditor.putBoolean(KEY_ENABLE_SCHEDULING, mResources.getBoolean(R.bool.pref_default_enablescheduling));
         mEditor.putInt(KEY_SCHEDULED_HOUR_START, mResources.getInteger(R.integer.pref_default_scheduledhourstart));
@@ -216,6 +244,101 @@ public class AlertPreferences {
     }
 
 
+    /**
+     * Returns whether the alert interval adapts to the time of day for this communication type.
+     */
+    public boolean getAdaptiveIntervalEnabled(){
+
+        return mPreferences.getBoolean(KEY_ADAPTIVE_INTERVAL, mResources.getBoolean(R.bool.pref_default_adaptiveinterval));
+    }
+
+
+    /**
+     * Sets whether the alert interval adapts to the time of day for this communication type.
+     */
+    public void setAdaptiveIntervalEnabled(boolean enabled){
+
+        mEditor.putBoolean(KEY_ADAPTIVE_INTERVAL, enabled);
+        mEditor.commit();
+    }
+
+
+    /**
+     * Returns the shortest adaptive alert interval for this communication type.
+     */
+    public String getMinInterval(){
+
+        return mPreferences.getString(KEY_MIN_ALERT_INTERVAL, mResources.getString(R.string.pref_default_minalertinterval));
+    }
+
+
+    /**
+     * Sets the shortest adaptive alert interval for this communication type.
+     */
+    public void setMinInterval(String interval){
+
+        mEditor.putString(KEY_MIN_ALERT_INTERVAL, interval);
+        mEditor.commit();
+    }
+
+
+    /**
+     * Returns the longest adaptive alert interval for this communication type.
+     */
+    public String getMaxInterval(){
+
+        return mPreferences.getString(KEY_MAX_ALERT_INTERVAL, mResources.getString(R.string.pref_default_maxalertinterval));
+    }
+
+
+    /**
+     * Sets the longest adaptive alert interval for this communication type.
+     */
+    public void setMaxInterval(String interval){
+
+        mEditor.putString(KEY_MAX_ALERT_INTERVAL, interval);
+        mEditor.commit();
+    }
+
+
+    /**
+     * Returns whether unacknowledged alerts escalate for this communication type.
+     */
+    public boolean getEscalateEnabled(){
+
+        return mPreferences.getBoolean(KEY_ESCALATE, mResources.getBoolean(R.bool.pref_default_escalate));
+    }
+
+
+    /**
+     * Sets whether unacknowledged alerts escalate for this communication type.
+     */
+    public void setEscalateEnabled(boolean enabled){
+
+        mEditor.putBoolean(KEY_ESCALATE, enabled);
+        mEditor.commit();
+    }
+
+
+    /**
+     * Returns the time spent on each escalation stage for this communication type.
+     */
+    public String getEscalationStep(){
+
+        return mPreferences.getString(KEY_ESCALATION_STEP, mResources.getString(R.string.pref_default_escalationstep));
+    }
+
+
+    /**
+     * Sets the time spent on each escalation stage for this communication type.
+     */
+    public void setEscalationStep(String step){
+
+        mEditor.putString(KEY_ESCALATION_STEP, step);
+        mEditor.commit();
+    }
+
+
     /**
      * Returns the alert duration for this communication type.
      */
@@ -315,6 +438,26 @@ public class AlertPreferences {
     }
 
 
+    /**
+     * Returns the text of the custom vibration pattern for this communication
+     * type. Used if the vibration style is custom.
+     */
+    public String getVibrateCustom(){
+
+        return mPreferences.getString(KEY_VIBRATE_CUSTOM, mResources.getString(R.string.pref_default_vibratecustom));
+    }
+
+
+    /**
+     * Sets the text of the custom vibration pattern for this communication type.
+     */
+    public void setVibrateCustom(String pattern){
+
+        mEditor.putString(KEY_VIBRATE_CUSTOM, pattern);
+        mEditor.commit();
+    }
+
+
     /**
      * Returns whether the audio alert is enabled for this communication type.
      */
@@ -376,6 +519,26 @@ public class AlertPreferences {
     }
 
 
+    /**
+     * Returns the time in seconds over which the alert tone fades in for this
+     * communication type, or "0" to play it at the alert volume at once.
+     */
+    public String getCrescendo(){
+
+        return mPreferences.getString(KEY_CRESCENDO, mResources.getString(R.string.pref_default_crescendo));
+    }
+
+
+    /**
+     * Sets the time in seconds over which the alert tone fades in for this communication type.
+     */
+    public void setCrescendo(String crescendo){
+
+        mEditor.putString(KEY_CRESCENDO, crescendo);
+        mEditor.commit();
+    }
+
+
     /**
      * Returns whether the audio alert is disabled while the phone is in silent mode.
      * Used when audio alert is enabled.
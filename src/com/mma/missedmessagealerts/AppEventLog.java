@@ -0,0 +1,124 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts;
+
+import android.content.Context;
+import com.mma.missedmessagealerts.core.EventLog;
+import com.mma.missedmessagealerts.core.WallClock;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Holds the application's EventLog, shared by its services and activities.
+ * When the log is first used it installs a handler for uncaught exceptions
+ * that writes the log to CRASH_FILE before the process dies.
+ *
+ * @author Michael R. Falcone
+ */
+public final class AppEventLog {
+
+
+    // CONSTANTS -----------------------------------------
+
+    /**
+     * Name of the private file the log is written to on a crash.
+     */
+    public static final String CRASH_FILE = "events.log";
+
+    private static final int CAPACITY = 256;
+
+
+
+    // MEMBER VARIABLES -----------------------------------------
+
+    private static EventLog sLog;
+
+
+
+    private AppEventLog(){
+    }
+
+
+
+
+    // PUBLIC METHODS -----------------------------------------
+
+    /**
+     * Returns the application's event log, creating it on first use.
+     */
+    public static synchronized EventLog get(Context context){
+
+        if (sLog == null) {
+
+            sLog = new EventLog(CAPACITY, new WallClock());
+            installCrashHandler(context.getApplicationContext());
+        }
+
+        return sLog;
+    }
+
+
+    /**
+     * Prints the event log, as written by a service's dump.
+     */
+    public static void dump(Context context, PrintWriter writer){
+
+        writer.println("Events:");
+        get(context).dump(writer, "  ");
+    }
+
+
+
+
+    // PRIVATE METHODS -----------------------------------------
+
+    private static void installCrashHandler(final Context appContext){
+
+        final Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+
+            @Override
+            public void uncaughtException(Thread thread, Throwable ex) {
+
+                sLog.log(EventLog.UNCAUGHT_EXCEPTION, EventLog.NO_CHANNEL, thread.getId(), 0);
+                writeCrashFile(appContext, ex);
+
+                if (previous != null)
+                    previous.uncaughtException(thread, ex);
+            }
+        });
+    }
+
+
+    private static void writeCrashFile(Context appContext, Throwable ex){
+
+        try {
+            FileOutputStream out = appContext.openFileOutput(CRASH_FILE, Context.MODE_PRIVATE);
+            PrintWriter writer = new PrintWriter(out);
+
+            sLog.dump(writer, "");
+            ex.printStackTrace(writer);
+            writer.close();
+        }
+        catch (IOException e) {
+            // nothing more can be done while the process is dying
+        }
+    }
+}
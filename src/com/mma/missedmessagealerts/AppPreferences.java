@@ -20,6 +20,9 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.preference.PreferenceManager;
+import com.mma.missedmessagealerts.core.Channels;
+import com.mma.missedmessagealerts.core.KeywordRules;
+import com.mma.missedmessagealerts.core.SenderRules;
 
 /**
  * Provides read and write access to the application's
@@ -38,7 +41,15 @@ public class AppPreferences {
     public static final String KEY_ENABLE_ALERTS = "PREF_ENABLE_ALERTS";
     public static final String KEY_DISABLE_ON_BATTERY = "PREF_DISABLE_ON_BATTERY";
     public static final String KEY_LOW_BATTERY_PERCENTAGE = "PREF_LOW_BATTERY_PERCENTAGE";
+    public static final String KEY_CRITICAL_BATTERY_PERCENTAGE = "PREF_CRITICAL_BATTERY_PERCENTAGE";
     public static final String KEY_SHOW_NOTIFICATION = "PREF_SHOW_NOTIFICATION";
+    public static final String KEY_ACKNOWLEDGE_SCREEN = "PREF_ACKNOWLEDGE_SCREEN";
+    public static final String KEY_COALESCE_WINDOW = "PREF_COALESCE_WINDOW";
+    public static final String KEY_SENDER_RULES = "PREF_SENDER_RULES";
+    public static final String KEY_KEYWORD_RULES = "PREF_KEYWORD_RULES";
+    public static final String KEY_KEYWORDS_ONLY = "PREF_KEYWORDS_ONLY";
+    public static final String KEY_DUPLICATE_WINDOW = "PREF_DUPLICATE_WINDOW";
+    public static final String KEY_REPEAT_CALLER_ALERT = "PREF_REPEAT_CALLER_ALERT";
 
     private static final String ALERTNAME_TEXT = "Text Alerts";
     private static final String ALERTNAME_CALLS = "Missed Call Alerts";
@@ -83,6 +94,39 @@ public class AppPreferences {
 
 
 
+    // STATIC METHODS -----------------------------------------
+
+    /**
+     * Returns whether alerts are enabled and at least one communication type
+     * is enabled, or a sender or keyword rule always alerts. Only the enabled
+     * flags and rules are read, so this is safe to call from the startup path
+     * without constructing the alert preferences.
+     * @param context context used to load the preferences file
+     */
+    public static boolean isAnyAlertEnabled(Context context){
+
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext());
+        Resources res = context.getResources();
+
+        if (!prefs.getBoolean(KEY_ENABLE_ALERTS, res.getBoolean(R.bool.pref_default_enablealerts)))
+            return false;
+
+        if (prefs.getBoolean(PREFIX_TEXT + AlertPreferences.NOPREFIX_KEY_ENABLED,
+                        res.getBoolean(R.bool.pref_default_textmessages))
+                || prefs.getBoolean(PREFIX_CALLS + AlertPreferences.NOPREFIX_KEY_ENABLED,
+                        res.getBoolean(R.bool.pref_default_missedcalls))
+                || prefs.getBoolean(PREFIX_VOICEMAIL + AlertPreferences.NOPREFIX_KEY_ENABLED,
+                        res.getBoolean(R.bool.pref_default_voicemail)))
+            return true;
+
+        // always alerting senders and keywords alert with their channels disabled
+        return SenderRules.parse(prefs.getString(KEY_SENDER_RULES, "")).hasAlwaysAlert()
+                || KeywordRules.parse(prefs.getString(KEY_KEYWORD_RULES, "")).hasAlwaysAlert();
+    }
+
+
+
+
     // PUBLIC METHODS -----------------------------------------
 
     /**
@@ -93,7 +137,15 @@ public class AppPreferences {
         mEditor.putBoolean(KEY_ENABLE_ALERTS, mResources.getBoolean(R.bool.pref_default_enablealerts));
         mEditor.putBoolean(KEY_DISABLE_ON_BATTERY, mResources.getBoolean(R.bool.pref_default_disableonbattery));
         mEditor.putBoolean(KEY_SHOW_NOTIFICATION, mResources.getBoolean(R.bool.pref_default_shownotification));
+        mEditor.putBoolean(KEY_ACKNOWLEDGE_SCREEN, mResources.getBoolean(R.bool.pref_default_acknowledgescreen));
+        mEditor.putString(KEY_COALESCE_WINDOW, mResources.getString(R.string.pref_default_coalescewindow));
+        mEditor.putString(KEY_SENDER_RULES, "");
+        mEditor.putString(KEY_KEYWORD_RULES, "");
+        mEditor.putBoolean(KEY_KEYWORDS_ONLY, mResources.getBoolean(R.bool.pref_default_keywordsonly));
+        mEditor.putString(KEY_DUPLICATE_WINDOW, mResources.getString(R.string.pref_default_duplicatewindow));
+        mEditor.putString(KEY_REPEAT_CALLER_ALERT, mResources.getString(R.string.pref_default_repeatcaller));
         mEditor.putInt(KEY_LOW_BATTERY_PERCENTAGE, mResources.getInteger(R.integer.pref_default_lowbatterypercentage));
+        mEditor.putInt(KEY_CRITICAL_BATTERY_PERCENTAGE, mResources.getInteger(R.integer.pref_default_criticalbatterypercentage));
         mEditor.commit();
 
         mTextAlertPreferences.resetToDefaults();
@@ -128,6 +180,22 @@ public class AppPreferences {
         return mVoicemailAlertPreferences;
     }
 
+
+    /**
+     * Gets the AlertPreferences object for the given alert channel.
+     */
+    public AlertPreferences getAlertPreferences(int channel){
+
+        switch (channel) {
+            case Channels.MISSED_CALL:
+                return mCallsAlertPreferences;
+            case Channels.VOICE_MAIL:
+                return mVoicemailAlertPreferences;
+            default:
+                return mTextAlertPreferences;
+        }
+    }
+
     
     /**
      * Returns whether alerts are currently enabled.
@@ -149,7 +217,7 @@ public class AppPreferences {
 
 
     /**
-     * Returns whether to disable on low battery.
+     * Returns whether to reduce alerts on low battery.
      */
     public boolean getDisableOnLowBattery(){
 
@@ -158,7 +226,7 @@ public class AppPreferences {
 
 
     /**
-     * Sets whether to disable on low battery.
+     * Sets whether to reduce alerts on low battery.
      */
     public void setDisableOnLowBattery(boolean disable){
 
@@ -187,7 +255,145 @@ public class AppPreferences {
 
 
     /**
-     * Returns low battery percentage.
+     * Returns whether the full screen acknowledge screen is shown when the screen flashes.
+     */
+    public boolean getAcknowledgeScreenEnabled(){
+
+        return mPreferences.getBoolean(KEY_ACKNOWLEDGE_SCREEN, mResources.getBoolean(R.bool.pref_default_acknowledgescreen));
+    }
+
+
+    /**
+     * Sets whether the full screen acknowledge screen is shown when the screen flashes.
+     */
+    public void setAcknowledgeScreenEnabled(boolean enabled){
+
+        mEditor.putBoolean(KEY_ACKNOWLEDGE_SCREEN, enabled);
+        mEditor.commit();
+    }
+
+
+    /**
+     * Returns the time in seconds within which alerts of different
+     * communication types are combined into one.
+     */
+    public String getCoalesceWindow(){
+
+        return mPreferences.getString(KEY_COALESCE_WINDOW, mResources.getString(R.string.pref_default_coalescewindow));
+    }
+
+
+    /**
+     * Sets the time in seconds within which alerts of different
+     * communication types are combined into one.
+     */
+    public void setCoalesceWindow(String window){
+
+        mEditor.putString(KEY_COALESCE_WINDOW, window);
+        mEditor.commit();
+    }
+
+
+    /**
+     * Returns the sender rules, one per line in the format read by SenderRules.
+     */
+    public String getSenderRules(){
+
+        return mPreferences.getString(KEY_SENDER_RULES, "");
+    }
+
+
+    /**
+     * Sets the sender rules, one per line in the format read by SenderRules.
+     */
+    public void setSenderRules(String rules){
+
+        mEditor.putString(KEY_SENDER_RULES, rules);
+        mEditor.commit();
+    }
+
+
+    /**
+     * Returns the keyword rules, one per line in the format read by KeywordRules.
+     */
+    public String getKeywordRules(){
+
+        return mPreferences.getString(KEY_KEYWORD_RULES, "");
+    }
+
+
+    /**
+     * Sets the keyword rules, one per line in the format read by KeywordRules.
+     */
+    public void setKeywordRules(String rules){
+
+        mEditor.putString(KEY_KEYWORD_RULES, rules);
+        mEditor.commit();
+    }
+
+
+    /**
+     * Returns whether only texts containing a keyword are alerted for.
+     */
+    public boolean getKeywordsOnly(){
+
+        return mPreferences.getBoolean(KEY_KEYWORDS_ONLY, mResources.getBoolean(R.bool.pref_default_keywordsonly));
+    }
+
+
+    /**
+     * Sets whether only texts containing a keyword are alerted for.
+     */
+    public void setKeywordsOnly(boolean only){
+
+        mEditor.putBoolean(KEY_KEYWORDS_ONLY, only);
+        mEditor.commit();
+    }
+
+
+    /**
+     * Returns the time in minutes within which a text repeating an
+     * earlier one from the same sender is not alerted for.
+     */
+    public String getDuplicateWindow(){
+
+        return mPreferences.getString(KEY_DUPLICATE_WINDOW, mResources.getString(R.string.pref_default_duplicatewindow));
+    }
+
+
+    /**
+     * Sets the time in minutes within which a text repeating an
+     * earlier one from the same sender is not alerted for.
+     */
+    public void setDuplicateWindow(String window){
+
+        mEditor.putString(KEY_DUPLICATE_WINDOW, window);
+        mEditor.commit();
+    }
+
+
+    /**
+     * Returns how a number calling again soon after is alerted for, as a
+     * policy name read by SenderRules.parsePolicy, or "none".
+     */
+    public String getRepeatCallerAlert(){
+
+        return mPreferences.getString(KEY_REPEAT_CALLER_ALERT, mResources.getString(R.string.pref_default_repeatcaller));
+    }
+
+
+    /**
+     * Sets how a number calling again soon after is alerted for.
+     */
+    public void setRepeatCallerAlert(String alert){
+
+        mEditor.putString(KEY_REPEAT_CALLER_ALERT, alert);
+        mEditor.commit();
+    }
+
+
+    /**
+     * Returns low battery percentage, below which alerts are reduced.
      */
     public int getLowBatteryPercentage(){
 
@@ -204,4 +410,42 @@ public class AppPreferences {
         mEditor.commit();
     }
 
+
+    /**
+     * Returns critical battery percentage, below which alerts only vibrate.
+     */
+    public int getCriticalBatteryPercentage(){
+
+        return mPreferences.getInt(KEY_CRITICAL_BATTERY_PERCENTAGE, mResources.getInteger(R.integer.pref_default_criticalbatterypercentage));
+    }
+
+
+    /**
+     * Sets critical battery percentage.
+     */
+    public void setCriticalBatteryPercentage(int percentage){
+
+        mEditor.putInt(KEY_CRITICAL_BATTERY_PERCENTAGE, percentage);
+        mEditor.commit();
+    }
+
+
+    /**
+     * Registers a callback to be invoked when any preference changes.
+     * The preferences only hold a weak reference to the listener.
+     */
+    public void registerOnChangeListener(SharedPreferences.OnSharedPreferenceChangeListener listener){
+
+        mPreferences.registerOnSharedPreferenceChangeListener(listener);
+    }
+
+
+    /**
+     * Unregisters a callback registered with registerOnChangeListener.
+     */
+    public void unregisterOnChangeListener(SharedPreferences.OnSharedPreferenceChangeListener listener){
+
+        mPreferences.unregisterOnSharedPreferenceChangeListener(listener);
+    }
+
 }
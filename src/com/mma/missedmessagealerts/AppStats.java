@@ -0,0 +1,171 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts;
+
+import android.content.Context;
+import android.util.Log;
+import com.mma.missedmessagealerts.core.Channels;
+import com.mma.missedmessagealerts.core.QuantileSketch;
+import com.mma.missedmessagealerts.core.StatsStore;
+import com.mma.missedmessagealerts.core.WallClock;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Holds the application's StatsStore, shared by its services and activities
+ * and mapped from STATS_FILE in the private files directory. Also holds the
+ * sketches of each channel's time to acknowledge, kept in ACK_LATENCY_FILE.
+ *
+ * @author Michael R. Falcone
+ */
+public final class AppStats {
+
+
+    // CONSTANTS -----------------------------------------
+
+    /**
+     * Name of the private file the statistics are mapped from.
+     */
+    public static final String STATS_FILE = "stats.bin";
+
+    /**
+     * Name of the private file the acknowledgement sketches are saved to.
+     */
+    public static final String ACK_LATENCY_FILE = "ack_latency_v2.bin";
+
+    // held acknowledgements of messages that never raised an alert
+    private static final String OLD_ACK_LATENCY_FILE = "ack_latency.bin";
+
+    private static final String TAG = "AppStats";
+
+
+
+    // MEMBER VARIABLES -----------------------------------------
+
+    private static StatsStore sStore;
+    private static boolean sOpenFailed = false;
+
+    private static QuantileSketch[] sAckSketches;
+
+
+
+    private AppStats(){
+    }
+
+
+
+
+    // PUBLIC METHODS -----------------------------------------
+
+    /**
+     * Returns the application's statistics, mapping the file on first use.
+     * @return the store, or null if the file could not be mapped
+     */
+    public static synchronized StatsStore get(Context context){
+
+        if (sStore == null && !sOpenFailed) {
+
+            try {
+                sStore = StatsStore.open(new File(context.getFilesDir(), STATS_FILE), new WallClock());
+            } catch (IOException e) {
+
+                Log.w(TAG, "Statistics disabled: " + e.getMessage());
+                sOpenFailed = true;
+            }
+        }
+
+        return sStore;
+    }
+
+
+    /**
+     * Returns the sketches of the time to acknowledge of each channel,
+     * indexed by channel and loaded from the file on first use.
+     */
+    public static synchronized QuantileSketch[] getAckSketches(Context context){
+
+        if (sAckSketches != null)
+            return sAckSketches;
+
+        sAckSketches = new QuantileSketch[Channels.COUNT];
+
+        for (int channel = 0; channel < Channels.COUNT; ++channel)
+            sAckSketches[channel] = new QuantileSketch();
+
+        File file = new File(context.getFilesDir(), ACK_LATENCY_FILE);
+        File old_file = new File(context.getFilesDir(), OLD_ACK_LATENCY_FILE);
+
+        if (old_file.exists())
+            old_file.delete();
+
+        if (!file.exists())
+            return sAckSketches;
+
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+
+            try {
+                for (int channel = 0; channel < Channels.COUNT; ++channel)
+                    sAckSketches[channel].readFrom(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+
+            Log.w(TAG, "Acknowledgement history discarded: " + e.getMessage());
+
+            for (int channel = 0; channel < Channels.COUNT; ++channel)
+                sAckSketches[channel].clear();
+        }
+
+        return sAckSketches;
+    }
+
+
+    /**
+     * Adds a time to acknowledge to the channel's sketch and saves the sketches.
+     */
+    public static synchronized void addAckLatency(Context context, int channel, long latencyMs){
+
+        getAckSketches(context)[channel].add(latencyMs);
+
+        // write a new file and rename it over the old, so a kill never leaves half a file
+        File file = new File(context.getFilesDir(), ACK_LATENCY_FILE);
+        File temp = new File(context.getFilesDir(), ACK_LATENCY_FILE + ".tmp");
+
+        try {
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+
+            try {
+                for (int i = 0; i < Channels.COUNT; ++i)
+                    sAckSketches[i].writeTo(out);
+            } finally {
+                out.close();
+            }
+
+            if (!temp.renameTo(file))
+                throw new IOException("Could not replace " + ACK_LATENCY_FILE);
+        } catch (IOException e) {
+            Log.w(TAG, "Acknowledgement history not saved: " + e.getMessage());
+        }
+    }
+}
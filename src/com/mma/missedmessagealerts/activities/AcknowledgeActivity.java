@@ -0,0 +1,247 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.activities;
+
+import android.app.Activity;
+import android.content.ActivityNotFoundException;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.provider.CallLog;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import android.view.WindowManager;
+import android.widget.TextView;
+import com.mma.missedmessagealerts.AppEventLog;
+import com.mma.missedmessagealerts.R;
+import com.mma.missedmessagealerts.core.Channels;
+import com.mma.missedmessagealerts.core.EventLog;
+import com.mma.missedmessagealerts.services.AlerterService;
+import com.mma.missedmessagealerts.services.MissedMessageListenerService;
+
+/**
+ * Full screen shown over the lock screen when the screen flashes for an
+ * alert, with buttons to acknowledge the alerts, snooze them or open the
+ * missed messages. The layout is a single level of views, and the alerter
+ * service inflates it once ahead of time so the first launch does not
+ * load its classes. The time from the launch to the first draw is logged
+ * against STARTUP_BUDGET_MS.
+ *
+ * @author Michael R. Falcone
+ */
+public class AcknowledgeActivity extends Activity implements View.OnClickListener {
+
+
+
+    // CONSTANTS ---------------------------------------
+
+    /**
+     * Extra holding the channel whose alert launched the screen.
+     */
+    public static final String EXTRA_CHANNEL = "channel";
+
+    /**
+     * Extra holding the uptime in milliseconds at which the screen was launched.
+     */
+    public static final String EXTRA_LAUNCH_TIME = "launchTime";
+
+    /**
+     * Longest time from the launch to the first draw that is within budget.
+     */
+    public static final long STARTUP_BUDGET_MS = 150;
+
+    private static final int[] TITLES = {R.string.ack_title_text, R.string.ack_title_missed_call,
+            R.string.ack_title_voice_mail};
+
+
+
+
+    // MEMBER VARIABLES ---------------------------------------
+
+    private EventLog mEventLog;
+
+    private TextView mTitleText;
+
+    private int mChannel = Channels.TEXT;
+    private long mLaunchTime = -1;
+
+
+
+    private BroadcastReceiver mAlertsStoppedReceiver = new BroadcastReceiver() {
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            finish();
+        }
+    };
+
+
+    private ViewTreeObserver.OnPreDrawListener mFirstDrawListener = new ViewTreeObserver.OnPreDrawListener() {
+
+        @Override
+        public boolean onPreDraw() {
+
+            mTitleText.getViewTreeObserver().removeOnPreDrawListener(this);
+
+            if (mLaunchTime >= 0) {
+
+                long startup_ms = SystemClock.uptimeMillis() - mLaunchTime;
+                mEventLog.log(EventLog.ACK_SCREEN_SHOWN, mChannel, startup_ms,
+                        startup_ms > STARTUP_BUDGET_MS ? 1 : 0);
+            }
+
+            return true;
+        }
+    };
+
+
+
+
+    // PUBLIC METHODS -------------------------------------
+
+    /**
+     * Launches the screen for the channel, or updates it if it is showing.
+     */
+    public static void show(Context context, int channel){
+
+        Intent intent = new Intent(context, AcknowledgeActivity.class);
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_NO_USER_ACTION);
+        intent.putExtra(EXTRA_CHANNEL, channel);
+        intent.putExtra(EXTRA_LAUNCH_TIME, SystemClock.uptimeMillis());
+
+        context.startActivity(intent);
+    }
+
+
+    /**
+     * Inflates the screen's layout once and throws it away, loading its
+     * view classes and resources so that the screen starts faster.
+     */
+    public static void prewarm(Context context){
+
+        LayoutInflater.from(context).inflate(R.layout.acknowledge_layout, null);
+    }
+
+
+
+
+    // OVERRIDE METHODS -------------------------------------
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        getWindow().addFlags(WindowManager.LayoutParams.FLAG_SHOW_WHEN_LOCKED);
+        setContentView(R.layout.acknowledge_layout);
+
+        mEventLog = AppEventLog.get(this);
+
+        mTitleText = (TextView) findViewById(R.id.alertTitleTextView);
+        findViewById(R.id.acknowledgeButton).setOnClickListener(this);
+        findViewById(R.id.snoozeButton).setOnClickListener(this);
+        findViewById(R.id.openButton).setOnClickListener(this);
+
+        registerReceiver(mAlertsStoppedReceiver, new IntentFilter(AlerterService.ALERTS_STOPPED));
+
+        // only a launch that created the screen counts against the startup budget
+        mLaunchTime = getIntent().getLongExtra(EXTRA_LAUNCH_TIME, -1);
+        mTitleText.getViewTreeObserver().addOnPreDrawListener(mFirstDrawListener);
+
+        showChannel(getIntent());
+    }
+
+    @Override
+    protected void onNewIntent(Intent intent) {
+        super.onNewIntent(intent);
+
+        setIntent(intent);
+        showChannel(intent);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        unregisterReceiver(mAlertsStoppedReceiver);
+    }
+
+    @Override
+    public void onClick(View view) {
+
+        switch (view.getId()) {
+
+            case R.id.acknowledgeButton:
+                sendBroadcast(new Intent(MissedMessageListenerService.STOP_ALL_ALERTS));
+                break;
+
+            case R.id.snoozeButton:
+                sendBroadcast(new Intent(AlerterService.SNOOZE_ALERTS));
+                break;
+
+            case R.id.openButton:
+                sendBroadcast(new Intent(MissedMessageListenerService.STOP_ALL_ALERTS));
+                openMessages();
+                break;
+        }
+
+        finish();
+    }
+
+
+
+
+    // PRIVATE METHODS -------------------------------------
+
+    private void showChannel(Intent intent){
+
+        int channel = intent.getIntExtra(EXTRA_CHANNEL, Channels.TEXT);
+
+        if (Channels.isChannel(channel))
+            mChannel = channel;
+
+        mTitleText.setText(TITLES[mChannel]);
+    }
+
+
+    /*
+     * Opens the messaging app for texts, or the call log for calls and voicemail.
+     */
+    private void openMessages(){
+
+        Intent open;
+
+        if (mChannel == Channels.TEXT) {
+
+            open = new Intent(Intent.ACTION_MAIN);
+            open.setType("vnd.android-dir/mms-sms");
+        }
+        else
+            open = new Intent(Intent.ACTION_VIEW, CallLog.Calls.CONTENT_URI);
+
+        open.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+
+        try {
+            startActivity(open);
+        } catch (ActivityNotFoundException e) {
+            // nothing to open, the alerts are acknowledged regardless
+        }
+    }
+}
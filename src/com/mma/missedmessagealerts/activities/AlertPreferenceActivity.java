@@ -27,14 +27,15 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.os.Vibrator;
 import android.preference.*;
-import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.TimePicker;
 import com.mma.missedmessagealerts.AlertPreferences;
+import com.mma.missedmessagealerts.AppEventLog;
 import com.mma.missedmessagealerts.AppPreferences;
 import com.mma.missedmessagealerts.R;
-import com.mma.missedmessagealerts.services.AlerterService;
+import com.mma.missedmessagealerts.core.EventLog;
+import com.mma.missedmessagealerts.core.VibratePatterns;
 import com.mma.seekbarpreference.DefinedSeekbarPreference;
 
 /**
@@ -90,6 +91,7 @@ public class AlertPreferenceActivity extends PreferenceActivity {
     private static final int MENU_RESET = Menu.FIRST;
 
     private MediaPlayer mPreviewPlayer;
+    private EventLog mEventLog;
 
     private CheckBoxPreference mEnableComtypeCheckbox;
     private CheckBoxPreference mFlashScreenAlertCheckbox;
@@ -100,9 +102,16 @@ public class AlertPreferenceActivity extends PreferenceActivity {
     private CheckBoxPreference mEnableSchedulingCheckbox;
     private ListPreference mAlertIntervalList;
     private DefinedSeekbarPreference mAudioVolumeSeekbar;
+    private ListPreference mCrescendoList;
     private ListPreference mAlertDurationList;
+    private CheckBoxPreference mAdaptiveIntervalCheckbox;
+    private ListPreference mMinIntervalList;
+    private ListPreference mMaxIntervalList;
+    private CheckBoxPreference mEscalateCheckbox;
+    private ListPreference mEscalationStepList;
     private RingtonePreference mAlertTonePreference;
     private ListPreference mVibrateStyleList;
+    private EditTextPreference mVibrateCustomText;
     private Preference mPreviewPreference;
     private Preference mPickScheduleStartPreference;
     private Preference mPickScheduleEndPreference;
@@ -116,6 +125,8 @@ public class AlertPreferenceActivity extends PreferenceActivity {
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        mEventLog = AppEventLog.get(this);
+
         addPreferencesFromResource(R.xml.alert_prefs);
 
         AppPreferences appPrefs = new AppPreferences(this);
@@ -148,9 +159,16 @@ public class AlertPreferenceActivity extends PreferenceActivity {
         mEnableSchedulingCheckbox = (CheckBoxPreference) findPreference(AlertPreferences.NOPREFIX_KEY_ENABLE_SCHEDULING);
         mAlertIntervalList = (ListPreference) findPreference(AlertPreferences.NOPREFIX_KEY_ALERT_INTERVAL);
         mAudioVolumeSeekbar = (DefinedSeekbarPreference) findPreference(AlertPreferences.NOPREFIX_KEY_AUDIO_ALERT_VOLUME);
+        mCrescendoList = (ListPreference) findPreference(AlertPreferences.NOPREFIX_KEY_CRESCENDO);
         mAlertDurationList = (ListPreference) findPreference(AlertPreferences.NOPREFIX_KEY_ALERT_DURATION);
+        mAdaptiveIntervalCheckbox = (CheckBoxPreference) findPreference(AlertPreferences.NOPREFIX_KEY_ADAPTIVE_INTERVAL);
+        mMinIntervalList = (ListPreference) findPreference(AlertPreferences.NOPREFIX_KEY_MIN_ALERT_INTERVAL);
+        mMaxIntervalList = (ListPreference) findPreference(AlertPreferences.NOPREFIX_KEY_MAX_ALERT_INTERVAL);
+        mEscalateCheckbox = (CheckBoxPreference) findPreference(AlertPreferences.NOPREFIX_KEY_ESCALATE);
+        mEscalationStepList = (ListPreference) findPreference(AlertPreferences.NOPREFIX_KEY_ESCALATION_STEP);
         mAlertTonePreference = (RingtonePreference)findPreference(AlertPreferences.NOPREFIX_KEY_ALERT_TONE);
         mVibrateStyleList = (ListPreference) findPreference(AlertPreferences.NOPREFIX_KEY_VIBRATE_STYLE);
+        mVibrateCustomText = (EditTextPreference) findPreference(AlertPreferences.NOPREFIX_KEY_VIBRATE_CUSTOM);
         mPreviewPreference = findPreference(KEY_AUDIO_PREVIEW);
         mPickScheduleStartPreference = findPreference(KEY_PICK_SCHEDULE_START);
         mPickScheduleEndPreference = findPreference(KEY_PICK_SCHEDULE_END);
@@ -246,13 +264,20 @@ public class AlertPreferenceActivity extends PreferenceActivity {
         mDimFlashModeCheckbox.setEnabled(false);
         mAlertIntervalList.setEnabled(false);
         mAlertDurationList.setEnabled(false);
+        mAdaptiveIntervalCheckbox.setEnabled(false);
+        mMinIntervalList.setEnabled(false);
+        mMaxIntervalList.setEnabled(false);
+        mEscalateCheckbox.setEnabled(false);
+        mEscalationStepList.setEnabled(false);
         mFlashScreenAlertCheckbox.setEnabled(false);
         mVibrateAlertCheckbox.setEnabled(false);
         mVibrateStyleList.setEnabled(false);
+        mVibrateCustomText.setEnabled(false);
         mAudioAlertCheckbox.setEnabled(false);
         mAlertTonePreference.setEnabled(false);
         mAudioDisableOnSilentCheckbox.setEnabled(false);
         mAudioVolumeSeekbar.setEnabled(false);
+        mCrescendoList.setEnabled(false);
         mPreviewPreference.setEnabled(false);
         mEnableSchedulingCheckbox.setEnabled(false);
         mPickScheduleStartPreference.setEnabled(false);
@@ -263,14 +288,21 @@ public class AlertPreferenceActivity extends PreferenceActivity {
 
         mAlertIntervalList.setEnabled(true);
         mAlertDurationList.setEnabled(true);
+        mAdaptiveIntervalCheckbox.setEnabled(true);
+        mMinIntervalList.setEnabled(mAdaptiveIntervalCheckbox.isChecked());
+        mMaxIntervalList.setEnabled(mAdaptiveIntervalCheckbox.isChecked());
+        mEscalateCheckbox.setEnabled(true);
+        mEscalationStepList.setEnabled(mEscalateCheckbox.isChecked());
         mFlashScreenAlertCheckbox.setEnabled(true);
         mVibrateAlertCheckbox.setEnabled(true);
         mVibrateStyleList.setEnabled(mVibrateAlertCheckbox.isChecked());
+        mVibrateCustomText.setEnabled(mVibrateAlertCheckbox.isChecked() && isCustomVibrateStyle(mAlertPrefs.getVibrateStyle()));
         mAudioAlertCheckbox.setEnabled(true);
         mAlertTonePreference.setEnabled(mAudioAlertCheckbox.isChecked());
         mDimFlashModeCheckbox.setEnabled(mFlashScreenAlertCheckbox.isChecked());
         mAudioDisableOnSilentCheckbox.setEnabled(mAudioAlertCheckbox.isChecked());
         mAudioVolumeSeekbar.setEnabled(mAudioAlertCheckbox.isChecked());
+        mCrescendoList.setEnabled(mAudioAlertCheckbox.isChecked());
         mPreviewPreference.setEnabled(mAudioAlertCheckbox.isChecked());
         mEnableSchedulingCheckbox.setEnabled(true);
         mPickScheduleStartPreference.setEnabled(mEnableSchedulingCheckbox.isChecked());
@@ -288,8 +320,15 @@ public class AlertPreferenceActivity extends PreferenceActivity {
         mAudioDisableOnSilentCheckbox.setChecked(mAlertPrefs.getAudioDisabledOnSilent());
         mAlertIntervalList.setValue(mAlertPrefs.getInterval());
         mAudioVolumeSeekbar.setProgress(mAlertPrefs.getAlertVolume());
+        mCrescendoList.setValue(mAlertPrefs.getCrescendo());
         mAlertDurationList.setValue(mAlertPrefs.getDuration());
+        mAdaptiveIntervalCheckbox.setChecked(mAlertPrefs.getAdaptiveIntervalEnabled());
+        mMinIntervalList.setValue(mAlertPrefs.getMinInterval());
+        mMaxIntervalList.setValue(mAlertPrefs.getMaxInterval());
+        mEscalateCheckbox.setChecked(mAlertPrefs.getEscalateEnabled());
+        mEscalationStepList.setValue(mAlertPrefs.getEscalationStep());
         mVibrateStyleList.setValue(mAlertPrefs.getVibrateStyle());
+        mVibrateCustomText.setText(mAlertPrefs.getVibrateCustom());
         mEnableSchedulingCheckbox.setChecked(mAlertPrefs.getSchedulingEnabled());
 
         mAlertTonePreference.setKey(mAlertPrefs.KEY_ALERT_TONE);
@@ -344,7 +383,11 @@ public class AlertPreferenceActivity extends PreferenceActivity {
                             mPreviewPreference.setSummary(R.string.pref_sum_audiopreviewstop);
                         }
                         catch (Exception e){
-                            Log.e("AlertPreferenceActivity","Error initializing preview player: " + e.getMessage());
+
+                            mEventLog.log(EventLog.PREVIEW_AUDIO_FAILED, EventLog.NO_CHANNEL, 0, 0);
+
+                            mPreviewPlayer.release();
+                            mPreviewPlayer = null;
                         }
                     }
                 }
@@ -419,6 +462,7 @@ public class AlertPreferenceActivity extends PreferenceActivity {
                 mAlertPrefs.setVibrateEnabled(value);
 
                 mVibrateStyleList.setEnabled(value);
+                mVibrateCustomText.setEnabled(value && isCustomVibrateStyle(mAlertPrefs.getVibrateStyle()));
                 return true;
             }
         });
@@ -433,6 +477,7 @@ public class AlertPreferenceActivity extends PreferenceActivity {
                 mAlertTonePreference.setEnabled(value);
                 mAudioDisableOnSilentCheckbox.setEnabled(value);
                 mAudioVolumeSeekbar.setEnabled(value);
+                mCrescendoList.setEnabled(value);
 
                 if(mPreviewPlayer != null){
 
@@ -520,6 +565,62 @@ public class AlertPreferenceActivity extends PreferenceActivity {
         });
 
 
+        mAdaptiveIntervalCheckbox.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+
+                boolean value = (Boolean)newValue;
+                mAlertPrefs.setAdaptiveIntervalEnabled(value);
+                mMinIntervalList.setEnabled(value);
+                mMaxIntervalList.setEnabled(value);
+                return true;
+            }
+        });
+
+        mMinIntervalList.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+
+                mAlertPrefs.setMinInterval((String) newValue);
+                return true;
+            }
+        });
+
+        mMaxIntervalList.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+
+                mAlertPrefs.setMaxInterval((String) newValue);
+                return true;
+            }
+        });
+
+        mEscalateCheckbox.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+
+                boolean value = (Boolean)newValue;
+                mAlertPrefs.setEscalateEnabled(value);
+                mEscalationStepList.setEnabled(value);
+                return true;
+            }
+        });
+
+        mEscalationStepList.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+
+                mAlertPrefs.setEscalationStep((String) newValue);
+                return true;
+            }
+        });
+
+
         mAudioVolumeSeekbar.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
             @Override
             public boolean onPreferenceChange(Preference preference, Object newValue) {
@@ -542,6 +643,16 @@ public class AlertPreferenceActivity extends PreferenceActivity {
             }
         });
 
+        mCrescendoList.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+
+                mAlertPrefs.setCrescendo((String) newValue);
+                return true;
+            }
+        });
+
         mAlertDurationList.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
 
             @Override
@@ -597,32 +708,44 @@ public class AlertPreferenceActivity extends PreferenceActivity {
             @Override
             public boolean onPreferenceChange(Preference preference, Object newValue) {
 
-                long[] pattern;
+                String style = (String) newValue;
 
-                switch (Integer.parseInt((String) newValue)){
-
-                    case 0: pattern = AlerterService.VIBRATE_PATTERN_0;
-                        break;
-                    case 1: pattern = AlerterService.VIBRATE_PATTERN_1;
-                        break;
-                    case 2: pattern = AlerterService.VIBRATE_PATTERN_2;
-                        break;
-                    case 3: pattern = AlerterService.VIBRATE_PATTERN_3;
-                        break;
-                    case 4: pattern = AlerterService.VIBRATE_PATTERN_4;
-                        break;
-                    default:
-                        pattern = AlerterService.VIBRATE_PATTERN_0;
-                }
+                previewVibration(VibratePatterns.forStyle(style, mAlertPrefs.getVibrateCustom()));
+
+                mAlertPrefs.setVibrateStyle(style);
+                mVibrateCustomText.setEnabled(isCustomVibrateStyle(style));
+
+                return true;
+            }
+        });
+
+        mVibrateCustomText.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+
+                String text = (String) newValue;
+                long[] pattern;
 
+                // reject patterns that do not compile, so the alerts never fall back to the first style
                 try {
-                    Vibrator v = (Vibrator) getSystemService(Context.VIBRATOR_SERVICE);
-                    v.vibrate(pattern, -1);
-                } catch (Exception e) {
-                    Log.e("AlertPreferenceActivity", "Vibrator error: " + e.getMessage());
+                    pattern = VibratePatterns.getCompiled(text);
+                } catch (IllegalArgumentException e) {
+
+                    AlertDialog a = new AlertDialog.Builder(AlertPreferenceActivity.this).create();
+                    a.setMessage(getString(R.string.pref_vibratecustom_invalid, e.getMessage()));
+                    a.setButton(DialogInterface.BUTTON_NEUTRAL, getString(R.string.pref_message_button_ok),
+                            new DialogInterface.OnClickListener() {
+                                @Override
+                                public void onClick(DialogInterface dialog, int which) {
+                                }
+                            });
+                    a.show();
+                    return false;
                 }
 
-                mAlertPrefs.setVibrateStyle((String) newValue);
+                previewVibration(pattern);
+                mAlertPrefs.setVibrateCustom(text);
 
                 return true;
             }
@@ -630,6 +753,23 @@ public class AlertPreferenceActivity extends PreferenceActivity {
     }
 
 
+    private static boolean isCustomVibrateStyle(String style){
+
+        return VibratePatterns.STYLE_CUSTOM.equals(style);
+    }
+
+
+    private void previewVibration(long[] pattern){
+
+        try {
+            Vibrator v = (Vibrator) getSystemService(Context.VIBRATOR_SERVICE);
+            v.vibrate(pattern, -1);
+        } catch (Exception e) {
+            mEventLog.log(EventLog.PREVIEW_VIBRATE_FAILED, EventLog.NO_CHANNEL, pattern.length, 0);
+        }
+    }
+
+
     private void updateSchedulingStartEndTimes(){
 
         mPickScheduleStartPreference.setSummary(getString(R.string.pref_sum_pickschedulestart) + " " + mAlertPrefs.getSchedulingStartTimeString());
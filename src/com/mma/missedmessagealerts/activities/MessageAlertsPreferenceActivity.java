@@ -23,6 +23,8 @@ import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.preference.CheckBoxPreference;
+import android.preference.EditTextPreference;
+import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.Preference.OnPreferenceChangeListener;
 import android.preference.PreferenceActivity;
@@ -35,10 +37,17 @@ import android.view.View;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 import com.mma.missedmessagealerts.AppPreferences;
+import com.mma.missedmessagealerts.AppStats;
 import com.mma.missedmessagealerts.R;
+import com.mma.missedmessagealerts.core.Channels;
+import com.mma.missedmessagealerts.core.QuantileSketch;
+import com.mma.missedmessagealerts.core.StatsStore;
 import com.mma.missedmessagealerts.services.MissedMessageListenerService;
 import com.mma.seekbarpreference.DefinedSeekbarPreference;
 
+import java.io.IOException;
+import java.io.StringWriter;
+
 /**
  * Main activity that user interacts with. Provides user with
  * preference options and control over the way other services
@@ -53,6 +62,10 @@ public class MessageAlertsPreferenceActivity extends PreferenceActivity {
     private static final String KEY_EDIT_TEXT_ALERT_PREFERENCE = "PREF_EDIT_TEXT_ALERT";
     private static final String KEY_EDIT_MISSEDCALL_ALERT_PREFERENCE = "PREF_EDIT_MISSEDCALL_ALERT";
     private static final String KEY_EDIT_VOICEMAIL_ALERT_PREFERENCE = "PREF_EDIT_VOICEMAIL_ALERT";
+
+    // indexed by channel
+    private static final String[] KEYS_ACK_LATENCY_PREFERENCE = {"PREF_ACK_LATENCY_TEXT",
+            "PREF_ACK_LATENCY_MISSEDCALL", "PREF_ACK_LATENCY_VOICEMAIL"};
     
     private static final String KEY_WHATS_NEW_VERSION = "PREF_WHATS_NEW_VERSION";
 
@@ -60,14 +73,24 @@ public class MessageAlertsPreferenceActivity extends PreferenceActivity {
     private static final int MENU_RESET = Menu.FIRST;
     private static final int MENU_ABOUT = Menu.FIRST + 1;
     private static final int MENU_WHATSNEW = Menu.FIRST + 2;
+    private static final int MENU_EXPORT_STATS = Menu.FIRST + 3;
 
     private CheckBoxPreference mShowNotificationCheckbox;
+    private CheckBoxPreference mAcknowledgeScreenCheckbox;
     private CheckBoxPreference mEnableAlertsCheckbox;
     private CheckBoxPreference mDisableOnBatteryCheckbox;
+    private ListPreference mCoalesceWindowList;
+    private EditTextPreference mSenderRulesText;
+    private EditTextPreference mKeywordRulesText;
+    private CheckBoxPreference mKeywordsOnlyCheckbox;
+    private ListPreference mDuplicateWindowList;
+    private ListPreference mRepeatCallerList;
     private DefinedSeekbarPreference mLowBatteryPercentageSeekbar;
+    private DefinedSeekbarPreference mCriticalBatteryPercentageSeekbar;
     private Preference mEditTextAlertPreference;
     private Preference mEditMissedCallAlertPreference;
     private Preference mEditVoicemailAlertPreference;
+    private Preference[] mAckLatencyPreferences = new Preference[Channels.COUNT];
     
     private AppPreferences mPreferences;
 
@@ -82,14 +105,25 @@ public class MessageAlertsPreferenceActivity extends PreferenceActivity {
 
 
         mShowNotificationCheckbox = (CheckBoxPreference) findPreference(AppPreferences.KEY_SHOW_NOTIFICATION);
+        mAcknowledgeScreenCheckbox = (CheckBoxPreference) findPreference(AppPreferences.KEY_ACKNOWLEDGE_SCREEN);
         mEnableAlertsCheckbox = (CheckBoxPreference) findPreference(AppPreferences.KEY_ENABLE_ALERTS);
         mDisableOnBatteryCheckbox = (CheckBoxPreference) findPreference(AppPreferences.KEY_DISABLE_ON_BATTERY);
+        mCoalesceWindowList = (ListPreference) findPreference(AppPreferences.KEY_COALESCE_WINDOW);
+        mSenderRulesText = (EditTextPreference) findPreference(AppPreferences.KEY_SENDER_RULES);
+        mKeywordRulesText = (EditTextPreference) findPreference(AppPreferences.KEY_KEYWORD_RULES);
+        mKeywordsOnlyCheckbox = (CheckBoxPreference) findPreference(AppPreferences.KEY_KEYWORDS_ONLY);
+        mDuplicateWindowList = (ListPreference) findPreference(AppPreferences.KEY_DUPLICATE_WINDOW);
+        mRepeatCallerList = (ListPreference) findPreference(AppPreferences.KEY_REPEAT_CALLER_ALERT);
         mLowBatteryPercentageSeekbar = (DefinedSeekbarPreference) findPreference(AppPreferences.KEY_LOW_BATTERY_PERCENTAGE);
+        mCriticalBatteryPercentageSeekbar = (DefinedSeekbarPreference) findPreference(AppPreferences.KEY_CRITICAL_BATTERY_PERCENTAGE);
 
         mEditTextAlertPreference = findPreference(KEY_EDIT_TEXT_ALERT_PREFERENCE);
         mEditMissedCallAlertPreference = findPreference(KEY_EDIT_MISSEDCALL_ALERT_PREFERENCE);
         mEditVoicemailAlertPreference = findPreference(KEY_EDIT_VOICEMAIL_ALERT_PREFERENCE);
 
+        for (int channel = 0; channel < Channels.COUNT; ++channel)
+            mAckLatencyPreferences[channel] = findPreference(KEYS_ACK_LATENCY_PREFERENCE[channel]);
+
 
         startService(new Intent(this, MissedMessageListenerService.class));
 
@@ -114,6 +148,9 @@ public class MessageAlertsPreferenceActivity extends PreferenceActivity {
         MenuItem whatsnew_item = menu.add(0, MENU_WHATSNEW, Menu.NONE, R.string.pref_menu_whatsnew);
         whatsnew_item.setIcon(android.R.drawable.ic_menu_recent_history);
 
+        MenuItem export_item = menu.add(0, MENU_EXPORT_STATS, Menu.NONE, R.string.pref_menu_exportstats);
+        export_item.setIcon(android.R.drawable.ic_menu_share);
+
         return true;
     }
 
@@ -134,6 +171,10 @@ public class MessageAlertsPreferenceActivity extends PreferenceActivity {
 
             showWhatsNew();
             return true;
+        } else if (item.getItemId() == MENU_EXPORT_STATS) {
+
+            exportStatistics();
+            return true;
         }
 
         return false;
@@ -144,6 +185,8 @@ public class MessageAlertsPreferenceActivity extends PreferenceActivity {
     public void onResume() {
         super.onResume();
 
+        updateAckLatencySummaries();
+
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
 
         String whats_new_version = prefs.getString(KEY_WHATS_NEW_VERSION, "0.0");
@@ -183,6 +226,76 @@ public class MessageAlertsPreferenceActivity extends PreferenceActivity {
 
 
 
+    /*
+     * Writes the hourly statistics as CSV and offers them to any
+     * application that can send text.
+     */
+    private void exportStatistics(){
+
+        StatsStore stats = AppStats.get(this);
+
+        if (stats == null)
+            return;
+
+        StringWriter csv = new StringWriter();
+
+        try {
+            stats.exportCsv(csv);
+        } catch (IOException e) {
+            return;
+        }
+
+        Intent send = new Intent(Intent.ACTION_SEND);
+        send.setType("text/csv");
+        send.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.stats_export_subject));
+        send.putExtra(Intent.EXTRA_TEXT, csv.toString());
+
+        startActivity(Intent.createChooser(send, getString(R.string.pref_menu_exportstats)));
+    }
+
+
+
+    /*
+     * Shows the quantiles of each channel's time to acknowledge.
+     */
+    private void updateAckLatencySummaries(){
+
+        QuantileSketch[] sketches = AppStats.getAckSketches(this);
+
+        for (int channel = 0; channel < Channels.COUNT; ++channel) {
+
+            QuantileSketch sketch = sketches[channel];
+
+            if (sketch.getCount() == 0) {
+
+                mAckLatencyPreferences[channel].setSummary(R.string.pref_sum_acklatency_none);
+                continue;
+            }
+
+            mAckLatencyPreferences[channel].setSummary(getString(R.string.pref_sum_acklatency,
+                    formatDuration(sketch.getQuantile(0.5)), formatDuration(sketch.getQuantile(0.9)),
+                    formatDuration(sketch.getQuantile(0.99)), sketch.getCount()));
+        }
+    }
+
+
+    private static String formatDuration(long ms){
+
+        long seconds = (ms + 500) / 1000;
+
+        if (seconds < 90)
+            return seconds + "s";
+
+        long minutes = (seconds + 30) / 60;
+
+        if (minutes < 90)
+            return minutes + "m";
+
+        return String.format("%.1fh", minutes / 60.0f);
+    }
+
+
+
     private void showWhatsNew(){
 
         View v = LinearLayout.inflate(this, R.layout.whats_new, null);
@@ -231,7 +344,15 @@ public class MessageAlertsPreferenceActivity extends PreferenceActivity {
 
         mDisableOnBatteryCheckbox.setEnabled(false);
         mLowBatteryPercentageSeekbar.setEnabled(false);
+        mCriticalBatteryPercentageSeekbar.setEnabled(false);
         mShowNotificationCheckbox.setEnabled(false);
+        mAcknowledgeScreenCheckbox.setEnabled(false);
+        mCoalesceWindowList.setEnabled(false);
+        mSenderRulesText.setEnabled(false);
+        mKeywordRulesText.setEnabled(false);
+        mKeywordsOnlyCheckbox.setEnabled(false);
+        mDuplicateWindowList.setEnabled(false);
+        mRepeatCallerList.setEnabled(false);
         mEditTextAlertPreference.setEnabled(false);
         mEditVoicemailAlertPreference.setEnabled(false);
         mEditMissedCallAlertPreference.setEnabled(false);
@@ -241,7 +362,15 @@ public class MessageAlertsPreferenceActivity extends PreferenceActivity {
 
         mDisableOnBatteryCheckbox.setEnabled(true);
         mShowNotificationCheckbox.setEnabled(true);
+        mAcknowledgeScreenCheckbox.setEnabled(true);
+        mCoalesceWindowList.setEnabled(true);
+        mSenderRulesText.setEnabled(true);
+        mKeywordRulesText.setEnabled(true);
+        mKeywordsOnlyCheckbox.setEnabled(true);
+        mDuplicateWindowList.setEnabled(true);
+        mRepeatCallerList.setEnabled(true);
         mLowBatteryPercentageSeekbar.setEnabled(mDisableOnBatteryCheckbox.isChecked());
+        mCriticalBatteryPercentageSeekbar.setEnabled(mDisableOnBatteryCheckbox.isChecked());
         mEditTextAlertPreference.setEnabled(true);
         mEditVoicemailAlertPreference.setEnabled(true);
         mEditMissedCallAlertPreference.setEnabled(true);
@@ -251,9 +380,17 @@ public class MessageAlertsPreferenceActivity extends PreferenceActivity {
     private void restorePreferenceStates(){
 
         mShowNotificationCheckbox.setChecked(mPreferences.getNotificationEnabled());
+        mAcknowledgeScreenCheckbox.setChecked(mPreferences.getAcknowledgeScreenEnabled());
         mEnableAlertsCheckbox.setChecked(mPreferences.getAlertsEnabled());
         mDisableOnBatteryCheckbox.setChecked(mPreferences.getDisableOnLowBattery());
+        mCoalesceWindowList.setValue(mPreferences.getCoalesceWindow());
+        mSenderRulesText.setText(mPreferences.getSenderRules());
+        mKeywordRulesText.setText(mPreferences.getKeywordRules());
+        mKeywordsOnlyCheckbox.setChecked(mPreferences.getKeywordsOnly());
+        mDuplicateWindowList.setValue(mPreferences.getDuplicateWindow());
+        mRepeatCallerList.setValue(mPreferences.getRepeatCallerAlert());
         mLowBatteryPercentageSeekbar.setProgress(mPreferences.getLowBatteryPercentage());
+        mCriticalBatteryPercentageSeekbar.setProgress(mPreferences.getCriticalBatteryPercentage());
     }
 
 
@@ -271,6 +408,88 @@ public class MessageAlertsPreferenceActivity extends PreferenceActivity {
             }
         });
 
+        mAcknowledgeScreenCheckbox.setOnPreferenceChangeListener(new OnPreferenceChangeListener(){
+
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+
+                mPreferences.setAcknowledgeScreenEnabled((Boolean)newValue);
+                return true;
+            }
+        });
+
+
+
+        mCoalesceWindowList.setOnPreferenceChangeListener(new OnPreferenceChangeListener(){
+
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+
+                mPreferences.setCoalesceWindow((String)newValue);
+                return true;
+            }
+        });
+
+
+
+        mSenderRulesText.setOnPreferenceChangeListener(new OnPreferenceChangeListener(){
+
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+
+                mPreferences.setSenderRules((String)newValue);
+                return true;
+            }
+        });
+
+
+
+        mKeywordRulesText.setOnPreferenceChangeListener(new OnPreferenceChangeListener(){
+
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+
+                mPreferences.setKeywordRules((String)newValue);
+                return true;
+            }
+        });
+
+
+
+        mKeywordsOnlyCheckbox.setOnPreferenceChangeListener(new OnPreferenceChangeListener(){
+
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+
+                mPreferences.setKeywordsOnly((Boolean)newValue);
+                return true;
+            }
+        });
+
+
+
+        mDuplicateWindowList.setOnPreferenceChangeListener(new OnPreferenceChangeListener(){
+
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+
+                mPreferences.setDuplicateWindow((String)newValue);
+                return true;
+            }
+        });
+
+
+
+        mRepeatCallerList.setOnPreferenceChangeListener(new OnPreferenceChangeListener(){
+
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+
+                mPreferences.setRepeatCallerAlert((String)newValue);
+                return true;
+            }
+        });
+
 
 
         mEnableAlertsCheckbox.setOnPreferenceChangeListener(new OnPreferenceChangeListener() {
@@ -303,10 +522,10 @@ public class MessageAlertsPreferenceActivity extends PreferenceActivity {
                 mPreferences.setDisableOnLowBattery(value);
 
                 mLowBatteryPercentageSeekbar.setEnabled(value);
+                mCriticalBatteryPercentageSeekbar.setEnabled(value);
 
-                // restart the listener service in case it was stopped due to low battery
-                if (!value)
-                    startService(new Intent(MessageAlertsPreferenceActivity.this, MissedMessageListenerService.class));
+                // have the listener service reload its battery thresholds
+                startService(new Intent(MessageAlertsPreferenceActivity.this, MissedMessageListenerService.class));
 
                 return true;
             }
@@ -320,7 +539,20 @@ public class MessageAlertsPreferenceActivity extends PreferenceActivity {
             public boolean onPreferenceChange(Preference preference, Object newValue) {
 
                 mPreferences.setLowBatteryPercentage((Integer)newValue);
-                // restart the listener service in case it was stopped due to low battery
+                // have the listener service reload its battery thresholds
+                startService(new Intent(MessageAlertsPreferenceActivity.this, MissedMessageListenerService.class));
+                return true;
+            }
+        });
+
+
+        mCriticalBatteryPercentageSeekbar.setOnPreferenceChangeListener(new OnPreferenceChangeListener() {
+
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+
+                mPreferences.setCriticalBatteryPercentage((Integer)newValue);
+                // have the listener service reload its battery thresholds
                 startService(new Intent(MessageAlertsPreferenceActivity.this, MissedMessageListenerService.class));
                 return true;
             }
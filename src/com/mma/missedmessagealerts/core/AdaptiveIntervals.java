@@ -0,0 +1,152 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+/**
+ * Per-channel, per-hour factors by which alert intervals are scaled, learned
+ * from the recorded time to acknowledge alerts that were actually started.
+ * Messages that were ignored or held back by quiet hours are not recorded,
+ * so reading them later never counts as a slow response. Hours in which the
+ * user usually responds later than their average get longer intervals, and
+ * hours with quick responses get shorter ones. The factors are computed once
+ * from the statistics, and a profile's intervals are compiled from them once
+ * when alerts start, so scheduling an alert is a table lookup.
+ *
+ * @author Michael R. Falcone
+ */
+public final class AdaptiveIntervals {
+
+
+    // CONSTANTS -----------------------------------------
+
+    /**
+     * Factors that leave every interval unchanged.
+     */
+    public static final AdaptiveIntervals NEUTRAL = new AdaptiveIntervals(new int[Channels.COUNT][]);
+
+    private static final int HOURS_PER_DAY = StatsStore.HOURS_PER_DAY;
+
+    private static final int FACTOR_SCALE = 1000;                      // factors are kept in thousandths
+    private static final int MIN_FACTOR = FACTOR_SCALE / 4;
+    private static final int MAX_FACTOR = FACTOR_SCALE * 4;
+
+    private static final long MIN_ACKS = 10;                           // acknowledgements needed before a channel adapts
+    private static final long PRIOR_ACKS = 3;                          // weight of the channel average in each hour
+
+
+
+    // MEMBER VARIABLES -----------------------------------------
+
+    private final int[][] mFactors;     // by channel and hour, null for channels that do not adapt
+
+
+
+    private AdaptiveIntervals(int[][] factors){
+
+        mFactors = factors;
+    }
+
+
+
+
+    // PUBLIC METHODS -----------------------------------------
+
+    /**
+     * Computes the factors from the acknowledgements of every day kept in the
+     * statistics. A channel with too few acknowledgements is not adapted, and
+     * hours with few acknowledgements are drawn towards the channel's average.
+     * @param nowMs current time, which selects the days read
+     */
+    public static AdaptiveIntervals fromStats(StatsStore stats, long nowMs){
+
+        int[][] factors = new int[Channels.COUNT][];
+        long today = stats.getDay(nowMs);
+
+        long[] acks = new long[HOURS_PER_DAY];
+        long[] latency = new long[HOURS_PER_DAY];
+
+        for (int channel = 0; channel < Channels.COUNT; ++channel) {
+
+            long total_acks = 0;
+            long total_latency = 0;
+
+            for (int hour = 0; hour < HOURS_PER_DAY; ++hour) {
+
+                acks[hour] = 0;
+                latency[hour] = 0;
+
+                for (long day = today - StatsStore.DAYS + 1; day <= today; ++day) {
+
+                    acks[hour] += stats.get(day, hour, StatsStore.STAT_ACKS + channel);
+                    latency[hour] += stats.get(day, hour, StatsStore.STAT_ACK_LATENCY_MS + channel);
+                }
+
+                total_acks += acks[hour];
+                total_latency += latency[hour];
+            }
+
+            if (total_acks < MIN_ACKS || total_latency <= 0)
+                continue;
+
+            double average = (double) total_latency / total_acks;
+
+            factors[channel] = new int[HOURS_PER_DAY];
+
+            for (int hour = 0; hour < HOURS_PER_DAY; ++hour) {
+
+                double hour_average = (latency[hour] + PRIOR_ACKS * average) / (acks[hour] + PRIOR_ACKS);
+                int factor = (int) Math.round(FACTOR_SCALE * hour_average / average);
+
+                factors[channel][hour] = Math.max(MIN_FACTOR, Math.min(MAX_FACTOR, factor));
+            }
+        }
+
+        return new AdaptiveIntervals(factors);
+    }
+
+
+    /**
+     * Returns the factor of the channel's intervals in the hour, in thousandths.
+     */
+    public int getFactor(int channel, int hour){
+
+        return mFactors[channel] == null ? FACTOR_SCALE : mFactors[channel][hour];
+    }
+
+
+    /**
+     * Returns the interval of the profile for each hour of the day, scaled
+     * by the channel's factors and kept within the profile's bounds. Returns
+     * null if the profile's interval does not adapt.
+     */
+    public long[] compile(int channel, AlertProfile profile){
+
+        if (!profile.adaptiveInterval)
+            return null;
+
+        long[] intervals = new long[HOURS_PER_DAY];
+
+        for (int hour = 0; hour < HOURS_PER_DAY; ++hour) {
+
+            long interval = profile.intervalMs * getFactor(channel, hour) / FACTOR_SCALE;
+
+            intervals[hour] = Math.max(profile.minIntervalMs, Math.min(profile.maxIntervalMs, interval));
+        }
+
+        return intervals;
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+/**
+ * Immutable snapshot of a communication's alert preferences, compiled
+ * once when alerts start so the alert path does not read the shared
+ * preferences file. Each profile also carries the variants used for each
+ * power tier, so switching tiers is an array lookup.
+ *
+ * @author Michael R. Falcone
+ */
+public final class AlertProfile {
+
+
+    // CONSTANTS -----------------------------------------
+
+    /**
+     * Power tier with the battery above the low battery percentage: full alerts.
+     */
+    public static final int TIER_FULL = 0;
+
+    /**
+     * Power tier with the battery between the critical and low battery
+     * percentages: longer intervals and no screen flash.
+     */
+    public static final int TIER_REDUCED = 1;
+
+    /**
+     * Power tier with the battery at or below the critical battery
+     * percentage: vibration only, at a long interval.
+     */
+    public static final int TIER_CRITICAL = 2;
+
+    /**
+     * Number of power tiers.
+     */
+    public static final int TIER_COUNT = 3;
+
+    /**
+     * Value of the duration for alerts that never stop on their own.
+     */
+    public static final long INFINITE_DURATION = 0;
+
+    private static final int MINUTES_PER_HOUR = 60;
+
+    private static final int REDUCED_INTERVAL_MULTIPLIER = 3;
+    private static final long CRITICAL_MIN_INTERVAL_MS = 300000;
+
+
+
+    // MEMBER VARIABLES -----------------------------------------
+
+    public final String prefix;
+    public final long intervalMs;
+    public final long durationMs;
+    public final boolean flashScreen;
+    public final boolean dimFlash;
+    public final boolean vibrate;
+    public final long[] vibratePattern;
+    public final boolean audio;
+    public final String alertTone;
+    public final float volume;
+    public final boolean audioDisabledOnSilent;
+    public final boolean schedulingEnabled;
+    public final int quietStartMinute;
+    public final int quietEndMinute;
+    public final boolean adaptiveInterval;
+    public final long minIntervalMs;
+    public final long maxIntervalMs;
+    public final long escalationStepMs;
+    public final long crescendoMs;
+
+    private final AlertProfile[] mTierProfiles;
+
+
+
+    // BUILDER -----------------------------------------
+
+    /**
+     * Collects the settings of an AlertProfile. Settings that are not set
+     * are off, with no duration limit, no vibration pattern or tone, full
+     * volume and a fixed interval.
+     */
+    public static final class Builder {
+
+        private final String mPrefix;
+        private long mIntervalMs = 0;
+        private long mDurationMs = INFINITE_DURATION;
+        private boolean mFlashScreen = false;
+        private boolean mDimFlash = false;
+        private boolean mVibrate = false;
+        private long[] mVibratePattern = new long[0];
+        private boolean mAudio = false;
+        private String mAlertTone = "";
+        private float mVolume = 1.0f;
+        private boolean mAudioDisabledOnSilent = false;
+        private boolean mSchedulingEnabled = false;
+        private int mQuietStartMinute = 0;
+        private int mQuietEndMinute = 0;
+        private boolean mAdaptiveInterval = false;
+        private long mMinIntervalMs = Long.MAX_VALUE;
+        private long mMaxIntervalMs = 0;
+        private long mEscalationStepMs = 0;
+        private long mCrescendoMs = 0;
+
+
+        /**
+         * Constructs a new Builder.
+         * @param prefix prefix of the communication type the profile is for
+         */
+        public Builder(String prefix){
+
+            mPrefix = prefix;
+        }
+
+
+        /**
+         * Constructs a new Builder starting from the settings of the profile.
+         */
+        public Builder(AlertProfile profile){
+
+            mPrefix = profile.prefix;
+            mIntervalMs = profile.intervalMs;
+            mDurationMs = profile.durationMs;
+            mFlashScreen = profile.flashScreen;
+            mDimFlash = profile.dimFlash;
+            mVibrate = profile.vibrate;
+            mVibratePattern = profile.vibratePattern;
+            mAudio = profile.audio;
+            mAlertTone = profile.alertTone;
+            mVolume = profile.volume;
+            mAudioDisabledOnSilent = profile.audioDisabledOnSilent;
+            mSchedulingEnabled = profile.schedulingEnabled;
+            mQuietStartMinute = profile.quietStartMinute;
+            mQuietEndMinute = profile.quietEndMinute;
+            mAdaptiveInterval = profile.adaptiveInterval;
+            mMinIntervalMs = profile.minIntervalMs;
+            mMaxIntervalMs = profile.maxIntervalMs;
+            mEscalationStepMs = profile.escalationStepMs;
+            mCrescendoMs = profile.crescendoMs;
+        }
+
+
+        /**
+         * Sets the time between alerts.
+         */
+        public Builder setIntervalMs(long intervalMs){
+
+            mIntervalMs = intervalMs;
+            return this;
+        }
+
+
+        /**
+         * Sets the time to alert before stopping, or INFINITE_DURATION.
+         */
+        public Builder setDurationMs(long durationMs){
+
+            mDurationMs = durationMs;
+            return this;
+        }
+
+
+        /**
+         * Sets whether to flash the screen, and whether to flash it with a
+         * dim screen rather than full brightness.
+         */
+        public Builder setFlashScreen(boolean flashScreen, boolean dimFlash){
+
+            mFlashScreen = flashScreen;
+            mDimFlash = dimFlash;
+            return this;
+        }
+
+
+        /**
+         * Sets whether to vibrate, and the pattern passed to the vibrator.
+         */
+        public Builder setVibrate(boolean vibrate, long[] vibratePattern){
+
+            mVibrate = vibrate;
+            mVibratePattern = vibratePattern;
+            return this;
+        }
+
+
+        /**
+         * Sets whether to play the alert tone.
+         * @param alertTone uri of the alert tone, or an empty string for none
+         * @param volume alert tone volume between 0 and 1
+         * @param audioDisabledOnSilent whether the tone is skipped in silent mode
+         */
+        public Builder setAudio(boolean audio, String alertTone, float volume, boolean audioDisabledOnSilent){
+
+            mAudio = audio;
+            mAlertTone = alertTone;
+            mVolume = volume;
+            mAudioDisabledOnSilent = audioDisabledOnSilent;
+            return this;
+        }
+
+
+        /**
+         * Sets whether alerts are not started between the quiet times.
+         * @param quietStartMinute minute of the day at which alerts stop being started
+         * @param quietEndMinute minute of the day at which alerts are started again
+         */
+        public Builder setScheduling(boolean schedulingEnabled, int quietStartMinute, int quietEndMinute){
+
+            mSchedulingEnabled = schedulingEnabled;
+            mQuietStartMinute = quietStartMinute;
+            mQuietEndMinute = quietEndMinute;
+            return this;
+        }
+
+
+        /**
+         * Sets whether the interval adapts to the time to acknowledge, and
+         * its bounds. The bounds are widened to include the interval.
+         */
+        public Builder setAdaptiveInterval(boolean adaptiveInterval, long minIntervalMs, long maxIntervalMs){
+
+            mAdaptiveInterval = adaptiveInterval;
+            mMinIntervalMs = minIntervalMs;
+            mMaxIntervalMs = maxIntervalMs;
+            return this;
+        }
+
+
+        /**
+         * Sets the time spent on each stage of the EscalationLadder the
+         * alerts climb while unacknowledged, or 0 not to escalate.
+         */
+        public Builder setEscalationStepMs(long escalationStepMs){
+
+            mEscalationStepMs = escalationStepMs;
+            return this;
+        }
+
+
+        /**
+         * Sets the time over which the tone's volume rises to the profile
+         * volume, or 0 to play at once.
+         */
+        public Builder setCrescendoMs(long crescendoMs){
+
+            mCrescendoMs = crescendoMs;
+            return this;
+        }
+
+
+        /**
+         * Returns a new profile for full power, with the reduced and critical
+         * power variants compiled from it.
+         */
+        public AlertProfile build(){
+
+            return new AlertProfile(this, null);
+        }
+    }
+
+
+
+
+    // CONSTRUCTOR -----------------------------------------
+
+    private AlertProfile(Builder builder, AlertProfile[] tierProfiles){
+
+        prefix = builder.mPrefix;
+        intervalMs = builder.mIntervalMs;
+        durationMs = builder.mDurationMs;
+        flashScreen = builder.mFlashScreen;
+        dimFlash = builder.mDimFlash;
+        vibrate = builder.mVibrate;
+        vibratePattern = builder.mVibratePattern;
+        audio = builder.mAudio;
+        alertTone = builder.mAlertTone;
+        volume = builder.mVolume;
+        audioDisabledOnSilent = builder.mAudioDisabledOnSilent;
+        schedulingEnabled = builder.mSchedulingEnabled;
+        quietStartMinute = builder.mQuietStartMinute;
+        quietEndMinute = builder.mQuietEndMinute;
+        adaptiveInterval = builder.mAdaptiveInterval;
+        minIntervalMs = Math.min(builder.mMinIntervalMs, builder.mIntervalMs);
+        maxIntervalMs = Math.max(builder.mMaxIntervalMs, builder.mIntervalMs);
+        escalationStepMs = builder.mEscalationStepMs;
+        crescendoMs = builder.mCrescendoMs;
+
+        if (tierProfiles != null) {
+
+            mTierProfiles = tierProfiles;
+            return;
+        }
+
+        mTierProfiles = new AlertProfile[TIER_COUNT];
+        mTierProfiles[TIER_FULL] = this;
+
+
+        // longer intervals and no screen flash, with the adaptive bounds lengthened alike
+        long reduced_interval = intervalMs * REDUCED_INTERVAL_MULTIPLIER;
+
+        mTierProfiles[TIER_REDUCED] = new AlertProfile(new Builder(this)
+                .setIntervalMs(reduced_interval)
+                .setDurationMs(atLeastOneInterval(durationMs, reduced_interval))
+                .setFlashScreen(false, dimFlash)
+                .setAdaptiveInterval(adaptiveInterval, minIntervalMs * REDUCED_INTERVAL_MULTIPLIER,
+                        maxIntervalMs * REDUCED_INTERVAL_MULTIPLIER), mTierProfiles);
+
+
+        // vibrate only, at a long interval
+        long critical_interval = Math.max(intervalMs, CRITICAL_MIN_INTERVAL_MS);
+
+        mTierProfiles[TIER_CRITICAL] = new AlertProfile(new Builder(this)
+                .setIntervalMs(critical_interval)
+                .setDurationMs(atLeastOneInterval(durationMs, critical_interval))
+                .setFlashScreen(false, dimFlash)
+                .setVibrate(true, vibratePattern)
+                .setAudio(false, alertTone, volume, audioDisabledOnSilent)
+                .setAdaptiveInterval(adaptiveInterval, Math.max(minIntervalMs, CRITICAL_MIN_INTERVAL_MS),
+                        Math.max(maxIntervalMs, CRITICAL_MIN_INTERVAL_MS)), mTierProfiles);
+    }
+
+
+
+
+    // PUBLIC METHODS -----------------------------------------
+
+    /**
+     * Returns the variant of this profile to use for the given power tier.
+     */
+    public AlertProfile getForTier(int tier){
+
+        if (tier < 0 || tier >= TIER_COUNT)
+            return mTierProfiles[TIER_FULL];
+
+        return mTierProfiles[tier];
+    }
+
+
+
+
+    /**
+     * Returns a profile like this one with the given ways of alerting, and
+     * its own power tier variants, which strip them down as usual.
+     */
+    public AlertProfile withModalities(boolean flashScreen, boolean dimFlash, boolean vibrate,
+                                       boolean audio, float volume){
+
+        return new Builder(this)
+                .setFlashScreen(flashScreen, dimFlash)
+                .setVibrate(vibrate, vibratePattern)
+                .setAudio(audio, alertTone, volume, audioDisabledOnSilent)
+                .build();
+    }
+
+
+    /**
+     * Returns whether alerts should not be started at the given minute of the day.
+     * The quiet time does not wrap past midnight.
+     */
+    public boolean isQuietAt(int minuteOfDay){
+
+        return schedulingEnabled && minuteOfDay >= quietStartMinute && minuteOfDay < quietEndMinute;
+    }
+
+
+    /**
+     * Returns the minute of the day for the given hour and minute.
+     */
+    public static int toMinuteOfDay(int hour, int minute){
+
+        return hour * MINUTES_PER_HOUR + minute;
+    }
+
+
+
+
+    // PRIVATE METHODS -----------------------------------------
+
+    /*
+     * Extends a limited duration so that at least one alert fires
+     * at the given interval.
+     */
+    private static long atLeastOneInterval(long durationMs, long intervalMs){
+
+        if (durationMs == INFINITE_DURATION)
+            return INFINITE_DURATION;
+
+        return Math.max(durationMs, intervalMs);
+    }
+}
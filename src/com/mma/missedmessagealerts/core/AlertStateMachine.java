@@ -0,0 +1,763 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+/**
+ * Decides when and how the user is alerted for each channel. Alerts repeat
+ * at each channel's interval until its messages are no longer pending or its
+ * duration passes, and alerts of channels due within the coalescing window
+ * are combined into one. Does not depend on Android, so it can be driven by
+ * the alerter service or by a simulation.
+ *
+ * @author Michael R. Falcone
+ */
+public class AlertStateMachine {
+
+
+    /**
+     * Provides the user's alert settings.
+     */
+    public interface Settings {
+
+        /**
+         * Returns whether alerts are enabled.
+         */
+        boolean isAlertsEnabled();
+
+        /**
+         * Returns whether alerts are enabled for the channel.
+         */
+        boolean isChannelEnabled(int channel);
+
+        /**
+         * Compiles the channel's alert preferences into a profile.
+         */
+        AlertProfile compileProfile(int channel);
+
+        /**
+         * Returns the window within which alerts of different channels are combined.
+         */
+        long getCoalesceWindowMs();
+
+        /**
+         * Returns the current power tier, one of the AlertProfile TIER constants.
+         */
+        int getPowerTier();
+    }
+
+
+    /**
+     * Carries out the alerts decided by the state machine.
+     */
+    public interface Output {
+
+        /**
+         * Returns whether the user is interacting with the device, in
+         * which case alerts are skipped.
+         */
+        boolean isUserActive();
+
+        /**
+         * Vibrates once with the pattern.
+         * @param channel highest priority channel the pattern vibrates for
+         */
+        void vibrate(long[] pattern, int channel);
+
+        /**
+         * Plays the profile's alert tone for the channel.
+         */
+        void playTone(AlertProfile profile, int channel);
+
+        /**
+         * Stops the tone playing for the channel, if any.
+         */
+        void stopTone(int channel);
+
+        /**
+         * Turns the screen on briefly according to the profile.
+         */
+        void flashScreen(AlertProfile profile, int channel);
+
+        /**
+         * Keeps the device awake for the channel for the given time.
+         */
+        void holdWakeLock(int channel, long timeoutMs);
+
+        /**
+         * Lets the device sleep as far as the channel is concerned.
+         * @param anyAlerting false if nothing is alerting any more and the
+         *                    device should no longer be kept awake
+         */
+        void releaseWakeLock(int channel, boolean anyAlerting);
+
+        /**
+         * Called when the last channel stops alerting on its own.
+         */
+        void onAlertsFinished();
+    }
+
+
+
+    // CONSTANTS -----------------------------------------
+
+    public static final long COMBINED_VIBRATE_GAP_MS = 200;   // pause between channel patterns in a combined vibration
+
+    private static final long WAKE_LEASE_MARGIN_MS = 5000;     // extra time the device is kept awake past the next alert
+
+    private static final String[] TRACE_SESSIONS = {"alert.session.text", "alert.session.missed_call",
+            "alert.session.voice_mail"};
+    private static final String[] TRACE_RUNNABLES = {"alert.run.text", "alert.run.missed_call", "alert.run.voice_mail"};
+    private static final String TRACE_ALERT = "alert";
+    private static final String TRACE_VIBRATE = "alert.vibrate";
+    private static final String TRACE_AUDIO = "alert.audio";
+    private static final String TRACE_FLASH = "alert.flash";
+
+    private static final long MINUTE_MS = 60 * 1000;
+    private static final long DAY_MS = 24 * 60 * MINUTE_MS;
+
+
+
+    // MEMBER VARIABLES -----------------------------------------
+
+    private Clock mClock;
+    private Scheduler mScheduler;
+    private PendingSource mPendingSource;
+    private Settings mSettings;
+    private Output mOutput;
+
+    private boolean[] mIsAlerting = new boolean[Channels.COUNT];
+    private boolean[] mAlwaysAlert = new boolean[Channels.COUNT];
+    private int[] mProfileChannels = new int[Channels.COUNT];
+    private long[] mAlertStartTime = new long[Channels.COUNT];
+    private long[] mNextAlertTime = new long[Channels.COUNT];
+    private AlertProfile[] mProfiles = new AlertProfile[Channels.COUNT];
+    private EscalationLadder[] mLadders = new EscalationLadder[Channels.COUNT];    // null when not escalating
+    private int[] mStages = new int[Channels.COUNT];
+
+    private long[] mDetectTime = new long[Channels.COUNT];
+    private boolean[] mFirstAlertPending = new boolean[Channels.COUNT];
+
+    private Metrics.Counter[] mAlertInvocations;
+    private Metrics.Counter mAlertsSkipped;
+    private Metrics.Histogram mDetectionToAlert;
+    private Tracer mTracer = Tracer.NONE;
+    private StatsStore mStats;
+
+    private AdaptiveIntervals mAdaptiveIntervals = AdaptiveIntervals.NEUTRAL;
+    private long[][][] mHourlyIntervals = new long[Channels.COUNT][AlertProfile.TIER_COUNT][];    // null when not adaptive
+
+    private long mCoalesceWindowMs;
+    private long[][] mCombinedPatterns = new long[1 << Channels.COUNT][];   // combined vibrations by channel mask
+
+
+
+    // ALERT RUNNABLES -----------------------------------------
+
+    /*
+     * Runs when the next alert for a channel is due. Alerts of other
+     * channels due within the coalescing window are combined with it.
+     */
+    private class ChannelAlertRunnable implements Runnable {
+
+        private final int mChannel;
+
+        ChannelAlertRunnable(int channel){
+            mChannel = channel;
+        }
+
+        @Override
+        public void run() {
+
+            mTracer.beginSection(TRACE_RUNNABLES[mChannel]);
+
+            try {
+                alertDue();
+            } finally {
+                mTracer.endSection();
+            }
+        }
+
+
+        private void alertDue(){
+
+            long now = mClock.currentTimeMillis();
+            int tier = mSettings.getPowerTier();
+
+            updateAlerting(mChannel, now, tier);
+
+            if(!isAnyAlerting()){
+
+                mOutput.onAlertsFinished();
+                return;
+            }
+            else if(!mIsAlerting[mChannel]){
+
+                mOutput.releaseWakeLock(mChannel, true);
+                return;
+            }
+
+            int channel_mask = 1 << mChannel;
+
+            // pull in alerts of other channels that are due soon
+            for (int channel = 0; channel < Channels.COUNT; ++channel) {
+
+                if (channel == mChannel || !mIsAlerting[channel] || mNextAlertTime[channel] - now > mCoalesceWindowMs)
+                    continue;
+
+                updateAlerting(channel, now, tier);
+
+                if (mIsAlerting[channel])
+                    channel_mask |= 1 << channel;
+                else {
+                    mScheduler.removeCallbacks(mAlertRunnables[channel]);
+                    mOutput.releaseWakeLock(channel, true);
+                }
+            }
+
+            alert(channel_mask, tier);
+
+            for (int channel = 0; channel < Channels.COUNT; ++channel) {
+
+                if ((channel_mask & (1 << channel)) != 0)
+                    scheduleNextAlert(channel, now, getInterval(channel, now, tier));
+            }
+        }
+    }
+
+
+    private final Runnable[] mAlertRunnables = {
+            new ChannelAlertRunnable(Channels.TEXT),
+            new ChannelAlertRunnable(Channels.MISSED_CALL),
+            new ChannelAlertRunnable(Channels.VOICE_MAIL)
+    };
+
+
+
+
+    // CONSTRUCTOR -----------------------------------------
+
+    /**
+     * Constructs a new AlertStateMachine.
+     * @param clock source of the current time
+     * @param scheduler runs the repeated alerts
+     * @param pendingSource reports which channels still have pending messages
+     * @param settings provides the user's alert settings
+     * @param output carries out the alerts
+     */
+    public AlertStateMachine(Clock clock, Scheduler scheduler, PendingSource pendingSource,
+                             Settings settings, Output output){
+
+        mClock = clock;
+        mScheduler = scheduler;
+        mPendingSource = pendingSource;
+        mSettings = settings;
+        mOutput = output;
+    }
+
+
+
+
+    // PUBLIC METHODS -----------------------------------------
+
+    /**
+     * Starts alerts for the channel, or for every channel if the value is not
+     * a channel. Has no effect on channels that are already alerting, disabled,
+     * or inside their quiet hours.
+     */
+    public void startAlertsFor(int channelOrAll){
+
+        startAlertsFor(channelOrAll, -1);
+    }
+
+
+    /**
+     * Starts alerts as startAlertsFor does, measuring the latency of the
+     * first alert from the given time.
+     * @param detectTimeMs time the messages were detected, or -1 to
+     *                     measure from when alerts start
+     */
+    public void startAlertsFor(int channelOrAll, long detectTimeMs){
+
+        if (Channels.isChannel(channelOrAll)) {
+
+            startAlerts(channelOrAll, detectTimeMs, false, channelOrAll);
+            return;
+        }
+
+        for (int channel = 0; channel < Channels.COUNT; ++channel)
+            startAlerts(channel, detectTimeMs, false, channel);
+    }
+
+
+    /**
+     * Starts alerts for the channel as the sender rules of its messages ask.
+     * If the channel is already alerting with another profile, or without
+     * alwaysAlert when it is now asked for, a new session is started so the
+     * alerts are escalated.
+     * @param detectTimeMs time the messages were detected, or -1 to
+     *                     measure from when alerts start
+     * @param alwaysAlert whether to alert even if the channel is disabled
+     *                    or inside its quiet hours
+     * @param profileChannel channel whose profile to alert with, or -1 for the channel's own
+     * @return whether the channel is alerting, false if it is disabled or
+     *         inside its quiet hours. Always true if channel is not a channel.
+     */
+    public boolean startAlertsFor(int channel, long detectTimeMs, boolean alwaysAlert, int profileChannel){
+
+        if (!Channels.isChannel(channel)) {
+
+            startAlertsFor(channel, detectTimeMs);
+            return true;
+        }
+
+        if (!Channels.isChannel(profileChannel))
+            profileChannel = channel;
+
+        if (mIsAlerting[channel] && (profileChannel != mProfileChannels[channel]
+                || (alwaysAlert && !mAlwaysAlert[channel])))
+            endSession(channel);
+
+        startAlerts(channel, detectTimeMs, alwaysAlert, profileChannel);
+
+        return mIsAlerting[channel];
+    }
+
+
+    /**
+     * Stops alerts for the channel.
+     */
+    public void stopAlerts(int channel){
+
+        boolean was_alerting = mIsAlerting[channel];
+
+        endSession(channel);
+        mScheduler.removeCallbacks(mAlertRunnables[channel]);
+
+        mOutput.stopTone(channel);
+
+        // only a channel that was alerting can leave the device awake with nothing alerting
+        mOutput.releaseWakeLock(channel, !was_alerting || isAnyAlerting());
+    }
+
+
+    /**
+     * Stops alerts for every channel.
+     */
+    public void stopAllAlerts(){
+
+        for (int channel = 0; channel < Channels.COUNT; ++channel)
+            stopAlerts(channel);
+    }
+
+
+    /**
+     * Returns whether alerts are active for the channel.
+     */
+    public boolean isAlerting(int channel){
+
+        return mIsAlerting[channel];
+    }
+
+
+    /**
+     * Puts off the next alert of every alerting channel by the given time
+     * and stops their tones. Alerting resumes afterwards for the channels
+     * whose messages are still pending and whose duration has not passed.
+     */
+    public void snoozeAlerts(long snoozeMs){
+
+        long now = mClock.currentTimeMillis();
+
+        for (int channel = 0; channel < Channels.COUNT; ++channel) {
+
+            if (!mIsAlerting[channel])
+                continue;
+
+            mOutput.stopTone(channel);
+            scheduleNextAlert(channel, now, snoozeMs);
+        }
+    }
+
+
+    /**
+     * Returns whether alerts are active for any channel.
+     */
+    public boolean isAnyAlerting(){
+
+        return mIsAlerting[Channels.TEXT] || mIsAlerting[Channels.MISSED_CALL] || mIsAlerting[Channels.VOICE_MAIL];
+    }
+
+
+    /**
+     * Returns the profile that the channel's alerts were started with, or
+     * null if the channel has not alerted.
+     */
+    public AlertProfile getProfile(int channel){
+
+        return mProfiles[channel];
+    }
+
+
+    /**
+     * Returns the escalation stage that the channel's alerts last reached,
+     * or -1 if its alerts do not escalate.
+     */
+    public int getEscalationStage(int channel){
+
+        return mLadders[channel] != null ? mStages[channel] : -1;
+    }
+
+
+    /**
+     * Counts alerts per channel and records the time from detection to
+     * the first alert in the given registry.
+     */
+    public void setMetrics(Metrics metrics){
+
+        mAlertInvocations = new Metrics.Counter[Channels.COUNT];
+
+        for (int channel = 0; channel < Channels.COUNT; ++channel)
+            mAlertInvocations[channel] = metrics.counter("alert.invocations." + Channels.NAMES[channel]);
+
+        mAlertsSkipped = metrics.counter("alert.skipped_user_active");
+        mDetectionToAlert = metrics.histogram("alert.detection_to_alert_ms", Metrics.LATENCY_BUCKETS_MS);
+    }
+
+
+    /**
+     * Writes each alert as a section and each channel's alerting, from start
+     * to stop, as an async section to the given tracer.
+     */
+    public void setTracer(Tracer tracer){
+
+        mTracer = tracer;
+    }
+
+
+    /**
+     * Counts the alerts given for each channel in the hourly statistics
+     * of the given store.
+     */
+    public void setStatsStore(StatsStore stats){
+
+        mStats = stats;
+    }
+
+
+    /**
+     * Sets the factors that adaptive intervals are scaled by. Takes effect
+     * for channels whose alerts start afterwards.
+     */
+    public void setAdaptiveIntervals(AdaptiveIntervals intervals){
+
+        mAdaptiveIntervals = intervals;
+    }
+
+
+    /**
+     * Returns the minute of the day in local time at the given time.
+     */
+    public static int getMinuteOfDay(Clock clock, long timeMs){
+
+        long local = timeMs + clock.getTimeZoneOffset(timeMs);
+
+        return (int) ((local % DAY_MS + DAY_MS) % DAY_MS / MINUTE_MS);
+    }
+
+
+
+
+    // PRIVATE METHODS -----------------------------------------
+
+    private void startAlerts(int channel, long detectTimeMs, boolean alwaysAlert, int profileChannel){
+
+        if (mIsAlerting[channel] || (!alwaysAlert && !mSettings.isChannelEnabled(channel)))
+            return;
+
+        long now = mClock.currentTimeMillis();
+        AlertProfile profile = mSettings.compileProfile(profileChannel);
+
+        if (!alwaysAlert && profile.schedulingEnabled && profile.isQuietAt(getMinuteOfDay(mClock, now)))
+            return;
+
+        mIsAlerting[channel] = true;
+        mAlwaysAlert[channel] = alwaysAlert;
+        mProfileChannels[channel] = profileChannel;
+        mTracer.beginAsyncSection(TRACE_SESSIONS[channel], channel);
+
+        mAlertStartTime[channel] = now;
+        mDetectTime[channel] = detectTimeMs >= 0 ? detectTimeMs : now;
+        mFirstAlertPending[channel] = true;
+        mProfiles[channel] = profile;
+        mLadders[channel] = profile.escalationStepMs > 0 ? new EscalationLadder(profile) : null;
+        mStages[channel] = 0;
+        mCoalesceWindowMs = mSettings.getCoalesceWindowMs();
+
+        // combined vibrations depend on the compiled patterns
+        for (int i = 0; i < mCombinedPatterns.length; ++i)
+            mCombinedPatterns[i] = null;
+
+        for (int tier = 0; tier < AlertProfile.TIER_COUNT; ++tier)
+            mHourlyIntervals[channel][tier] = mAdaptiveIntervals.compile(channel, profile.getForTier(tier));
+
+        scheduleNextAlert(channel, now, getInterval(channel, now, mSettings.getPowerTier()));
+    }
+
+
+    /*
+     * Stops alerting for the channel if its messages are no longer pending,
+     * alerts have been disabled, or its alert duration has passed.
+     */
+    private void updateAlerting(int channel, long now, int tier){
+
+        // profile variants for each power tier are compiled when alerts start
+        AlertProfile profile = mProfiles[channel].getForTier(tier);
+        long duration_ms = now - mAlertStartTime[channel];
+
+        if (!mPendingSource.isPending(channel) || !mSettings.isAlertsEnabled()
+                || (duration_ms >= profile.durationMs && profile.durationMs != AlertProfile.INFINITE_DURATION)) {
+
+            endSession(channel);
+        }
+    }
+
+
+    private void endSession(int channel){
+
+        if (!mIsAlerting[channel])
+            return;
+
+        mIsAlerting[channel] = false;
+        mTracer.endAsyncSection(TRACE_SESSIONS[channel], channel);
+    }
+
+
+    /*
+     * Returns the profile that the channel alerts with now, which is its
+     * escalation stage's profile if its alerts escalate.
+     */
+    private AlertProfile getAlertingProfile(int channel, long now, int tier){
+
+        EscalationLadder ladder = mLadders[channel];
+
+        if (ladder == null)
+            return mProfiles[channel].getForTier(tier);
+
+        mStages[channel] = ladder.getStage(now - mAlertStartTime[channel], mStages[channel]);
+
+        return ladder.getProfile(mStages[channel]).getForTier(tier);
+    }
+
+
+    /*
+     * Returns the interval until the channel's next alert, looked up in the
+     * hourly table compiled when alerts started if the interval adapts.
+     */
+    private long getInterval(int channel, long now, int tier){
+
+        if (tier < 0 || tier >= AlertProfile.TIER_COUNT)
+            tier = AlertProfile.TIER_FULL;
+
+        long[] hourly = mHourlyIntervals[channel][tier];
+
+        if (hourly == null)
+            return mProfiles[channel].getForTier(tier).intervalMs;
+
+        return hourly[getMinuteOfDay(mClock, now) / 60];
+    }
+
+
+    private void scheduleNextAlert(int channel, long now, long interval){
+
+        mNextAlertTime[channel] = now + interval;
+
+        mScheduler.removeCallbacks(mAlertRunnables[channel]);
+        mScheduler.postDelayed(mAlertRunnables[channel], interval);
+        mOutput.holdWakeLock(channel, interval + WAKE_LEASE_MARGIN_MS);
+    }
+
+
+    /*
+     * Returns the vibration for the channels in the mask that vibrate,
+     * played one after another.
+     */
+    private long[] getCombinedPattern(int vibrateMask, int tier){
+
+        long[] combined = mCombinedPatterns[vibrateMask];
+
+        if (combined != null)
+            return combined;
+
+        int length = 0;
+
+        for (int i = 0; i < Channels.PRIORITY.length; ++i) {
+
+            if ((vibrateMask & (1 << Channels.PRIORITY[i])) != 0)
+                length += mProfiles[Channels.PRIORITY[i]].getForTier(tier).vibratePattern.length;
+        }
+
+        combined = new long[length];
+        int pos = 0;
+
+        for (int i = 0; i < Channels.PRIORITY.length; ++i) {
+
+            if ((vibrateMask & (1 << Channels.PRIORITY[i])) == 0)
+                continue;
+
+            long[] pattern = mProfiles[Channels.PRIORITY[i]].getForTier(tier).vibratePattern;
+
+            System.arraycopy(pattern, 0, combined, pos, pattern.length);
+
+            // patterns start with an off period, lengthen it into a gap between patterns
+            if (pos > 0)
+                combined[pos] += COMBINED_VIBRATE_GAP_MS;
+
+            pos += pattern.length;
+        }
+
+        mCombinedPatterns[vibrateMask] = combined;
+
+        return combined;
+    }
+
+
+    private void recordFirstAlerts(int channelMask){
+
+        long now = mClock.currentTimeMillis();
+
+        for (int channel = 0; channel < Channels.COUNT; ++channel) {
+
+            if ((channelMask & (1 << channel)) == 0 || !mFirstAlertPending[channel])
+                continue;
+
+            mFirstAlertPending[channel] = false;
+
+            if (mDetectionToAlert != null)
+                mDetectionToAlert.record(now - mDetectTime[channel]);
+        }
+    }
+
+
+    /*
+     * Alerts once for every channel in the mask. The screen is flashed and the
+     * tone played for the highest priority channel that wants them, and the
+     * vibrations of every channel are combined into one.
+     */
+    private void alert(int channelMask, int tier){
+
+        mTracer.beginSection(TRACE_ALERT);
+
+        try {
+            alertChannels(channelMask, tier);
+        } finally {
+            mTracer.endSection();
+        }
+    }
+
+
+    private void alertChannels(int channelMask, int tier){
+
+        if (mAlertInvocations != null) {
+
+            for (int channel = 0; channel < Channels.COUNT; ++channel) {
+
+                if ((channelMask & (1 << channel)) != 0)
+                    mAlertInvocations[channel].increment();
+            }
+        }
+
+        // if the user is interacting with device, alerts are not required
+        if (mOutput.isUserActive()) {
+
+            if (mAlertsSkipped != null)
+                mAlertsSkipped.increment();
+
+            return;
+        }
+
+        recordFirstAlerts(channelMask);
+
+        if (mStats != null) {
+
+            for (int channel = 0; channel < Channels.COUNT; ++channel) {
+
+                if ((channelMask & (1 << channel)) != 0)
+                    mStats.add(StatsStore.STAT_ALERTS, channel, 1);
+            }
+        }
+
+        long now = mClock.currentTimeMillis();
+        int vibrate_mask = 0;
+        int vibrate_channel = -1;
+        AlertProfile audio_profile = null;
+        int audio_channel = -1;
+        AlertProfile flash_profile = null;
+        int flash_channel = -1;
+
+        for (int i = 0; i < Channels.PRIORITY.length; ++i) {
+
+            int channel = Channels.PRIORITY[i];
+
+            if ((channelMask & (1 << channel)) == 0)
+                continue;
+
+            AlertProfile profile = getAlertingProfile(channel, now, tier);
+
+            if (profile.vibrate) {
+
+                vibrate_mask |= 1 << channel;
+
+                if (vibrate_channel < 0)
+                    vibrate_channel = channel;
+            }
+
+            if (profile.audio && profile.alertTone.length() != 0 && audio_channel < 0) {
+
+                audio_profile = profile;
+                audio_channel = channel;
+            }
+
+            if (profile.flashScreen && flash_channel < 0) {
+
+                flash_profile = profile;
+                flash_channel = channel;
+            }
+        }
+
+
+        if (vibrate_mask != 0) {
+
+            mTracer.beginSection(TRACE_VIBRATE);
+            mOutput.vibrate(getCombinedPattern(vibrate_mask, tier), vibrate_channel);
+            mTracer.endSection();
+        }
+
+        if (audio_channel >= 0) {
+
+            mTracer.beginSection(TRACE_AUDIO);
+            mOutput.playTone(audio_profile, audio_channel);
+            mTracer.endSection();
+        }
+
+        if (flash_channel >= 0) {
+
+            mTracer.beginSection(TRACE_FLASH);
+            mOutput.flashScreen(flash_profile, flash_channel);
+            mTracer.endSection();
+        }
+    }
+}
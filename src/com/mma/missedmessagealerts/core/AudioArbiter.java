@@ -0,0 +1,142 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+/**
+ * Lets one alert tone play at a time. A channel asking to play while a
+ * lower priority channel's tone plays preempts it, and the preempted
+ * tone is stopped through the arbiter's Player. A channel asking while an
+ * equal or higher priority tone plays, including its own, is refused, and
+ * its tone is dropped rather than queued, so a storm of alerts from
+ * several channels never has more than one tone decoding.
+ *
+ * @author Michael R. Falcone
+ */
+public class AudioArbiter {
+
+
+    /**
+     * Stops tones that are preempted.
+     */
+    public interface Player {
+
+        /**
+         * Stops the channel's tone, which has been preempted by a higher priority channel.
+         */
+        void stopTone(int channel);
+    }
+
+
+    /**
+     * Holder when no tone is playing.
+     */
+    public static final int NO_CHANNEL = -1;
+
+
+
+    // MEMBER VARIABLES -----------------------------------------
+
+    private final Player mPlayer;
+    private final int[] mRanks = new int[Channels.COUNT];    // position in Channels.PRIORITY
+
+    private int mHolder = NO_CHANNEL;
+
+    private Metrics.Counter mPreemptions;
+    private Metrics.Counter mDropped;
+
+
+
+
+    // CONSTRUCTOR -----------------------------------------
+
+    /**
+     * Constructs a new AudioArbiter.
+     * @param player stops the tones of preempted channels
+     */
+    public AudioArbiter(Player player){
+
+        mPlayer = player;
+
+        for (int i = 0; i < Channels.PRIORITY.length; ++i)
+            mRanks[Channels.PRIORITY[i]] = i;
+    }
+
+
+
+
+    // PUBLIC METHODS -----------------------------------------
+
+    /**
+     * Asks for the channel's tone to play, stopping a lower priority tone
+     * if one is playing. Returns whether the tone may play, in which case
+     * the channel holds the audio until it is released.
+     */
+    public boolean acquire(int channel){
+
+        if (mHolder != NO_CHANNEL) {
+
+            if (mRanks[mHolder] <= mRanks[channel]) {
+
+                if (mDropped != null)
+                    mDropped.increment();
+
+                return false;
+            }
+
+            int preempted = mHolder;
+            mHolder = NO_CHANNEL;
+            mPlayer.stopTone(preempted);
+
+            if (mPreemptions != null)
+                mPreemptions.increment();
+        }
+
+        mHolder = channel;
+
+        return true;
+    }
+
+
+    /**
+     * Releases the audio if the channel holds it, after its tone completes or is stopped.
+     */
+    public void release(int channel){
+
+        if (mHolder == channel)
+            mHolder = NO_CHANNEL;
+    }
+
+
+    /**
+     * Returns the channel whose tone is playing, or NO_CHANNEL.
+     */
+    public int getHolder(){
+
+        return mHolder;
+    }
+
+
+    /**
+     * Counts the tones that preempted another and the tones that were dropped
+     * in the given registry.
+     */
+    public void setMetrics(Metrics metrics){
+
+        mPreemptions = metrics.counter("audio.preemptions");
+        mDropped = metrics.counter("audio.dropped");
+    }
+}
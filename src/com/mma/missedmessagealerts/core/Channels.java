@@ -0,0 +1,69 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+/**
+ * Communication types that alerts are given for. Values match the
+ * AlerterService ALERT_FOR constants.
+ *
+ * @author Michael R. Falcone
+ */
+public final class Channels {
+
+    /**
+     * Alerts for text messages.
+     */
+    public static final int TEXT = 0;
+
+    /**
+     * Alerts for missed calls.
+     */
+    public static final int MISSED_CALL = 1;
+
+    /**
+     * Alerts for voice mail.
+     */
+    public static final int VOICE_MAIL = 2;
+
+    /**
+     * Number of channels.
+     */
+    public static final int COUNT = 3;
+
+    /**
+     * Channels in order of priority, highest first.
+     */
+    public static final int[] PRIORITY = {MISSED_CALL, VOICE_MAIL, TEXT};
+
+    /**
+     * Short names of the channels, used in logs and metrics.
+     */
+    public static final String[] NAMES = {"text", "missed_call", "voice_mail"};
+
+
+    private Channels(){
+    }
+
+
+    /**
+     * Returns whether the value names a channel.
+     */
+    public static boolean isChannel(int value){
+
+        return value >= 0 && value < COUNT;
+    }
+}
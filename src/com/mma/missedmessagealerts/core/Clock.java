@@ -0,0 +1,36 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+/**
+ * Source of the current time for the alert core. Implemented by the wall
+ * clock on a device and by VirtualTimeScheduler in simulations.
+ *
+ * @author Michael R. Falcone
+ */
+public interface Clock {
+
+    /**
+     * Returns the current time in milliseconds since the epoch.
+     */
+    long currentTimeMillis();
+
+    /**
+     * Returns the offset in milliseconds of local time from UTC at the given time.
+     */
+    int getTimeZoneOffset(long timeMillis);
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of the display names of senders, keyed by the
+ * normalized number. Numbers that match no contact are cached as well, so
+ * a burst of messages from an unknown sender costs one lookup. The cache
+ * must be invalidated when the contacts change.
+ *
+ * @author Michael R. Falcone
+ */
+public class ContactCache {
+
+
+    /**
+     * Looks up the display name of a number in the contacts.
+     */
+    public interface Resolver {
+
+        /**
+         * Returns the display name of the contact with the number,
+         * or null if no contact has it.
+         */
+        String lookupDisplayName(String number);
+    }
+
+
+    /**
+     * Number of entries kept when no capacity is given.
+     */
+    public static final int DEFAULT_CAPACITY = 64;
+
+
+
+    // MEMBER VARIABLES -----------------------------------------
+
+    // cached for numbers without a contact, compared by identity
+    private static final String NO_NAME = new String("");
+
+    private final Resolver mResolver;
+    private final Map<String, String> mEntries;
+
+    private long mHits = 0;
+    private long mMisses = 0;
+    private long mInvalidations = 0;
+    private Metrics.Counter mLookupCounter;
+
+
+
+
+    // CONSTRUCTOR -----------------------------------------
+
+    /**
+     * Constructs a new ContactCache holding DEFAULT_CAPACITY entries.
+     */
+    public ContactCache(Resolver resolver){
+
+        this(resolver, DEFAULT_CAPACITY);
+    }
+
+
+    /**
+     * Constructs a new ContactCache.
+     * @param resolver looks up the numbers that are not cached
+     * @param capacity number of entries kept before the least recently used is dropped
+     */
+    public ContactCache(Resolver resolver, final int capacity){
+
+        mResolver = resolver;
+        mEntries = new LinkedHashMap<String, String>(capacity * 4 / 3 + 1, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+
+
+
+    // PUBLIC METHODS -----------------------------------------
+
+    /**
+     * Returns the display name of the contact with the number, or null if
+     * no contact has it. The resolver is only asked on a cache miss.
+     */
+    public synchronized String getDisplayName(String number){
+
+        String key = PhoneNumbers.normalize(number);
+
+        if (key.length() == 0)
+            return null;
+
+        String name = mEntries.get(key);
+
+        if (name != null) {
+
+            ++mHits;
+        }
+        else {
+
+            ++mMisses;
+
+            if (mLookupCounter != null)
+                mLookupCounter.increment();
+
+            name = mResolver.lookupDisplayName(number);
+
+            if (name == null)
+                name = NO_NAME;
+
+            mEntries.put(key, name);
+        }
+
+        return name == NO_NAME ? null : name;
+    }
+
+
+    /**
+     * Drops every entry, called when the contacts have changed.
+     */
+    public synchronized void invalidate(){
+
+        mEntries.clear();
+        ++mInvalidations;
+    }
+
+
+    /**
+     * Counts the lookups made on cache misses in the given registry.
+     */
+    public synchronized void setMetrics(Metrics metrics){
+
+        mLookupCounter = metrics.counter("contacts.lookups");
+    }
+
+
+    /**
+     * Returns the number of cached entries.
+     */
+    public synchronized int size(){
+
+        return mEntries.size();
+    }
+
+
+    /**
+     * Writes the cache size and hit rate.
+     */
+    public synchronized void dump(PrintWriter pw, String prefix){
+
+        long total = mHits + mMisses;
+
+        pw.print(prefix); pw.print("entries="); pw.print(mEntries.size());
+        pw.print(" hits="); pw.print(mHits);
+        pw.print(" misses="); pw.print(mMisses);
+        pw.print(" hit_rate="); pw.print(total > 0 ? mHits * 100 / total : 0); pw.print('%');
+        pw.print(" invalidations="); pw.println(mInvalidations);
+    }
+}
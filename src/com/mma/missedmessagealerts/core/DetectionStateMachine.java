@@ -0,0 +1,559 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+/**
+ * Decides when missed messages are pending and when the user has
+ * acknowledged them. Receives message, call and voice mail events, then
+ * confirms them against the message sources once per update interval
+ * until they are acknowledged. Does not depend on Android, so it can be
+ * driven by the listener service or by a simulation.
+ *
+ * @author Michael R. Falcone
+ */
+public class DetectionStateMachine implements PendingSource {
+
+
+    /**
+     * Provides the enabled state of alerts.
+     */
+    public interface Settings {
+
+        /**
+         * Returns whether alerts are enabled.
+         */
+        boolean isAlertsEnabled();
+
+        /**
+         * Returns whether alerts are enabled for the channel.
+         */
+        boolean isChannelEnabled(int channel);
+    }
+
+
+    /**
+     * Receives the decisions of the state machine.
+     */
+    public interface Output {
+
+        /**
+         * Called when the user should start being alerted for the channel.
+         */
+        void onStartAlerting(int channel);
+
+        /**
+         * Called when the user should stop being alerted for the channel.
+         * @param anyPending whether messages of any channel are still pending
+         */
+        void onStopAlerting(int channel, boolean anyPending);
+
+        /**
+         * Called when the user has read the messages of the channel that
+         * alerting was started for.
+         * @param latencyMs time from the start of alerting to acknowledgement
+         */
+        void onAcknowledged(int channel, long latencyMs);
+    }
+
+
+
+    // CONSTANTS -----------------------------------------
+
+    public static final long UPDATE_INTERVAL_MS = 1000;
+    public static final long NEW_MESSAGE_TIMEOUT_MS = 3000;  // maximum time to wait for new message to be confirmed after being detected
+
+    /**
+     * Source of unread text messages.
+     */
+    public static final int SOURCE_SMS = 0;
+
+    /**
+     * Source of unread multimedia messages.
+     */
+    public static final int SOURCE_MMS = 1;
+
+    /**
+     * Source of new missed calls.
+     */
+    public static final int SOURCE_CALLS = 2;
+
+    /**
+     * Number of message sources.
+     */
+    public static final int SOURCE_COUNT = 3;
+
+    /**
+     * Call state values, matching those of android.telephony.TelephonyManager.
+     */
+    public static final int CALL_STATE_IDLE = 0;
+    public static final int CALL_STATE_RINGING = 1;
+    public static final int CALL_STATE_OFFHOOK = 2;
+
+    private static final int[] SOURCE_CHANNELS = {Channels.TEXT, Channels.TEXT, Channels.MISSED_CALL};
+
+    private static final String TRACE_UPDATE = "detection.update";
+    private static final String[] TRACE_QUERIES = {"detection.query.sms", "detection.query.mms", "detection.query.calls"};
+
+
+
+    // MEMBER VARIABLES -----------------------------------------
+
+    private Clock mClock;
+    private Scheduler mScheduler;
+    private Settings mSettings;
+    private Output mOutput;
+    private MessageSource[] mSources;
+
+    private boolean[] mPending = new boolean[SOURCE_COUNT];
+    private int[] mLastCount = new int[SOURCE_COUNT];
+    private long[] mFirstDetectTime = {-1, -1, -1};
+    private long[] mAlertStartTime = new long[SOURCE_COUNT];
+
+    private boolean mPendingVoicemail = false;
+    private long mVoicemailDetectTime = -1;
+    private long mVoicemailAlertStartTime;
+
+    private boolean mCurrentlyInCall = false;
+    private boolean mStartedRinging = false;
+    private boolean mWasAnswered = false;
+
+    private Metrics.Histogram mConfirmLatency;
+    private Tracer mTracer = Tracer.NONE;
+
+
+
+    // UPDATE RUNNABLE -----------------------------------------
+
+    /*
+     * Runs when a message is pending.
+     */
+    private Runnable mUpdateRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+
+            update();
+        }
+    };
+
+
+
+
+    // CONSTRUCTOR -----------------------------------------
+
+    /**
+     * Constructs a new DetectionStateMachine.
+     * @param clock source of the current time
+     * @param scheduler runs the periodic updates
+     * @param settings provides the enabled state of alerts
+     * @param output receives the start and stop decisions
+     * @param sources message sources indexed by the SOURCE constants
+     */
+    public DetectionStateMachine(Clock clock, Scheduler scheduler, Settings settings, Output output,
+                                 MessageSource[] sources){
+
+        if (sources.length != SOURCE_COUNT)
+            throw new IllegalArgumentException("Expected " + SOURCE_COUNT + " message sources");
+
+        mClock = clock;
+        mScheduler = scheduler;
+        mSettings = settings;
+        mOutput = output;
+        mSources = sources;
+    }
+
+
+
+
+    // INPUT EVENTS -----------------------------------------
+
+    /**
+     * Called when a text message has been received.
+     */
+    public void onSmsReceived(){
+
+        onMessageReceived(SOURCE_SMS);
+    }
+
+
+    /**
+     * Called when a multimedia message has been received.
+     */
+    public void onMmsReceived(){
+
+        onMessageReceived(SOURCE_MMS);
+    }
+
+
+    /**
+     * Called when the phone's call state changes.
+     * @param state one of the CALL_STATE constants
+     */
+    public void onCallStateChanged(int state){
+
+        if (!(mSettings.isAlertsEnabled() && mSettings.isChannelEnabled(Channels.MISSED_CALL)))
+            return;
+
+
+        switch (state) {
+            case CALL_STATE_RINGING:
+                mStartedRinging = true;
+                mWasAnswered = false;
+                break;
+            case CALL_STATE_OFFHOOK:
+                mWasAnswered = true;
+                mCurrentlyInCall = true;
+                break;
+
+            case CALL_STATE_IDLE:
+                if (mStartedRinging && !mWasAnswered && !mPending[SOURCE_CALLS])     // call was missed
+                    detect(SOURCE_CALLS);
+
+                mStartedRinging = false;
+                mWasAnswered = false;
+
+                if (mCurrentlyInCall && mSettings.isAlertsEnabled()) {
+
+                    if (mSettings.isChannelEnabled(Channels.TEXT)) {
+                        markPending(SOURCE_SMS);
+                        markPending(SOURCE_MMS);
+                    }
+
+                    if (mSettings.isChannelEnabled(Channels.MISSED_CALL)) {
+                        markPending(SOURCE_CALLS);
+                    }
+
+                    update();
+                }
+
+                mCurrentlyInCall = false;
+
+                break;
+
+            default:
+                break;
+        }
+    }
+
+
+    /**
+     * Called when the voice mail waiting indicator changes.
+     */
+    public void onMessageWaitingIndicatorChanged(boolean mwi){
+
+        if (mwi && !mPendingVoicemail && mSettings.isAlertsEnabled()
+                && mSettings.isChannelEnabled(Channels.VOICE_MAIL)
+                && !mCurrentlyInCall) {
+
+            mPendingVoicemail = true;
+            mVoicemailDetectTime = mClock.currentTimeMillis();
+            mVoicemailAlertStartTime = mVoicemailDetectTime;
+            mOutput.onStartAlerting(Channels.VOICE_MAIL);
+            mScheduler.removeCallbacks(mUpdateRunnable);
+            mScheduler.postDelayed(mUpdateRunnable, UPDATE_INTERVAL_MS);
+        } else{
+
+            if (!mwi && mPendingVoicemail)
+                mOutput.onAcknowledged(Channels.VOICE_MAIL, mClock.currentTimeMillis() - mVoicemailAlertStartTime);
+
+            mPendingVoicemail = false;
+            stopAlerting(Channels.VOICE_MAIL);
+        }
+    }
+
+
+    /**
+     * Called when the user has stopped all alerts, or alerting has
+     * stopped on its own. Clears every pending message.
+     */
+    public void onAllAlertsStopped(){
+
+        mPending[SOURCE_CALLS] = false;
+        stopAlerting(Channels.MISSED_CALL);
+        mPending[SOURCE_SMS] = false;
+        mPending[SOURCE_MMS] = false;
+        stopAlerting(Channels.TEXT);
+        mPendingVoicemail = false;
+        stopAlerting(Channels.VOICE_MAIL);
+    }
+
+
+    /**
+     * Checks for missed messages that were already present when
+     * listening started.
+     */
+    public void runInitialScan(){
+
+        if (mSettings.isAlertsEnabled()) {
+
+            if (mSettings.isChannelEnabled(Channels.TEXT)) {
+                markPending(SOURCE_SMS);
+                markPending(SOURCE_MMS);
+            }
+
+            if (mSettings.isChannelEnabled(Channels.MISSED_CALL)) {
+                markPending(SOURCE_CALLS);
+            }
+
+            mScheduler.removeCallbacks(mUpdateRunnable);
+            update();
+        }
+    }
+
+
+
+
+    // PUBLIC METHODS -----------------------------------------
+
+    @Override
+    public boolean isPending(int channel){
+
+        switch (channel) {
+            case Channels.TEXT:
+                return mPending[SOURCE_SMS] || mPending[SOURCE_MMS];
+            case Channels.MISSED_CALL:
+                return mPending[SOURCE_CALLS];
+            case Channels.VOICE_MAIL:
+                return mPendingVoicemail;
+            default:
+                return false;
+        }
+    }
+
+
+    /**
+     * Returns whether messages of any channel are pending.
+     */
+    public boolean isAnyPending(){
+
+        return mPending[SOURCE_SMS] || mPending[SOURCE_MMS] || mPending[SOURCE_CALLS] || mPendingVoicemail;
+    }
+
+
+    /**
+     * Returns the time the pending messages of the channel were first
+     * detected, or -1 if they were found by a scan rather than detected.
+     */
+    public long getDetectTime(int channel){
+
+        switch (channel) {
+            case Channels.TEXT:
+                long sms = getDetectTimeOfSource(SOURCE_SMS);
+                long mms = getDetectTimeOfSource(SOURCE_MMS);
+                if (sms < 0 || mms < 0)
+                    return Math.max(sms, mms);
+                return Math.min(sms, mms);
+            case Channels.MISSED_CALL:
+                return getDetectTimeOfSource(SOURCE_CALLS);
+            case Channels.VOICE_MAIL:
+                return mPendingVoicemail ? mVoicemailDetectTime : -1;
+            default:
+                return -1;
+        }
+    }
+
+
+    /**
+     * Returns the number of unread messages of the channel at the last
+     * update, or 0 if the channel is not counted, as for voice mail.
+     */
+    public int getUnreadCount(int channel){
+
+        int count = 0;
+
+        for (int source = 0; source < SOURCE_COUNT; ++source) {
+
+            if (SOURCE_CHANNELS[source] == channel && mPending[source])
+                count += mLastCount[source];
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Records the time from detecting a message until confirming it
+     * in the given registry.
+     */
+    public void setMetrics(Metrics metrics){
+
+        mConfirmLatency = metrics.histogram("detection.confirm_ms", Metrics.LATENCY_BUCKETS_MS);
+    }
+
+
+    /**
+     * Writes the updates and each source's queries as sections to the given tracer.
+     */
+    public void setTracer(Tracer tracer){
+
+        mTracer = tracer;
+    }
+
+
+    /**
+     * Returns whether a call is currently in progress.
+     */
+    public boolean isInCall(){
+
+        return mCurrentlyInCall;
+    }
+
+
+
+
+    // PRIVATE METHODS -----------------------------------------
+
+    private void onMessageReceived(int source){
+
+        if (mSettings.isAlertsEnabled() && !mPending[source]
+                && mSettings.isChannelEnabled(SOURCE_CHANNELS[source])
+                && !mCurrentlyInCall)
+            detect(source);
+    }
+
+
+    private long getDetectTimeOfSource(int source){
+
+        return mPending[source] ? mFirstDetectTime[source] : -1;
+    }
+
+
+    /*
+     * Marks the source as pending without a detected message, so that it
+     * is checked once and times out at once if nothing is found.
+     */
+    private void markPending(int source){
+
+        if (!mPending[source])
+            mFirstDetectTime[source] = -1;
+
+        mPending[source] = true;
+    }
+
+
+    /*
+     * Marks the source as pending until the new message is
+     * confirmed or the confirmation times out.
+     */
+    private void detect(int source){
+
+        mPending[source] = true;
+        mLastCount[source] = 0;
+        mFirstDetectTime[source] = mClock.currentTimeMillis();
+        mScheduler.removeCallbacks(mUpdateRunnable);
+        mScheduler.postDelayed(mUpdateRunnable, UPDATE_INTERVAL_MS);
+    }
+
+
+    /*
+     * Runs checks to see if pending messages have been acknowledged by the
+     * user, then stops causes alerts to stop or reschedules an update
+     * as needed.
+     */
+    private void update(){
+
+        mTracer.beginSection(TRACE_UPDATE);
+
+        try {
+            long cur_time = mClock.currentTimeMillis();
+
+            for (int source = 0; source < SOURCE_COUNT; ++source) {
+
+                if (mPending[source])
+                    checkAndUpdatePending(source, cur_time);
+            }
+
+            if (isAnyPending())
+                mScheduler.postDelayed(mUpdateRunnable, UPDATE_INTERVAL_MS);
+        } finally {
+            mTracer.endSection();
+        }
+    }
+
+
+    /*
+     * After a new message is detected, this method first verifies that a new
+     * message was actually received. If so, this method starts alerting for
+     * the source's channel and begins checking for user acknowledgement of
+     * the message.
+     *
+     * If no new message can be verified after NEW_MESSAGE_TIMEOUT_MS time passes,
+     * the alerts do not begin and this method is no longer called.
+     */
+    private void checkAndUpdatePending(int source, long currentTime){
+
+        int channel = SOURCE_CHANNELS[source];
+
+        try {
+            int count;
+
+            mTracer.beginSection(TRACE_QUERIES[source]);
+
+            try {
+                count = mSources[source].countUnread();
+            } finally {
+                mTracer.endSection();
+            }
+
+            if (count == MessageSource.UNAVAILABLE)
+                return;
+
+            if (count == 0 && mLastCount[source] != 0){
+
+                mPending[source] = false;
+                mLastCount[source] = 0;
+                mOutput.onAcknowledged(channel, currentTime - mAlertStartTime[source]);
+                stopAlerting(channel);
+            }
+
+            else if (count > 0) {
+
+                int last_count = mLastCount[source];
+                mLastCount[source] = count;
+
+                if (last_count == 0) {
+
+                    if (mConfirmLatency != null && mFirstDetectTime[source] >= 0)
+                        mConfirmLatency.record(currentTime - mFirstDetectTime[source]);
+
+                    mAlertStartTime[source] = currentTime;
+                    mOutput.onStartAlerting(channel);
+                }
+            }
+            else if (currentTime - mFirstDetectTime[source] >= NEW_MESSAGE_TIMEOUT_MS){
+
+                mPending[source] = false;
+                stopAlerting(channel);
+            }
+        } catch (RuntimeException e) {
+
+            mPending[source] = false;
+            stopAlerting(channel);
+        }
+    }
+
+
+    private void stopAlerting(int channel){
+
+        boolean any_pending = isAnyPending();
+
+        mOutput.onStopAlerting(channel, any_pending);
+
+        if (!any_pending)
+            mScheduler.removeCallbacks(mUpdateRunnable);
+    }
+}
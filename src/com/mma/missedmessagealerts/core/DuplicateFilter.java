@@ -0,0 +1,261 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+import java.util.Arrays;
+
+/**
+ * Recognizes messages that repeat one received within a time window, as
+ * alerting systems that resend a page do. Messages are reduced to a 64 bit
+ * hash of the sender and the body, and the hashes are kept in a ring of
+ * small open addressing sets, one for each slice of the window. A slice's
+ * set is cleared when the ring comes back around to it, so memory stays
+ * constant however many messages arrive. A slice that fills up records no
+ * more hashes, letting some duplicates through rather than growing.
+ *
+ * @author Michael R. Falcone
+ */
+public class DuplicateFilter {
+
+
+    /**
+     * Number of slices the window is divided into.
+     */
+    public static final int SLICE_COUNT = 8;
+
+    /**
+     * Number of hashes each slice can hold.
+     */
+    public static final int SLICE_CAPACITY = 128;
+
+
+
+    // MEMBER VARIABLES -----------------------------------------
+
+    private static final long EMPTY = 0;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // slots are kept at most three quarters full so probes stay short
+    private static final int MAX_SLICE_SIZE = SLICE_CAPACITY * 3 / 4;
+
+    private final Clock mClock;
+    private final long mWindowMs;
+    private final long mSliceMs;
+
+    private final long[] mHashes = new long[SLICE_COUNT * SLICE_CAPACITY];
+    private final long[] mSliceNumbers = new long[SLICE_COUNT];
+    private final int[] mSliceSizes = new int[SLICE_COUNT];
+
+    private long mDuplicateCount = 0;
+    private long mDroppedCount = 0;
+
+
+
+
+    // CONSTRUCTOR -----------------------------------------
+
+    /**
+     * Constructs a new DuplicateFilter.
+     * @param clock clock that message times are taken from
+     * @param windowMs time within which a repeated message is a duplicate,
+     *                 0 to never find duplicates
+     */
+    public DuplicateFilter(Clock clock, long windowMs){
+
+        mClock = clock;
+        mWindowMs = windowMs;
+        mSliceMs = Math.max(1, windowMs / SLICE_COUNT);
+
+        Arrays.fill(mSliceNumbers, -1);
+    }
+
+
+
+
+    // PUBLIC METHODS -----------------------------------------
+
+    /**
+     * Returns whether the same sender sent the same body within the
+     * window, and records the message. A duplicate is recorded again, so a
+     * page resent every few minutes stays a duplicate. Bodies are compared ignoring case
+     * and runs of white space. Allocates nothing.
+     */
+    public boolean isDuplicate(String sender, CharSequence body){
+
+        return isDuplicate(hash(sender, body));
+    }
+
+
+    /**
+     * Returns whether the hash was recorded within the window, and records it.
+     */
+    public synchronized boolean isDuplicate(long hash){
+
+        if (mWindowMs <= 0)
+            return false;
+
+        if (hash == EMPTY)
+            hash = 1;
+
+        long slice_number = mClock.currentTimeMillis() / mSliceMs;
+        boolean duplicate = false;
+
+        // the window covers the current slice and the ones before it that
+        //  have not been reused yet
+        for (int i = 1; i < SLICE_COUNT && !duplicate; ++i) {
+
+            int slice = (int) ((slice_number - i) % SLICE_COUNT);
+            duplicate = mSliceNumbers[slice] == slice_number - i && contains(slice, hash);
+        }
+
+        int slice = (int) (slice_number % SLICE_COUNT);
+
+        if (mSliceNumbers[slice] != slice_number) {
+
+            Arrays.fill(mHashes, slice * SLICE_CAPACITY, (slice + 1) * SLICE_CAPACITY, EMPTY);
+            mSliceNumbers[slice] = slice_number;
+            mSliceSizes[slice] = 0;
+        }
+
+        if (contains(slice, hash))
+            duplicate = true;
+        else if (mSliceSizes[slice] < MAX_SLICE_SIZE) {
+
+            insert(slice, hash);
+            ++mSliceSizes[slice];
+        }
+        else
+            ++mDroppedCount;
+
+        if (duplicate)
+            ++mDuplicateCount;
+
+        return duplicate;
+    }
+
+
+    /**
+     * Returns the 64 bit FNV-1a hash of the sender's normalized number and
+     * the body, lower cased with runs of white space taken as one space.
+     */
+    public static long hash(String sender, CharSequence body){
+
+        long hash = FNV_OFFSET;
+
+        if (sender != null) {
+
+            for (int i = 0; i < sender.length(); ++i) {
+
+                char c = sender.charAt(i);
+
+                if (c >= '0' && c <= '9' || Character.isLetter(c))
+                    hash = (hash ^ Character.toLowerCase(c)) * FNV_PRIME;
+            }
+        }
+
+        // separates the sender from the body
+        hash = (hash ^ 0xFFFF) * FNV_PRIME;
+
+        if (body != null) {
+
+            boolean space = false;
+            boolean started = false;
+
+            for (int i = 0; i < body.length(); ++i) {
+
+                char c = body.charAt(i);
+
+                if (Character.isWhitespace(c)) {
+
+                    space = started;
+                    continue;
+                }
+
+                if (space)
+                    hash = (hash ^ ' ') * FNV_PRIME;
+
+                space = false;
+                started = true;
+                hash = (hash ^ Character.toLowerCase(c)) * FNV_PRIME;
+            }
+        }
+
+        return hash;
+    }
+
+
+    /**
+     * Returns the time within which a repeated message is a duplicate.
+     */
+    public long getWindowMs(){
+
+        return mWindowMs;
+    }
+
+
+    /**
+     * Returns the number of duplicates found.
+     */
+    public synchronized long getDuplicateCount(){
+
+        return mDuplicateCount;
+    }
+
+
+    /**
+     * Returns the number of messages not recorded because their slice was full.
+     */
+    public synchronized long getDroppedCount(){
+
+        return mDroppedCount;
+    }
+
+
+
+
+    // PRIVATE METHODS -----------------------------------------
+
+    private boolean contains(int slice, long hash){
+
+        int base = slice * SLICE_CAPACITY;
+        int i = (int) (hash ^ (hash >>> 32)) & (SLICE_CAPACITY - 1);
+
+        while (mHashes[base + i] != EMPTY) {
+
+            if (mHashes[base + i] == hash)
+                return true;
+
+            i = (i + 1) & (SLICE_CAPACITY - 1);
+        }
+
+        return false;
+    }
+
+
+    private void insert(int slice, long hash){
+
+        int base = slice * SLICE_CAPACITY;
+        int i = (int) (hash ^ (hash >>> 32)) & (SLICE_CAPACITY - 1);
+
+        while (mHashes[base + i] != EMPTY)
+            i = (i + 1) & (SLICE_CAPACITY - 1);
+
+        mHashes[base + i] = hash;
+    }
+}
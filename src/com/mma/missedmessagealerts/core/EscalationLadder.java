@@ -0,0 +1,117 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+/**
+ * Timeline of ever stronger ways of alerting for alerts that go
+ * unacknowledged. Each stage lasts the profile's escalation step:
+ * <ol>
+ *   <li>vibrate only</li>
+ *   <li>vibrate and play the tone at the profile's volume</li>
+ *   <li>raise the volume in VOLUME_STEPS stages up to full volume</li>
+ *   <li>also flash the screen at full brightness</li>
+ * </ol>
+ * The stages are compiled into profiles when alerts start, so finding the
+ * stage of an alert is a comparison against the next stage's start time.
+ *
+ * @author Michael R. Falcone
+ */
+public class EscalationLadder {
+
+
+    /**
+     * Number of stages that raise the volume to full.
+     */
+    public static final int VOLUME_STEPS = 3;
+
+
+
+    // MEMBER VARIABLES -----------------------------------------
+
+    private final long[] mStartMs;
+    private final AlertProfile[] mStages;
+
+
+
+
+    // CONSTRUCTOR -----------------------------------------
+
+    /**
+     * Compiles the ladder of the profile, whose escalationStepMs must be positive.
+     */
+    public EscalationLadder(AlertProfile profile){
+
+        int count = 3 + VOLUME_STEPS;
+        long step_ms = profile.escalationStepMs;
+
+        mStartMs = new long[count];
+        mStages = new AlertProfile[count];
+
+        int stage = 0;
+        mStages[stage++] = profile.withModalities(false, profile.dimFlash, true, false, profile.volume);
+        mStages[stage++] = profile.withModalities(false, profile.dimFlash, true, true, profile.volume);
+
+        for (int i = 1; i <= VOLUME_STEPS; ++i) {
+
+            float volume = profile.volume + (1.0f - profile.volume) * i / VOLUME_STEPS;
+            mStages[stage++] = profile.withModalities(false, profile.dimFlash, true, true, volume);
+        }
+
+        mStages[stage] = profile.withModalities(true, false, true, true, 1.0f);
+
+        for (int i = 0; i < count; ++i)
+            mStartMs[i] = i * step_ms;
+    }
+
+
+
+
+    // PUBLIC METHODS -----------------------------------------
+
+    /**
+     * Returns the stage reached after the given time alerting, starting the
+     * search from a stage already reached. Since alerts only move forward in
+     * time, passing the previous result makes each lookup constant time.
+     */
+    public int getStage(long elapsedMs, int fromStage){
+
+        int stage = Math.max(0, fromStage);
+
+        while (stage + 1 < mStartMs.length && elapsedMs >= mStartMs[stage + 1])
+            ++stage;
+
+        return stage;
+    }
+
+
+    /**
+     * Returns the profile of the stage.
+     */
+    public AlertProfile getProfile(int stage){
+
+        return mStages[stage];
+    }
+
+
+    /**
+     * Returns the number of stages.
+     */
+    public int getStageCount(){
+
+        return mStages.length;
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size ring buffer of structured events, each holding a code, a
+ * channel, a timestamp and two arguments. Events are written from any
+ * thread without locks or allocation, and the oldest are overwritten once
+ * the buffer is full. Every code is also counted for the life of the log.
+ *
+ * Each slot carries a sequence number that is cleared while the slot is
+ * written and set once it is complete, so readers skip slots that are
+ * being overwritten instead of blocking writers.
+ *
+ * @author Michael R. Falcone
+ */
+public class EventLog {
+
+
+    // EVENT CODES -----------------------------------------
+
+    /**
+     * The vibrator could not be started. Argument 0 is the pattern length.
+     */
+    public static final int VIBRATE_FAILED = 1;
+
+    /**
+     * The alert tone could not be opened. Argument 0 is the stream volume.
+     */
+    public static final int AUDIO_SOURCE_FAILED = 2;
+
+    /**
+     * The alert tone could not be prepared. Argument 0 is the stream volume.
+     */
+    public static final int AUDIO_PREPARE_FAILED = 3;
+
+    /**
+     * The alert tone could not be started. Argument 0 is the stream volume.
+     */
+    public static final int AUDIO_START_FAILED = 4;
+
+    /**
+     * The media player reported an error while playing. Arguments are the
+     * player's what and extra codes.
+     */
+    public static final int AUDIO_PLAYBACK_ERROR = 5;
+
+    /**
+     * The alert tone preview could not be played.
+     */
+    public static final int PREVIEW_AUDIO_FAILED = 6;
+
+    /**
+     * The vibrate pattern preview could not be played. Argument 0 is the pattern length.
+     */
+    public static final int PREVIEW_VIBRATE_FAILED = 7;
+
+    /**
+     * An uncaught exception is about to end the process. Argument 0 is the
+     * id of the thread it was thrown on.
+     */
+    public static final int UNCAUGHT_EXCEPTION = 8;
+
+    /**
+     * The acknowledge screen was drawn for the first time after being launched.
+     * Argument 0 is the time from the launch to the first draw in milliseconds,
+     * argument 1 is 1 if that was over the startup budget.
+     */
+    public static final int ACK_SCREEN_SHOWN = 9;
+
+    /**
+     * Names of the event codes, indexed by code.
+     */
+    public static final String[] CODE_NAMES = {"none", "vibrate_failed", "audio_source_failed",
+            "audio_prepare_failed", "audio_start_failed", "audio_playback_error", "preview_audio_failed",
+            "preview_vibrate_failed", "uncaught_exception", "ack_screen_shown"};
+
+    /**
+     * Number of event codes, including the unused code 0.
+     */
+    public static final int CODE_COUNT = CODE_NAMES.length;
+
+    /**
+     * Channel of events that do not belong to a channel.
+     */
+    public static final int NO_CHANNEL = -1;
+
+
+
+
+    // MEMBER VARIABLES -----------------------------------------
+
+    private final Clock mClock;
+    private final int mMask;
+
+    private final AtomicLong mNextSequence = new AtomicLong();
+    private final AtomicLongArray mSequences;     // 0 while a slot is being written, otherwise its sequence + 1
+    private final AtomicIntegerArray mCodes;
+    private final AtomicIntegerArray mChannels;
+    private final AtomicLongArray mTimes;
+    private final AtomicLongArray mArgs0;
+    private final AtomicLongArray mArgs1;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(CODE_COUNT);
+
+
+
+
+    // CONSTRUCTOR -----------------------------------------
+
+    /**
+     * Constructs a new EventLog.
+     * @param capacity number of events kept, rounded up to a power of two
+     * @param clock source of the event timestamps
+     */
+    public EventLog(int capacity, Clock clock){
+
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive");
+
+        int size = Integer.highestOneBit(capacity);
+
+        if (size < capacity)
+            size <<= 1;
+
+        mClock = clock;
+        mMask = size - 1;
+
+        mSequences = new AtomicLongArray(size);
+        mCodes = new AtomicIntegerArray(size);
+        mChannels = new AtomicIntegerArray(size);
+        mTimes = new AtomicLongArray(size);
+        mArgs0 = new AtomicLongArray(size);
+        mArgs1 = new AtomicLongArray(size);
+    }
+
+
+
+
+    // PUBLIC METHODS -----------------------------------------
+
+    /**
+     * Adds an event, overwriting the oldest if the log is full.
+     * @param code one of the event code constants
+     * @param channel channel the event is for, or NO_CHANNEL
+     */
+    public void log(int code, int channel, long arg0, long arg1){
+
+        long sequence = mNextSequence.getAndIncrement();
+        int slot = (int) sequence & mMask;
+
+        mSequences.set(slot, 0);
+        mCodes.set(slot, code);
+        mChannels.set(slot, channel);
+        mTimes.set(slot, mClock.currentTimeMillis());
+        mArgs0.set(slot, arg0);
+        mArgs1.set(slot, arg1);
+        mSequences.set(slot, sequence + 1);
+
+        if (code > 0 && code < CODE_COUNT)
+            mCounts.incrementAndGet(code);
+    }
+
+
+    /**
+     * Returns the number of events logged with the code since the log was created.
+     */
+    public long getCount(int code){
+
+        return mCounts.get(code);
+    }
+
+
+    /**
+     * Returns the number of events logged since the log was created.
+     */
+    public long getTotalCount(){
+
+        return mNextSequence.get();
+    }
+
+
+    /**
+     * Returns the number of events the log keeps.
+     */
+    public int getCapacity(){
+
+        return mMask + 1;
+    }
+
+
+    /**
+     * Prints the count of every code that was logged, then the kept events
+     * from oldest to newest. Events overwritten while printing are skipped.
+     */
+    public void dump(PrintWriter pw, String prefix){
+
+        for (int code = 1; code < CODE_COUNT; ++code) {
+
+            long count = mCounts.get(code);
+
+            if (count > 0)
+                pw.println(prefix + CODE_NAMES[code] + ": " + count);
+        }
+
+        long end = mNextSequence.get();
+        long start = Math.max(0, end - mMask - 1);
+
+        for (long sequence = start; sequence < end; ++sequence) {
+
+            int slot = (int) sequence & mMask;
+
+            if (mSequences.get(slot) != sequence + 1)
+                continue;
+
+            int code = mCodes.get(slot);
+            int channel = mChannels.get(slot);
+            long time = mTimes.get(slot);
+            long arg0 = mArgs0.get(slot);
+            long arg1 = mArgs1.get(slot);
+
+            // the slot was reused while it was read
+            if (mSequences.get(slot) != sequence + 1)
+                continue;
+
+            pw.println(prefix + "#" + sequence + " " + time + " "
+                    + (code > 0 && code < CODE_COUNT ? CODE_NAMES[code] : "code" + code)
+                    + (Channels.isChannel(channel) ? " " + Channels.NAMES[channel] : "")
+                    + " " + arg0 + " " + arg1);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+/**
+ * Record types and layout of the binary event trace. A trace starts with a
+ * header of the magic number, the format version, the start time and the
+ * local time zone offset. Each record that follows is a type byte, the
+ * milliseconds since the previous record and a value, both as unsigned
+ * variable-length integers of seven bits per byte.
+ *
+ * @author Michael R. Falcone
+ */
+public final class EventTrace {
+
+
+    /**
+     * First four bytes of every trace, "MMAT".
+     */
+    public static final int MAGIC = 0x4D4D4154;
+
+    /**
+     * Version of the record layout.
+     */
+    public static final int VERSION = 1;
+
+
+    // INPUT EVENTS -----------------------------------------
+
+    /**
+     * A text message broadcast was received.
+     */
+    public static final int TYPE_SMS = 1;
+
+    /**
+     * A multimedia message broadcast was received.
+     */
+    public static final int TYPE_MMS = 2;
+
+    /**
+     * The call state changed, value is a DetectionStateMachine CALL_STATE constant.
+     */
+    public static final int TYPE_CALL_STATE = 3;
+
+    /**
+     * The voice mail waiting indicator changed, value is 1 if on.
+     */
+    public static final int TYPE_MWI = 4;
+
+    /**
+     * The screen turned on or off, value is 1 if on.
+     */
+    public static final int TYPE_SCREEN = 5;
+
+    /**
+     * The battery level was sampled, value is the percentage.
+     */
+    public static final int TYPE_BATTERY = 6;
+
+    /**
+     * The power tier changed, value is an AlertProfile TIER constant.
+     */
+    public static final int TYPE_POWER_TIER = 7;
+
+    /**
+     * The user stopped all alerts from the notification.
+     */
+    public static final int TYPE_STOP_ALL = 8;
+
+    /**
+     * A message source was queried, value is packed by packQuery.
+     */
+    public static final int TYPE_QUERY = 9;
+
+    /**
+     * The scan for messages already present when listening started ran.
+     */
+    public static final int TYPE_INITIAL_SCAN = 10;
+
+
+    // PREFERENCES -----------------------------------------
+
+    /**
+     * Alerts were enabled or disabled, value is 1 if enabled.
+     */
+    public static final int TYPE_PREF_ALERTS_ENABLED = 16;
+
+    /**
+     * The coalescing window changed, value is in seconds.
+     */
+    public static final int TYPE_PREF_COALESCE_WINDOW = 17;
+
+    /**
+     * A channel's alert flags changed, value is packed by packChannel
+     * with the PREF_FLAG bits.
+     */
+    public static final int TYPE_PREF_CHANNEL_FLAGS = 18;
+
+    /**
+     * A channel's alert interval changed, value is packed by packChannel
+     * with the interval in seconds.
+     */
+    public static final int TYPE_PREF_CHANNEL_INTERVAL = 19;
+
+    /**
+     * A channel's alert duration changed, value is packed by packChannel
+     * with the duration in seconds.
+     */
+    public static final int TYPE_PREF_CHANNEL_DURATION = 20;
+
+    /**
+     * A channel's quiet hours changed, value is packed by packChannel with
+     * the start minute of the day times 1440 plus the end minute.
+     */
+    public static final int TYPE_PREF_CHANNEL_QUIET = 21;
+
+
+    public static final int PREF_FLAG_ENABLED = 1;
+    public static final int PREF_FLAG_FLASH = 2;
+    public static final int PREF_FLAG_VIBRATE = 4;
+    public static final int PREF_FLAG_AUDIO = 8;
+    public static final int PREF_FLAG_SCHEDULING = 16;
+
+    public static final int MINUTES_PER_DAY = 24 * 60;
+
+    /**
+     * Count recorded for a query that threw an exception.
+     */
+    public static final int QUERY_FAILED = -2;
+
+
+
+    private EventTrace(){
+    }
+
+
+    /**
+     * Packs a channel and a non-negative value into one record value.
+     */
+    public static long packChannel(int channel, long value){
+
+        return (value << 2) | channel;
+    }
+
+
+    /**
+     * Returns the channel of a value packed by packChannel.
+     */
+    public static int unpackChannel(long packed){
+
+        return (int) (packed & 3);
+    }
+
+
+    /**
+     * Returns the value packed by packChannel.
+     */
+    public static long unpackChannelValue(long packed){
+
+        return packed >>> 2;
+    }
+
+
+    /**
+     * Packs a message source and the count it returned into one record value.
+     * @param source a DetectionStateMachine SOURCE constant
+     * @param count unread count, MessageSource.UNAVAILABLE or QUERY_FAILED
+     */
+    public static long packQuery(int source, int count){
+
+        return ((long) (count - QUERY_FAILED) << 2) | source;
+    }
+
+
+    /**
+     * Returns the source of a value packed by packQuery.
+     */
+    public static int unpackQuerySource(long packed){
+
+        return (int) (packed & 3);
+    }
+
+
+    /**
+     * Returns the count of a value packed by packQuery.
+     */
+    public static int unpackQueryCount(long packed){
+
+        return (int) (packed >>> 2) + QUERY_FAILED;
+    }
+}
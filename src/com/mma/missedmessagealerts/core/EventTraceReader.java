@@ -0,0 +1,155 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the records of a binary event trace in order.
+ *
+ * @author Michael R. Falcone
+ * @see EventTrace
+ */
+public class EventTraceReader {
+
+    private DataInputStream mIn;
+
+    private long mStartTime;
+    private int mTimeZoneOffset;
+
+    private long mTime;
+    private int mType;
+    private long mValue;
+
+
+
+    /**
+     * Constructs a new EventTraceReader and reads the trace header.
+     * @throws IOException if the stream is not an event trace of a known version
+     */
+    public EventTraceReader(InputStream in) throws IOException {
+
+        mIn = new DataInputStream(in);
+
+        if (mIn.readInt() != EventTrace.MAGIC)
+            throw new IOException("Not an event trace");
+
+        int version = mIn.readUnsignedByte();
+
+        if (version != EventTrace.VERSION)
+            throw new IOException("Unsupported event trace version " + version);
+
+        mStartTime = mIn.readLong();
+        mTimeZoneOffset = mIn.readInt();
+        mTime = mStartTime;
+    }
+
+
+    /**
+     * Reads the next record.
+     * @return false if the trace has ended
+     * @throws IOException if the trace is cut off inside a record
+     */
+    public boolean next() throws IOException {
+
+        int type = mIn.read();
+
+        if (type < 0)
+            return false;
+
+        try {
+            mTime += readVarLong();
+            mValue = readVarLong();
+        } catch (EOFException e) {
+            throw new IOException("Event trace ends inside a record");
+        }
+
+        mType = type;
+
+        return true;
+    }
+
+
+    /**
+     * Returns the time the trace was started.
+     */
+    public long getStartTime(){
+        return mStartTime;
+    }
+
+
+    /**
+     * Returns the local time zone offset when the trace was started.
+     */
+    public int getTimeZoneOffset(){
+        return mTimeZoneOffset;
+    }
+
+
+    /**
+     * Returns the time of the current record.
+     */
+    public long getTime(){
+        return mTime;
+    }
+
+
+    /**
+     * Returns the type of the current record, one of the EventTrace TYPE constants.
+     */
+    public int getType(){
+        return mType;
+    }
+
+
+    /**
+     * Returns the value of the current record.
+     */
+    public long getValue(){
+        return mValue;
+    }
+
+
+    /**
+     * Closes the underlying stream.
+     */
+    public void close() throws IOException {
+
+        mIn.close();
+    }
+
+
+
+    private long readVarLong() throws IOException {
+
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+
+            int b = mIn.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0)
+                return value;
+        }
+
+        throw new IOException("Malformed event trace value");
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes input events to a binary event trace. Records are buffered and
+ * written out when the buffer fills or the trace is flushed. If writing
+ * fails the writer stops recording rather than disturbing the caller.
+ *
+ * @author Michael R. Falcone
+ * @see EventTrace
+ */
+public class EventTraceWriter {
+
+    private static final int BUFFER_SIZE = 4096;
+    private static final int MAX_RECORD_SIZE = 1 + 10 + 10;
+
+
+    private OutputStream mOut;
+    private Clock mClock;
+
+    private byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mLength = 0;
+
+    private long mLastTime;
+    private long mRecordCount = 0;
+    private boolean mFailed = false;
+
+
+
+    /**
+     * Constructs a new EventTraceWriter and writes the trace header.
+     * @param out stream the trace is written to
+     * @param clock source of the record times
+     */
+    public EventTraceWriter(OutputStream out, Clock clock){
+
+        mOut = out;
+        mClock = clock;
+        mLastTime = clock.currentTimeMillis();
+
+        writeInt(EventTrace.MAGIC);
+        mBuffer[mLength++] = (byte) EventTrace.VERSION;
+        writeLong(mLastTime);
+        writeInt(clock.getTimeZoneOffset(mLastTime));
+    }
+
+
+    /**
+     * Records an event at the current time.
+     * @param type one of the EventTrace TYPE constants
+     * @param value non-negative value of the event
+     */
+    public void record(int type, long value){
+
+        if (mFailed)
+            return;
+
+        if (mLength + MAX_RECORD_SIZE > mBuffer.length)
+            writeBuffer();
+
+        long now = mClock.currentTimeMillis();
+
+        // the wall clock may step backwards, keep deltas non-negative
+        long delta = Math.max(0, now - mLastTime);
+        mLastTime += delta;
+
+        mBuffer[mLength++] = (byte) type;
+        writeVarLong(delta);
+        writeVarLong(value);
+
+        ++mRecordCount;
+    }
+
+
+    /**
+     * Writes the buffered records to the stream and flushes it.
+     */
+    public void flush(){
+
+        writeBuffer();
+
+        if (mFailed)
+            return;
+
+        try {
+            mOut.flush();
+        } catch (IOException e) {
+            mFailed = true;
+        }
+    }
+
+
+    /**
+     * Flushes and closes the trace.
+     */
+    public void close(){
+
+        flush();
+
+        try {
+            mOut.close();
+        } catch (IOException e) {
+            mFailed = true;
+        }
+    }
+
+
+    /**
+     * Returns the number of records written.
+     */
+    public long getRecordCount(){
+
+        return mRecordCount;
+    }
+
+
+    /**
+     * Returns whether writing has failed and recording stopped.
+     */
+    public boolean hasFailed(){
+
+        return mFailed;
+    }
+
+
+
+
+    // PRIVATE METHODS -----------------------------------------
+
+    private void writeBuffer(){
+
+        if (mFailed || mLength == 0)
+            return;
+
+        try {
+            mOut.write(mBuffer, 0, mLength);
+        } catch (IOException e) {
+            mFailed = true;
+        }
+
+        mLength = 0;
+    }
+
+
+    private void writeVarLong(long value){
+
+        while ((value & ~0x7FL) != 0) {
+
+            mBuffer[mLength++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        mBuffer[mLength++] = (byte) value;
+    }
+
+
+    private void writeInt(int value){
+
+        for (int shift = 24; shift >= 0; shift -= 8)
+            mBuffer[mLength++] = (byte) (value >>> shift);
+    }
+
+
+    private void writeLong(long value){
+
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keyword alert policy for message bodies. The keywords are compiled into
+ * an Aho-Corasick automaton, so a body is scanned in a single pass whose
+ * cost grows with the length of the body and not with the number of
+ * keywords. Keywords match whole words only, ignoring case, so "P1"
+ * matches "P1 outage" but not "P10".
+ *
+ * Rules are written one per line as an action followed by the keyword:
+ * <pre>
+ *   always CRITICAL     alert even if texts are disabled or quiet
+ *   missed_call P1      alert with the missed call profile
+ *   text disk full      alert with the text profile
+ * </pre>
+ * Matches are returned as SenderRules policies.
+ *
+ * @author Michael R. Falcone
+ */
+public class KeywordRules {
+
+
+    // MEMBER VARIABLES -----------------------------------------
+
+    // transitions of state s are mLabels and mTargets from mFirst[s] to
+    //  mFirst[s + 1], sorted by label
+    private final int[] mFirst;
+    private final char[] mLabels;
+    private final int[] mTargets;
+
+    private final int[] mFail;
+
+    // policy and length of the keyword ending at each state, and the next
+    //  shorter state along the failure links that ends a keyword, or 0
+    private final int[] mPolicy;
+    private final int[] mLength;
+    private final int[] mOutput;
+
+    private final int mKeywordCount;
+
+
+
+
+    // CONSTRUCTOR -----------------------------------------
+
+    /**
+     * Compiles the keywords into an automaton.
+     * @param keywords the keywords, matched ignoring case
+     * @param policies the SenderRules policy of each keyword
+     */
+    public KeywordRules(List<String> keywords, List<Integer> policies){
+
+        // build the trie with maps, then flatten it once the links are known
+        List<TreeMap<Character, Integer>> gotos = new ArrayList<TreeMap<Character, Integer>>();
+        List<Integer> policy_list = new ArrayList<Integer>();
+        List<Integer> length_list = new ArrayList<Integer>();
+
+        gotos.add(new TreeMap<Character, Integer>());
+        policy_list.add(SenderRules.ACTION_NONE);
+        length_list.add(0);
+
+        int keyword_count = 0;
+
+        for (int k = 0; k < keywords.size(); ++k) {
+
+            String keyword = keywords.get(k);
+            int state = 0;
+
+            if (keyword.length() == 0)
+                continue;
+
+            for (int i = 0; i < keyword.length(); ++i) {
+
+                char c = Character.toLowerCase(keyword.charAt(i));
+                Integer next = gotos.get(state).get(c);
+
+                if (next == null) {
+
+                    next = gotos.size();
+                    gotos.add(new TreeMap<Character, Integer>());
+                    policy_list.add(SenderRules.ACTION_NONE);
+                    length_list.add(i + 1);
+                    gotos.get(state).put(c, next);
+                }
+
+                state = next;
+            }
+
+            policy_list.set(state, SenderRules.strongest(policy_list.get(state), policies.get(k)));
+            ++keyword_count;
+        }
+
+        int state_count = gotos.size();
+        int transition_count = state_count - 1;
+
+        mKeywordCount = keyword_count;
+        mFirst = new int[state_count + 1];
+        mLabels = new char[transition_count];
+        mTargets = new int[transition_count];
+        mFail = new int[state_count];
+        mPolicy = new int[state_count];
+        mLength = new int[state_count];
+        mOutput = new int[state_count];
+
+        int t = 0;
+
+        for (int s = 0; s < state_count; ++s) {
+
+            mFirst[s] = t;
+            mPolicy[s] = policy_list.get(s);
+            mLength[s] = length_list.get(s);
+
+            for (Map.Entry<Character, Integer> entry : gotos.get(s).entrySet()) {
+
+                mLabels[t] = entry.getKey();
+                mTargets[t] = entry.getValue();
+                ++t;
+            }
+        }
+
+        mFirst[state_count] = t;
+
+        // failure links in breadth first order, so shorter states are done first
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+
+        for (int i = mFirst[0]; i < mFirst[1]; ++i)
+            queue.add(mTargets[i]);
+
+        while (!queue.isEmpty()) {
+
+            int state = queue.removeFirst();
+
+            for (int i = mFirst[state]; i < mFirst[state + 1]; ++i) {
+
+                int child = mTargets[i];
+                int fail = mFail[state];
+                int next;
+
+                while ((next = findTransition(fail, mLabels[i])) < 0 && fail != 0)
+                    fail = mFail[fail];
+
+                mFail[child] = next >= 0 ? next : 0;
+                mOutput[child] = mPolicy[mFail[child]] != SenderRules.ACTION_NONE
+                        ? mFail[child] : mOutput[mFail[child]];
+
+                queue.add(child);
+            }
+        }
+    }
+
+
+
+
+    // PUBLIC METHODS -----------------------------------------
+
+    /**
+     * Compiles the rules written one per line. Lines that are not
+     * valid rules are skipped.
+     */
+    public static KeywordRules parse(String text){
+
+        List<String> keywords = new ArrayList<String>();
+        List<Integer> policies = new ArrayList<Integer>();
+
+        if (text != null) {
+
+            for (String line : text.split("\n")) {
+
+                line = line.trim();
+                int space = line.indexOf(' ');
+
+                if (space < 0)
+                    continue;
+
+                String action_name = line.substring(0, space);
+                String keyword = line.substring(space + 1).trim();
+                int policy = SenderRules.parsePolicy(action_name);
+
+                // a keyword can only raise a text, never hide it
+                if (policy == SenderRules.ACTION_NONE || policy == SenderRules.ACTION_IGNORE
+                        || keyword.length() == 0)
+                    continue;
+
+                keywords.add(keyword);
+                policies.add(policy);
+            }
+        }
+
+        return new KeywordRules(keywords, policies);
+    }
+
+
+    /**
+     * Scans the body and returns the strongest SenderRules policy of the
+     * keywords found in it, or ACTION_NONE if there are none. Allocates nothing.
+     */
+    public int match(CharSequence body){
+
+        if (body == null || mKeywordCount == 0)
+            return SenderRules.ACTION_NONE;
+
+        int length = body.length();
+        int state = 0;
+        int policy = SenderRules.ACTION_NONE;
+
+        for (int i = 0; i < length; ++i) {
+
+            char c = Character.toLowerCase(body.charAt(i));
+            int next;
+
+            while ((next = findTransition(state, c)) < 0 && state != 0)
+                state = mFail[state];
+
+            state = next >= 0 ? next : 0;
+
+            int found = mPolicy[state] != SenderRules.ACTION_NONE ? state : mOutput[state];
+
+            for (; found != 0; found = mOutput[found]) {
+
+                if (isWordAt(body, i - mLength[found] + 1, i + 1)) {
+
+                    policy = SenderRules.strongest(policy, mPolicy[found]);
+
+                    if (SenderRules.getAction(policy) == SenderRules.ACTION_ALWAYS_ALERT)
+                        return policy;
+                }
+            }
+        }
+
+        return policy;
+    }
+
+
+    /**
+     * Returns whether any keyword always alerts for the texts containing it.
+     */
+    public boolean hasAlwaysAlert(){
+
+        for (int state = 0; state < mPolicy.length; ++state) {
+
+            if (SenderRules.getAction(mPolicy[state]) == SenderRules.ACTION_ALWAYS_ALERT)
+                return true;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Returns the number of keywords.
+     */
+    public int getKeywordCount(){
+
+        return mKeywordCount;
+    }
+
+
+
+
+    // PRIVATE METHODS -----------------------------------------
+
+    /*
+     * Returns the target of the state's transition on the character,
+     * or -1 if there is none.
+     */
+    private int findTransition(int state, char c){
+
+        int low = mFirst[state];
+        int high = mFirst[state + 1] - 1;
+
+        while (low <= high) {
+
+            int mid = (low + high) >>> 1;
+            char label = mLabels[mid];
+
+            if (label < c)
+                low = mid + 1;
+            else if (label > c)
+                high = mid - 1;
+            else
+                return mTargets[mid];
+        }
+
+        return -1;
+    }
+
+
+    private static boolean isWordAt(CharSequence body, int start, int end){
+
+        return (start == 0 || !Character.isLetterOrDigit(body.charAt(start - 1)))
+                && (end == body.length() || !Character.isLetterOrDigit(body.charAt(end)));
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+/**
+ * Passes queries through to a message source, counting them and
+ * recording how long each took.
+ *
+ * @author Michael R. Falcone
+ */
+public class MeteredMessageSource implements MessageSource {
+
+    private MessageSource mSource;
+    private Metrics.Counter mQueries;
+    private Metrics.Counter mFailures;
+    private Metrics.Histogram mDurationUs;
+    private StatsStore mStats;
+
+
+    /**
+     * Constructs a new MeteredMessageSource.
+     * @param source the message source queried
+     * @param metrics registry the metrics are kept in
+     * @param name name of the source used in the metric names
+     */
+    public MeteredMessageSource(MessageSource source, Metrics metrics, String name){
+
+        mSource = source;
+        mQueries = metrics.counter("query." + name + ".count");
+        mFailures = metrics.counter("query." + name + ".failures");
+        mDurationUs = metrics.histogram("query." + name + ".duration_us", Metrics.DURATION_BUCKETS_US);
+    }
+
+
+    /**
+     * Also counts the queries in the hourly statistics of the given store.
+     */
+    public void setStatsStore(StatsStore stats){
+
+        mStats = stats;
+    }
+
+
+    @Override
+    public int countUnread() {
+
+        long start = System.nanoTime();
+        int count = UNAVAILABLE;
+
+        try {
+            count = mSource.countUnread();
+        } finally {
+
+            mQueries.increment();
+            mDurationUs.record((System.nanoTime() - start) / 1000);
+
+            if (mStats != null)
+                mStats.add(StatsStore.STAT_QUERIES, 1);
+
+            if (count == UNAVAILABLE)
+                mFailures.increment();
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A registry of named counters and fixed-bucket histograms. Metrics are
+ * looked up once, when a component is set up, and then updated without
+ * locks or allocation from any thread.
+ *
+ * @author Michael R. Falcone
+ */
+public class Metrics {
+
+
+    /**
+     * Bucket bounds for latencies in milliseconds.
+     */
+    public static final long[] LATENCY_BUCKETS_MS = {1, 5, 10, 50, 100, 500, 1000, 2000, 5000, 10000,
+            30000, 60000, 300000, 900000};
+
+    /**
+     * Bucket bounds for short durations in microseconds.
+     */
+    public static final long[] DURATION_BUCKETS_US = {50, 100, 200, 500, 1000, 2000, 5000, 10000,
+            20000, 50000, 100000, 500000};
+
+
+
+    /**
+     * A monotonically increasing count.
+     */
+    public static final class Counter {
+
+        private final String mName;
+        private final AtomicLong mValue = new AtomicLong();
+
+        private Counter(String name){
+            mName = name;
+        }
+
+        public void increment(){
+            mValue.incrementAndGet();
+        }
+
+        public void add(long amount){
+            mValue.addAndGet(amount);
+        }
+
+        public long get(){
+            return mValue.get();
+        }
+
+        public String getName(){
+            return mName;
+        }
+    }
+
+
+    /**
+     * Counts recorded values in fixed buckets. A value falls in the first
+     * bucket whose bound is at least the value, or in the overflow bucket.
+     */
+    public static final class Histogram {
+
+        private final String mName;
+        private final long[] mBounds;
+        private final AtomicLongArray mBuckets;
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong(Long.MIN_VALUE);
+
+        private Histogram(String name, long[] bounds){
+
+            mName = name;
+            mBounds = bounds;
+            mBuckets = new AtomicLongArray(bounds.length + 1);
+        }
+
+        public void record(long value){
+
+            int lo = 0;
+            int hi = mBounds.length;
+
+            while (lo < hi) {
+
+                int mid = (lo + hi) >>> 1;
+
+                if (mBounds[mid] < value)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+
+            mBuckets.incrementAndGet(lo);
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+
+            long max = mMax.get();
+
+            while (value > max && !mMax.compareAndSet(max, value))
+                max = mMax.get();
+        }
+
+        public long getCount(){
+            return mCount.get();
+        }
+
+        public long getSum(){
+            return mSum.get();
+        }
+
+        /**
+         * Returns the largest value recorded, or 0 if none were.
+         */
+        public long getMax(){
+
+            long max = mMax.get();
+            return max == Long.MIN_VALUE ? 0 : max;
+        }
+
+        /**
+         * Returns the bound of the bucket holding the given fraction of the
+         * recorded values, or the maximum for the overflow bucket.
+         */
+        public long getPercentile(double fraction){
+
+            long count = mCount.get();
+
+            if (count == 0)
+                return 0;
+
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+
+            for (int i = 0; i < mBounds.length; ++i) {
+
+                seen += mBuckets.get(i);
+
+                if (seen >= rank)
+                    return mBounds[i];
+            }
+
+            return getMax();
+        }
+
+        public String getName(){
+            return mName;
+        }
+    }
+
+
+
+    // MEMBER VARIABLES -----------------------------------------
+
+    private final List<Counter> mCounters = new ArrayList<Counter>();
+    private final List<Histogram> mHistograms = new ArrayList<Histogram>();
+
+
+
+
+    // PUBLIC METHODS -----------------------------------------
+
+    /**
+     * Returns the counter with the name, registering it if needed.
+     */
+    public synchronized Counter counter(String name){
+
+        for (int i = 0; i < mCounters.size(); ++i) {
+
+            if (mCounters.get(i).mName.equals(name))
+                return mCounters.get(i);
+        }
+
+        Counter counter = new Counter(name);
+        mCounters.add(counter);
+
+        return counter;
+    }
+
+
+    /**
+     * Returns the histogram with the name, registering it with the
+     * bucket bounds if needed.
+     * @param bounds ascending upper bounds of the buckets
+     */
+    public synchronized Histogram histogram(String name, long[] bounds){
+
+        for (int i = 0; i < mHistograms.size(); ++i) {
+
+            if (mHistograms.get(i).mName.equals(name))
+                return mHistograms.get(i);
+        }
+
+        Histogram histogram = new Histogram(name, bounds);
+        mHistograms.add(histogram);
+
+        return histogram;
+    }
+
+
+    /**
+     * Prints every counter and histogram.
+     */
+    public synchronized void dump(PrintWriter pw, String prefix){
+
+        for (int i = 0; i < mCounters.size(); ++i) {
+
+            Counter counter = mCounters.get(i);
+            pw.println(prefix + counter.mName + ": " + counter.get());
+        }
+
+        for (int i = 0; i < mHistograms.size(); ++i) {
+
+            Histogram h = mHistograms.get(i);
+            long count = h.getCount();
+
+            pw.print(prefix + h.mName + ": count=" + count);
+
+            if (count > 0) {
+
+                pw.print(" mean=" + h.getSum() / count + " p50<=" + h.getPercentile(0.5)
+                        + " p90<=" + h.getPercentile(0.9) + " p99<=" + h.getPercentile(0.99)
+                        + " max=" + h.getMax());
+            }
+
+            pw.println();
+
+            if (count > 0) {
+
+                pw.print(prefix + "  buckets:");
+
+                for (int b = 0; b <= h.mBounds.length; ++b) {
+
+                    long n = h.mBuckets.get(b);
+
+                    if (n != 0)
+                        pw.print(" " + (b < h.mBounds.length ? "<=" + h.mBounds[b] : ">" + h.mBounds[b - 1]) + ":" + n);
+                }
+
+                pw.println();
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Counts the messages of each sender per channel while the user is being
+ * alerted, in order of their first message, so the notification can tell
+ * who texted or called and how many times.
+ *
+ * @author Michael R. Falcone
+ */
+public class PendingSenders {
+
+
+    /**
+     * Largest number of distinct senders kept per channel. Messages of
+     * further senders are counted in the total only.
+     */
+    public static final int MAX_SENDERS = 8;
+
+
+
+    // MEMBER VARIABLES -----------------------------------------
+
+    private final List<List<String>> mNumbers = new ArrayList<List<String>>(Channels.COUNT);
+    private final List<List<int[]>> mCounts = new ArrayList<List<int[]>>(Channels.COUNT);
+    private final int[] mTotals = new int[Channels.COUNT];
+
+
+
+
+    // CONSTRUCTOR -----------------------------------------
+
+    /**
+     * Constructs a new, empty PendingSenders.
+     */
+    public PendingSenders(){
+
+        for (int i = 0; i < Channels.COUNT; ++i) {
+
+            mNumbers.add(new ArrayList<String>(MAX_SENDERS));
+            mCounts.add(new ArrayList<int[]>(MAX_SENDERS));
+        }
+    }
+
+
+
+
+    // PUBLIC METHODS -----------------------------------------
+
+    /**
+     * Counts a message from the number on the channel. Numbers are
+     * compared in normalized form, the first form seen is kept.
+     */
+    public void add(int channel, String number){
+
+        ++mTotals[channel];
+
+        String key = PhoneNumbers.normalize(number);
+
+        if (key.length() == 0)
+            return;
+
+        List<String> numbers = mNumbers.get(channel);
+
+        for (int i = 0; i < numbers.size(); ++i) {
+
+            if (PhoneNumbers.normalize(numbers.get(i)).equals(key)) {
+
+                ++mCounts.get(channel).get(i)[0];
+                return;
+            }
+        }
+
+        if (numbers.size() < MAX_SENDERS) {
+
+            numbers.add(number);
+            mCounts.get(channel).add(new int[] {1});
+        }
+    }
+
+
+    /**
+     * Forgets the senders of the channel.
+     */
+    public void clear(int channel){
+
+        mNumbers.get(channel).clear();
+        mCounts.get(channel).clear();
+        mTotals[channel] = 0;
+    }
+
+
+    /**
+     * Returns the number of distinct senders kept for the channel.
+     */
+    public int getSenderCount(int channel){
+
+        return mNumbers.get(channel).size();
+    }
+
+
+    /**
+     * Returns the number of the sender at the index, in order of first message.
+     */
+    public String getNumber(int channel, int index){
+
+        return mNumbers.get(channel).get(index);
+    }
+
+
+    /**
+     * Returns the number of messages of the sender at the index.
+     */
+    public int getMessageCount(int channel, int index){
+
+        return mCounts.get(channel).get(index)[0];
+    }
+
+
+    /**
+     * Returns the number of messages counted on the channel, including
+     * those without a known sender.
+     */
+    public int getTotal(int channel){
+
+        return mTotals[channel];
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+/**
+ * Reports whether a channel still has missed messages the user
+ * has not acknowledged.
+ *
+ * @author Michael R. Falcone
+ */
+public interface PendingSource {
+
+    /**
+     * Returns whether the channel has pending, unacknowledged messages.
+     */
+    boolean isPending(int channel);
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+/**
+ * Helpers for the phone numbers of senders and callers.
+ *
+ * @author Michael R. Falcone
+ */
+public final class PhoneNumbers {
+
+
+    private PhoneNumbers(){
+    }
+
+
+    /**
+     * Returns the digits of the number, dropping the formatting and the
+     * international prefix sign, so that "+1 (555) 010-2030" and
+     * "15550102030" give the same key. Alphanumeric sender ids that hold no
+     * digits are returned trimmed and in lower case. Returns an empty string
+     * if the number is null or empty.
+     */
+    public static String normalize(String number){
+
+        if (number == null)
+            return "";
+
+        int length = number.length();
+        StringBuilder digits = new StringBuilder(length);
+
+        for (int i = 0; i < length; ++i) {
+
+            char c = number.charAt(i);
+
+            if (c >= '0' && c <= '9')
+                digits.append(c);
+            else if (Character.isLetter(c))
+                return number.trim().toLowerCase();
+        }
+
+        return digits.toString();
+    }
+
+
+    /**
+     * Returns a 64 bit hash of the normalized number without building
+     * it, so equal normalized numbers have equal hashes.
+     */
+    public static long hash(CharSequence number){
+
+        long hash = 0xcbf29ce484222325L;
+
+        if (number == null)
+            return hash;
+
+        boolean letters = false;
+
+        for (int i = 0; i < number.length() && !letters; ++i)
+            letters = Character.isLetter(number.charAt(i));
+
+        for (int i = 0; i < number.length(); ++i) {
+
+            char c = number.charAt(i);
+
+            if (letters)
+                c = Character.toLowerCase(c);
+            else if (c < '0' || c > '9')
+                continue;
+
+            hash = (hash ^ c) * 0x100000001b3L;
+        }
+
+        return hash;
+    }
+}
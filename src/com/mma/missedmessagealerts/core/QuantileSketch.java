@@ -0,0 +1,210 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A streaming quantile sketch of durations in constant memory. Values are
+ * counted in buckets whose bounds grow geometrically, so any quantile is
+ * estimated within RELATIVE_ACCURACY of a value that was actually added.
+ * Values below MIN_VALUE_MS and above MAX_VALUE_MS are clamped.
+ *
+ * @author Michael R. Falcone
+ */
+public class QuantileSketch {
+
+
+    /**
+     * Largest relative error of an estimated quantile.
+     */
+    public static final double RELATIVE_ACCURACY = 0.02;
+
+    /**
+     * Smallest value told apart from others, in milliseconds.
+     */
+    public static final long MIN_VALUE_MS = 100;
+
+    /**
+     * Largest value told apart from others, in milliseconds.
+     */
+    public static final long MAX_VALUE_MS = 2 * 24 * 60 * 60 * 1000L;
+
+
+
+    // MEMBER VARIABLES -----------------------------------------
+
+    private static final int VERSION = 1;
+
+    // bucket i holds values in (MIN_VALUE_MS * GAMMA^(i-1), MIN_VALUE_MS * GAMMA^i]
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    private static final int BUCKET_COUNT = 1 + (int) Math.ceil(Math.log((double) MAX_VALUE_MS / MIN_VALUE_MS) / LOG_GAMMA);
+
+
+    private final int[] mBuckets = new int[BUCKET_COUNT];
+    private long mCount = 0;
+
+
+
+
+    // PUBLIC METHODS -----------------------------------------
+
+    /**
+     * Adds a value in milliseconds.
+     */
+    public void add(long valueMs){
+
+        mBuckets[getBucket(valueMs)]++;
+        mCount++;
+    }
+
+
+    /**
+     * Returns the number of values added.
+     */
+    public long getCount(){
+
+        return mCount;
+    }
+
+
+    /**
+     * Returns an estimate of the quantile in milliseconds, or -1 if no
+     * values have been added.
+     * @param quantile fraction of values at or below the result, from 0 to 1
+     */
+    public long getQuantile(double quantile){
+
+        if (mCount == 0)
+            return -1;
+
+        long rank = (long) Math.ceil(quantile * mCount);
+        long seen = 0;
+
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+
+            seen += mBuckets[i];
+
+            if (seen >= rank && seen > 0)
+                return getValue(i);
+        }
+
+        return MAX_VALUE_MS;
+    }
+
+
+    /**
+     * Removes every value.
+     */
+    public void clear(){
+
+        for (int i = 0; i < BUCKET_COUNT; ++i)
+            mBuckets[i] = 0;
+
+        mCount = 0;
+    }
+
+
+    /**
+     * Writes the sketch so that readFrom can restore it. Only buckets
+     * holding values are written.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+
+        int used = 0;
+
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+
+            if (mBuckets[i] != 0)
+                ++used;
+        }
+
+        out.writeInt(VERSION);
+        out.writeInt(used);
+
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+
+            if (mBuckets[i] != 0) {
+
+                out.writeShort(i);
+                out.writeInt(mBuckets[i]);
+            }
+        }
+    }
+
+
+    /**
+     * Replaces the values of the sketch with those written by writeTo.
+     * @throws IOException if the data was not written by this version
+     */
+    public void readFrom(DataInput in) throws IOException {
+
+        clear();
+
+        if (in.readInt() != VERSION)
+            throw new IOException("Unknown sketch version");
+
+        int used = in.readInt();
+
+        for (int n = 0; n < used; ++n) {
+
+            int bucket = in.readShort();
+            int count = in.readInt();
+
+            if (bucket < 0 || bucket >= BUCKET_COUNT || count < 0) {
+
+                clear();
+                throw new IOException("Corrupt sketch");
+            }
+
+            mBuckets[bucket] += count;
+            mCount += count;
+        }
+    }
+
+
+
+
+    // PRIVATE METHODS -----------------------------------------
+
+    private static int getBucket(long valueMs){
+
+        if (valueMs <= MIN_VALUE_MS)
+            return 0;
+
+        if (valueMs >= MAX_VALUE_MS)
+            return BUCKET_COUNT - 1;
+
+        return Math.min(BUCKET_COUNT - 1, (int) Math.ceil(Math.log((double) valueMs / MIN_VALUE_MS) / LOG_GAMMA));
+    }
+
+
+    /*
+     * Returns the value that is within the relative accuracy of
+     * every value in the bucket.
+     */
+    private static long getValue(int bucket){
+
+        if (bucket == 0)
+            return MIN_VALUE_MS;
+
+        return Math.round(MIN_VALUE_MS * Math.pow(GAMMA, bucket) * 2 / (1 + GAMMA));
+    }
+}
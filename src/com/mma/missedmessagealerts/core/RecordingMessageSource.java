@@ -0,0 +1,63 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+/**
+ * Passes queries through to a message source and records each result
+ * in an event trace, so that a replay can answer them the same way.
+ *
+ * @author Michael R. Falcone
+ */
+public class RecordingMessageSource implements MessageSource {
+
+    private MessageSource mSource;
+    private int mSourceIndex;
+    private EventTraceWriter mWriter;
+
+
+    /**
+     * Constructs a new RecordingMessageSource.
+     * @param source the message source queried
+     * @param sourceIndex a DetectionStateMachine SOURCE constant identifying the source
+     * @param writer trace the results are recorded in
+     */
+    public RecordingMessageSource(MessageSource source, int sourceIndex, EventTraceWriter writer){
+
+        mSource = source;
+        mSourceIndex = sourceIndex;
+        mWriter = writer;
+    }
+
+
+    @Override
+    public int countUnread() {
+
+        int count;
+
+        try {
+            count = mSource.countUnread();
+        } catch (RuntimeException e) {
+
+            mWriter.record(EventTrace.TYPE_QUERY, EventTrace.packQuery(mSourceIndex, EventTrace.QUERY_FAILED));
+            throw e;
+        }
+
+        mWriter.record(EventTrace.TYPE_QUERY, EventTrace.packQuery(mSourceIndex, count));
+
+        return count;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+/**
+ * Counts the calls from each number within a sliding time window, to tell
+ * when the same number calls again soon after, which is usually urgent.
+ * Numbers are tracked in a fixed table of CAPACITY entries, each keeping
+ * the times of its last MAX_CALLS calls, so memory stays bounded however
+ * many numbers call. When the table is full, the number that called least
+ * recently is evicted.
+ *
+ * @author Michael R. Falcone
+ */
+public class RepeatCallers {
+
+
+    /**
+     * Largest number of numbers tracked.
+     */
+    public static final int CAPACITY = 32;
+
+    /**
+     * Largest number of calls counted per number.
+     */
+    public static final int MAX_CALLS = 4;
+
+
+
+    // MEMBER VARIABLES -----------------------------------------
+
+    private final long mWindowMs;
+
+    private final long[] mKeys = new long[CAPACITY];
+    private final long[] mLatest = new long[CAPACITY];    // 0 if the entry is free
+
+    // ring of the last call times of each entry, starting at mNext
+    private final long[] mTimes = new long[CAPACITY * MAX_CALLS];
+    private final int[] mNext = new int[CAPACITY];
+
+    private long mEvictionCount = 0;
+
+
+
+
+    // CONSTRUCTOR -----------------------------------------
+
+    /**
+     * Constructs a new RepeatCallers.
+     * @param windowMs time within which calls from a number are counted together
+     */
+    public RepeatCallers(long windowMs){
+
+        mWindowMs = windowMs;
+    }
+
+
+
+
+    // PUBLIC METHODS -----------------------------------------
+
+    /**
+     * Records a call and returns the number of calls from the number within
+     * the window up to it, including it, at most MAX_CALLS. Allocates nothing.
+     */
+    public synchronized int record(CharSequence number, long timeMs){
+
+        long key = PhoneNumbers.hash(number);
+        int entry = -1;
+        int oldest = 0;
+
+        for (int i = 0; i < CAPACITY; ++i) {
+
+            if (mLatest[i] != 0 && mKeys[i] == key) {
+
+                entry = i;
+                break;
+            }
+
+            if (mLatest[i] < mLatest[oldest])
+                oldest = i;
+        }
+
+        if (entry < 0) {
+
+            entry = oldest;
+
+            if (mLatest[entry] != 0 && timeMs - mLatest[entry] < mWindowMs)
+                ++mEvictionCount;
+
+            mKeys[entry] = key;
+            mNext[entry] = 0;
+
+            for (int i = 0; i < MAX_CALLS; ++i)
+                mTimes[entry * MAX_CALLS + i] = Long.MIN_VALUE;
+        }
+
+        mTimes[entry * MAX_CALLS + mNext[entry]] = timeMs;
+        mNext[entry] = (mNext[entry] + 1) % MAX_CALLS;
+        mLatest[entry] = Math.max(mLatest[entry], Math.max(timeMs, 1));
+
+        int count = 0;
+
+        for (int i = 0; i < MAX_CALLS; ++i) {
+
+            long time = mTimes[entry * MAX_CALLS + i];
+
+            if (time != Long.MIN_VALUE && time <= timeMs && timeMs - time < mWindowMs)
+                ++count;
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Returns the time of the latest call recorded from the number, or 0 if
+     * the number is not tracked.
+     */
+    public synchronized long getLatest(CharSequence number){
+
+        long key = PhoneNumbers.hash(number);
+
+        for (int i = 0; i < CAPACITY; ++i) {
+
+            if (mLatest[i] != 0 && mKeys[i] == key)
+                return mLatest[i];
+        }
+
+        return 0;
+    }
+
+
+    /**
+     * Returns the time within which calls from a number are counted together.
+     */
+    public long getWindowMs(){
+
+        return mWindowMs;
+    }
+
+
+    /**
+     * Returns the number of entries evicted while their calls were still within the window.
+     */
+    public synchronized long getEvictionCount(){
+
+        return mEvictionCount;
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+/**
+ * Per-sender alert policy. Rules are compiled into a trie over the digits
+ * of the sender's number, so a lookup walks the number once no matter how
+ * many rules there are. Formatting characters are skipped, but numbers are
+ * otherwise compared as received, so a rule for "+1 555" does not match
+ * a sender given as "555".
+ *
+ * A number matches, in order of precedence, an exact rule for the whole
+ * number, then the longest short code rule if the number is a short code,
+ * then the longest prefix rule. Senders with letters in their id, as
+ * marketing senders often use, only match a short code rule without digits.
+ *
+ * Rules are written one per line as an action followed by a pattern:
+ * <pre>
+ *   always +1 555 010 2030     alert for this number even when disabled or quiet
+ *   ignore #                   never alert for short codes
+ *   missed_call +1555*         alert with the missed call profile for this prefix
+ * </pre>
+ * Patterns ending in '*' are prefixes and patterns starting with '#' are
+ * short codes, optionally followed by their leading digits.
+ *
+ * @author Michael R. Falcone
+ */
+public class SenderRules {
+
+
+    /**
+     * No rule matches, alert as usual.
+     */
+    public static final int ACTION_NONE = 0;
+
+    /**
+     * Always alert, even if the channel is disabled or in its quiet hours.
+     */
+    public static final int ACTION_ALWAYS_ALERT = 1;
+
+    /**
+     * Never alert.
+     */
+    public static final int ACTION_IGNORE = 2;
+
+    /**
+     * Alert with the profile of another channel.
+     */
+    public static final int ACTION_USE_PROFILE = 3;
+
+
+    /**
+     * Matches the whole number.
+     */
+    public static final int MATCH_EXACT = 0;
+
+    /**
+     * Matches numbers that start with the pattern.
+     */
+    public static final int MATCH_PREFIX = 1;
+
+    /**
+     * Matches short codes that start with the pattern.
+     */
+    public static final int MATCH_SHORT_CODE = 2;
+
+
+    /**
+     * Largest number of digits of a short code.
+     */
+    public static final int SHORT_CODE_MAX_DIGITS = 6;
+
+
+
+    // MEMBER VARIABLES -----------------------------------------
+
+    private static final String[] ACTION_NAMES = {"always", "ignore"};
+
+    private static final int INITIAL_NODES = 16;
+
+    // node n's child for digit d is mChildren[n * 10 + d], 0 if none since
+    //  the root at node 0 is never a child
+    private int[] mChildren = new int[INITIAL_NODES * 10];
+
+    // policy of the rule ending at each node, ACTION_NONE if none
+    private int[] mExact = new int[INITIAL_NODES];
+    private int[] mPrefix = new int[INITIAL_NODES];
+    private int[] mShortCode = new int[INITIAL_NODES];
+
+    private int mNodeCount = 1;
+    private int mRuleCount = 0;
+
+
+
+
+    // PUBLIC METHODS -----------------------------------------
+
+    /**
+     * Compiles the rules written one per line. Lines that are not
+     * valid rules are skipped.
+     */
+    public static SenderRules parse(String text){
+
+        SenderRules rules = new SenderRules();
+
+        if (text == null)
+            return rules;
+
+        for (String line : text.split("\n")) {
+
+            line = line.trim();
+            int space = line.indexOf(' ');
+
+            if (space < 0)
+                continue;
+
+            String action_name = line.substring(0, space);
+            String pattern = line.substring(space + 1).trim();
+
+            int policy = parsePolicy(action_name);
+
+            if (policy == ACTION_NONE)
+                continue;
+
+            int match = MATCH_EXACT;
+
+            if (pattern.startsWith("#")) {
+
+                match = MATCH_SHORT_CODE;
+                pattern = pattern.substring(1);
+            }
+            else if (pattern.endsWith("*")) {
+
+                match = MATCH_PREFIX;
+                pattern = pattern.substring(0, pattern.length() - 1);
+            }
+
+            try {
+                rules.add(match, pattern, getAction(policy), getProfileChannel(policy));
+            } catch (IllegalArgumentException e) {
+                // no digits to match, skip the line
+            }
+        }
+
+        return rules;
+    }
+
+
+    /**
+     * Adds a rule. A rule with the same match and pattern as an earlier one
+     * replaces it. Rules must not be added while other threads match.
+     * @param match one of the MATCH constants
+     * @param pattern digits of the number, formatting characters are skipped
+     * @param action one of the ACTION constants other than ACTION_NONE
+     * @param profileChannel channel whose profile is used with ACTION_USE_PROFILE
+     * @throws IllegalArgumentException if an exact or prefix pattern has no digits
+     */
+    public void add(int match, String pattern, int action, int profileChannel){
+
+        int node = 0;
+        int digits = 0;
+
+        for (int i = 0; i < pattern.length(); ++i) {
+
+            int digit = pattern.charAt(i) - '0';
+
+            if (digit < 0 || digit > 9)
+                continue;
+
+            int child = mChildren[node * 10 + digit];
+
+            if (child == 0) {
+
+                child = newNode();
+                mChildren[node * 10 + digit] = child;
+            }
+
+            node = child;
+            ++digits;
+        }
+
+        if (digits == 0 && match != MATCH_SHORT_CODE)
+            throw new IllegalArgumentException("No digits in pattern: " + pattern);
+
+        int policy = toPolicy(action, profileChannel);
+
+        switch (match) {
+            case MATCH_EXACT:
+                mExact[node] = policy;
+                break;
+            case MATCH_PREFIX:
+                mPrefix[node] = policy;
+                break;
+            default:
+                mShortCode[node] = policy;
+                break;
+        }
+
+        ++mRuleCount;
+    }
+
+
+    /**
+     * Returns the policy of the rule the number matches, or ACTION_NONE.
+     * The action and profile channel are read from the policy with getAction
+     * and getProfileChannel. Allocates nothing.
+     */
+    public int match(CharSequence number){
+
+        if (number == null)
+            return ACTION_NONE;
+
+        int node = 0;
+        int digits = 0;
+        int prefix = mPrefix[0];
+        int short_code = mShortCode[0];
+
+        for (int i = 0; i < number.length(); ++i) {
+
+            char c = number.charAt(i);
+
+            if (c >= '0' && c <= '9') {
+
+                ++digits;
+
+                if (node < 0)
+                    continue;
+
+                node = mChildren[node * 10 + (c - '0')];
+
+                if (node == 0) {
+
+                    node = -1;
+                    continue;
+                }
+
+                if (mPrefix[node] != ACTION_NONE)
+                    prefix = mPrefix[node];
+
+                if (mShortCode[node] != ACTION_NONE)
+                    short_code = mShortCode[node];
+            }
+            else if (Character.isLetter(c))
+                return mShortCode[0];
+        }
+
+        if (digits == 0)
+            return ACTION_NONE;
+
+        if (node > 0 && mExact[node] != ACTION_NONE)
+            return mExact[node];
+
+        if (digits <= SHORT_CODE_MAX_DIGITS && short_code != ACTION_NONE)
+            return short_code;
+
+        return prefix;
+    }
+
+
+    /**
+     * Returns the policy named by "always", "ignore" or a channel name
+     * to alert with that channel's profile, or ACTION_NONE for other names.
+     */
+    public static int parsePolicy(String name){
+
+        for (int i = 0; i < ACTION_NAMES.length; ++i) {
+
+            if (ACTION_NAMES[i].equals(name))
+                return ACTION_ALWAYS_ALERT + i;
+        }
+
+        for (int channel = 0; channel < Channels.COUNT; ++channel) {
+
+            if (Channels.NAMES[channel].equals(name))
+                return toPolicy(ACTION_USE_PROFILE, channel);
+        }
+
+        return ACTION_NONE;
+    }
+
+
+    /**
+     * Returns the policy of the action, with the profile channel
+     * if the action is ACTION_USE_PROFILE.
+     */
+    public static int toPolicy(int action, int profileChannel){
+
+        return action | ((action == ACTION_USE_PROFILE ? profileChannel + 1 : 0) << 4);
+    }
+
+
+    /**
+     * Returns the ACTION constant of a policy returned by match.
+     */
+    public static int getAction(int policy){
+
+        return policy & 0xF;
+    }
+
+
+    /**
+     * Returns the channel whose profile a policy returned by match alerts
+     * with, or -1 if its action is not ACTION_USE_PROFILE.
+     */
+    public static int getProfileChannel(int policy){
+
+        return (policy >> 4) - 1;
+    }
+
+
+    /**
+     * Returns the stronger of two policies. Always alerting is strongest,
+     * otherwise the first policy wins unless it is ACTION_NONE.
+     */
+    public static int strongest(int policy, int other){
+
+        if (getAction(other) == ACTION_ALWAYS_ALERT)
+            return other;
+
+        return policy != ACTION_NONE ? policy : other;
+    }
+
+
+    /**
+     * Returns whether any rule always alerts for the numbers it matches.
+     */
+    public boolean hasAlwaysAlert(){
+
+        for (int node = 0; node < mNodeCount; ++node) {
+
+            if (getAction(mExact[node]) == ACTION_ALWAYS_ALERT
+                    || getAction(mPrefix[node]) == ACTION_ALWAYS_ALERT
+                    || getAction(mShortCode[node]) == ACTION_ALWAYS_ALERT)
+                return true;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Returns the number of rules added.
+     */
+    public int getRuleCount(){
+
+        return mRuleCount;
+    }
+
+
+    /**
+     * Returns the number of trie nodes, including the root.
+     */
+    public int getNodeCount(){
+
+        return mNodeCount;
+    }
+
+
+
+
+    // PRIVATE METHODS -----------------------------------------
+
+    private int newNode(){
+
+        if (mNodeCount == mExact.length) {
+
+            int capacity = mNodeCount * 2;
+            mChildren = copyOf(mChildren, capacity * 10);
+            mExact = copyOf(mExact, capacity);
+            mPrefix = copyOf(mPrefix, capacity);
+            mShortCode = copyOf(mShortCode, capacity);
+        }
+
+        return mNodeCount++;
+    }
+
+
+    private static int[] copyOf(int[] array, int length){
+
+        // Arrays.copyOf is not available before API 9
+        int[] copy = new int[length];
+        System.arraycopy(array, 0, copy, 0, array.length);
+        return copy;
+    }
+}
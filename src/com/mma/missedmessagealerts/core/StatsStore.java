@@ -0,0 +1,332 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Long-term alerting statistics kept in a memory-mapped file of counters,
+ * bucketed by local day and hour. The file has a fixed layout: a header
+ * followed by one block per day of the last DAYS days, used in rotation.
+ * Each block starts with the day it holds and then has STAT_COUNT counters
+ * for each hour.
+ *
+ * Counters are updated with plain stores into the mapping, so they are in
+ * the page cache as soon as they are written and survive the process being
+ * killed. Only flush forces them to storage. The store is not thread safe
+ * and is meant to be updated from the main thread.
+ *
+ * @author Michael R. Falcone
+ */
+public class StatsStore {
+
+
+    // STATISTICS -----------------------------------------
+
+    /**
+     * Alerts given, one counter per channel starting here.
+     */
+    public static final int STAT_ALERTS = 0;
+
+    /**
+     * Alerts acknowledged by the user, one counter per channel starting here.
+     */
+    public static final int STAT_ACKS = STAT_ALERTS + Channels.COUNT;
+
+    /**
+     * Total time in milliseconds from the first alert to acknowledgement,
+     * one counter per channel starting here.
+     */
+    public static final int STAT_ACK_LATENCY_MS = STAT_ACKS + Channels.COUNT;
+
+    /**
+     * Total time in milliseconds that wake locks were held.
+     */
+    public static final int STAT_WAKELOCK_MS = STAT_ACK_LATENCY_MS + Channels.COUNT;
+
+    /**
+     * Provider queries made to detect and confirm messages.
+     */
+    public static final int STAT_QUERIES = STAT_WAKELOCK_MS + 1;
+
+    /**
+     * Number of counters per hour.
+     */
+    public static final int STAT_COUNT = STAT_QUERIES + 1;
+
+    /**
+     * Number of days kept.
+     */
+    public static final int DAYS = 42;
+
+    public static final int HOURS_PER_DAY = 24;
+
+
+
+    // MEMBER VARIABLES -----------------------------------------
+
+    private static final int MAGIC = 0x4D4D5353;   // "MMSS"
+    // version 1 counted acknowledgements of messages that never raised an
+    //  alert, which must not reach AdaptiveIntervals, so such files are reset
+    private static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int HOUR_SIZE = STAT_COUNT * 8;
+    private static final int BLOCK_SIZE = 8 + HOURS_PER_DAY * HOUR_SIZE;
+    private static final int FILE_SIZE = HEADER_SIZE + DAYS * BLOCK_SIZE;
+
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+    private static final long DAY_MS = HOURS_PER_DAY * HOUR_MS;
+
+    private static final String[] STAT_NAMES = {"alerts_text", "alerts_missed_call", "alerts_voice_mail",
+            "acks_text", "acks_missed_call", "acks_voice_mail",
+            "ack_ms_text", "ack_ms_missed_call", "ack_ms_voice_mail",
+            "wakelock_ms", "queries"};
+
+
+    private final Clock mClock;
+    private final MappedByteBuffer mBuffer;
+
+    private long mHourStart = Long.MAX_VALUE;     // the hour that mHourOffset points to, in UTC
+    private long mHourEnd = Long.MIN_VALUE;
+    private int mHourOffset;
+
+
+
+
+    // CONSTRUCTOR -----------------------------------------
+
+    private StatsStore(Clock clock, MappedByteBuffer buffer){
+
+        mClock = clock;
+        mBuffer = buffer;
+    }
+
+
+
+
+    // PUBLIC METHODS -----------------------------------------
+
+    /**
+     * Maps the statistics file, creating it or clearing it if it does not
+     * have the expected layout.
+     */
+    public static StatsStore open(File file, Clock clock) throws IOException {
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+        try {
+            boolean valid = raf.length() == FILE_SIZE;
+
+            if (!valid)
+                raf.setLength(FILE_SIZE);
+
+            // the mapping stays valid after the file is closed
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (!valid || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != DAYS
+                    || buffer.getInt(12) != STAT_COUNT) {
+
+                for (int i = 0; i < FILE_SIZE; i += 8)
+                    buffer.putLong(i, 0);
+
+                for (int day = 0; day < DAYS; ++day)
+                    buffer.putLong(HEADER_SIZE + day * BLOCK_SIZE, -1);
+
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, DAYS);
+                buffer.putInt(12, STAT_COUNT);
+                buffer.putInt(0, MAGIC);
+            }
+
+            return new StatsStore(clock, buffer);
+        } finally {
+            raf.close();
+        }
+    }
+
+
+    /**
+     * Adds to a counter of the current hour.
+     * @param stat one of the STAT constants
+     */
+    public void add(int stat, long amount){
+
+        int index = getHourOffset(mClock.currentTimeMillis()) + stat * 8;
+
+        mBuffer.putLong(index, mBuffer.getLong(index) + amount);
+    }
+
+
+    /**
+     * Adds to a per-channel counter of the current hour.
+     * @param stat one of the per-channel STAT constants
+     */
+    public void add(int stat, int channel, long amount){
+
+        add(stat + channel, amount);
+    }
+
+
+    /**
+     * Returns a counter of an hour of a local day, or 0 if the day is
+     * not kept.
+     * @param day local day as the number of days since the epoch
+     */
+    public long get(long day, int hour, int stat){
+
+        int block = getBlockOffset(day);
+
+        if (mBuffer.getLong(block) != day)
+            return 0;
+
+        return mBuffer.getLong(block + 8 + hour * HOUR_SIZE + stat * 8);
+    }
+
+
+    /**
+     * Returns the local day, as the number of days since the epoch, at the given time.
+     */
+    public long getDay(long timeMs){
+
+        return floorDiv(timeMs + mClock.getTimeZoneOffset(timeMs), DAY_MS);
+    }
+
+
+    /**
+     * Writes a line for every hour with any counts, oldest first, preceded
+     * by a header line naming the columns. Days are written as local dates.
+     */
+    public void exportCsv(Writer writer) throws IOException {
+
+        writer.write("date,hour");
+
+        for (int stat = 0; stat < STAT_COUNT; ++stat)
+            writer.write("," + STAT_NAMES[stat]);
+
+        writer.write('\n');
+
+        SimpleDateFormat date_format = new SimpleDateFormat("yyyy-MM-dd");
+        date_format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        long today = getDay(mClock.currentTimeMillis());
+
+        for (long day = today - DAYS + 1; day <= today; ++day) {
+
+            int block = getBlockOffset(day);
+
+            if (mBuffer.getLong(block) != day)
+                continue;
+
+            String date = date_format.format(new Date(day * DAY_MS));
+
+            for (int hour = 0; hour < HOURS_PER_DAY; ++hour) {
+
+                int offset = block + 8 + hour * HOUR_SIZE;
+                boolean empty = true;
+
+                for (int stat = 0; stat < STAT_COUNT && empty; ++stat)
+                    empty = mBuffer.getLong(offset + stat * 8) == 0;
+
+                if (empty)
+                    continue;
+
+                StringBuilder line = new StringBuilder();
+                line.append(date).append(',').append(hour);
+
+                for (int stat = 0; stat < STAT_COUNT; ++stat)
+                    line.append(',').append(mBuffer.getLong(offset + stat * 8));
+
+                line.append('\n');
+                writer.write(line.toString());
+            }
+        }
+
+        writer.flush();
+    }
+
+
+    /**
+     * Forces the counters to storage so that they also survive the device
+     * losing power.
+     */
+    public void flush(){
+
+        mBuffer.force();
+    }
+
+
+
+
+    // PRIVATE METHODS -----------------------------------------
+
+    /*
+     * Returns the offset of the counters of the hour holding the time. The
+     * offset is cached for the rest of the hour, so the time zone is only
+     * looked up when the hour changes.
+     */
+    private int getHourOffset(long now){
+
+        if (now >= mHourStart && now < mHourEnd)
+            return mHourOffset;
+
+        long local = now + mClock.getTimeZoneOffset(now);
+        long day = floorDiv(local, DAY_MS);
+        int hour = (int) ((local - day * DAY_MS) / HOUR_MS);
+
+        int block = getBlockOffset(day);
+
+        // the block last held a day that has rotated out
+        if (mBuffer.getLong(block) != day) {
+
+            for (int i = 8; i < BLOCK_SIZE; i += 8)
+                mBuffer.putLong(block + i, 0);
+
+            mBuffer.putLong(block, day);
+        }
+
+        mHourStart = now - (local - day * DAY_MS - hour * HOUR_MS);
+        mHourEnd = mHourStart + HOUR_MS;
+        mHourOffset = block + 8 + hour * HOUR_SIZE;
+
+        return mHourOffset;
+    }
+
+
+    private static int getBlockOffset(long day){
+
+        return HEADER_SIZE + (int) (((day % DAYS) + DAYS) % DAYS) * BLOCK_SIZE;
+    }
+
+
+    private static long floorDiv(long value, long divisor){
+
+        long quotient = value / divisor;
+
+        return value % divisor < 0 ? quotient - 1 : quotient;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+/**
+ * Marks named sections of work for a system trace. Sections are nested on
+ * the calling thread and must be ended on the thread that began them, while
+ * async sections may span threads and are matched by name and cookie.
+ * Section names should be constants so that tracing allocates nothing.
+ *
+ * @author Michael R. Falcone
+ */
+public interface Tracer {
+
+    /**
+     * A tracer that records nothing.
+     */
+    Tracer NONE = new Tracer() {
+
+        @Override
+        public void beginSection(String name){
+        }
+
+        @Override
+        public void endSection(){
+        }
+
+        @Override
+        public void beginAsyncSection(String name, int cookie){
+        }
+
+        @Override
+        public void endAsyncSection(String name, int cookie){
+        }
+    };
+
+
+    /**
+     * Begins a section on the calling thread.
+     */
+    void beginSection(String name);
+
+    /**
+     * Ends the most recently begun section on the calling thread.
+     */
+    void endSection();
+
+    /**
+     * Begins a section that may end on another thread.
+     * @param cookie distinguishes concurrent sections of the same name
+     */
+    void beginAsyncSection(String name, int cookie);
+
+    /**
+     * Ends the async section begun with the same name and cookie.
+     */
+    void endAsyncSection(String name, int cookie);
+}
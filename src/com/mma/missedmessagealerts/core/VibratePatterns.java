@@ -0,0 +1,263 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The vibrate styles that the user can choose from, indexed by the
+ * values of the vibrate style preference, and the custom patterns the
+ * user writes as comma separated terms such as "300 on, 60 off, 120 on x3".
+ * A term is a time in milliseconds followed by on or off, and an on term
+ * may end in xN to vibrate N times with the preceding off time between.
+ *
+ * @author Michael R. Falcone
+ */
+public final class VibratePatterns {
+
+    /**
+     * Value of the vibrate style preference for a custom pattern.
+     */
+    public static final String STYLE_CUSTOM = "custom";
+
+    private static final long START_MS = 5;              // off time before a pattern that starts vibrating
+    private static final long DEFAULT_GAP_MS = 60;       // off time between repeats with no off term before
+    private static final long MAX_TERM_MS = 5000;
+    private static final long MAX_TOTAL_MS = 30000;
+    private static final int MAX_REPEAT = 10;
+    private static final int MAX_TIMINGS = 64;
+    private static final int MAX_CACHED = 8;
+
+    /**
+     * Vibrate patterns by style: two short vibrations, one long vibration,
+     * two long vibrations, three medium vibrations, long short long.
+     */
+    private static final long[][] STYLES = {
+            {5, 120, 60, 120},
+            {5, 800},
+            {5, 260, 100, 260},
+            {5, 100, 20, 100, 20, 100},
+            {5, 300, 60, 120, 60, 300}
+    };
+
+
+    /**
+     * Custom patterns compiled from their text, least recently used first.
+     */
+    private static final Map<String, long[]> sCompiled = new LinkedHashMap<String, long[]>(MAX_CACHED, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+
+
+    private VibratePatterns(){
+    }
+
+
+    /**
+     * Returns the number of vibrate styles.
+     */
+    public static int getStyleCount(){
+
+        return STYLES.length;
+    }
+
+
+    /**
+     * Returns the pattern of the style. Patterns are shared, so they
+     * must not be modified.
+     * @param style index of the style, unknown styles use the first one
+     */
+    public static long[] forStyle(int style){
+
+        if (style < 0 || style >= STYLES.length)
+            return STYLES[0];
+
+        return STYLES[style];
+    }
+
+
+    /**
+     * Returns the pattern of the style as stored in the preferences.
+     */
+    public static long[] forStyle(String style){
+
+        try {
+            return forStyle(Integer.parseInt(style));
+        } catch (NumberFormatException e) {
+            return STYLES[0];
+        }
+    }
+
+
+    /**
+     * Returns the pattern of the style as stored in the preferences, or the
+     * compiled custom pattern if the style is STYLE_CUSTOM. An invalid custom
+     * pattern uses the first style.
+     */
+    public static long[] forStyle(String style, String customPattern){
+
+        if (!STYLE_CUSTOM.equals(style))
+            return forStyle(style);
+
+        try {
+            return getCompiled(customPattern);
+        } catch (IllegalArgumentException e) {
+            return STYLES[0];
+        }
+    }
+
+
+    /**
+     * Returns the custom pattern compiled from the text, compiling it only
+     * if it is not cached. Patterns are shared, so they must not be modified.
+     * @throws IllegalArgumentException if the text is not a valid pattern
+     */
+    public static long[] getCompiled(String text){
+
+        synchronized (sCompiled) {
+
+            long[] pattern = sCompiled.get(text);
+
+            if (pattern == null) {
+
+                pattern = compile(text);
+                sCompiled.put(text, pattern);
+            }
+
+            return pattern;
+        }
+    }
+
+
+    /**
+     * Compiles the custom pattern into the off and on timings passed to the vibrator.
+     * @throws IllegalArgumentException naming the first term that is not valid
+     */
+    public static long[] compile(String text){
+
+        if (text == null || text.trim().length() == 0)
+            throw new IllegalArgumentException("Empty pattern");
+
+        long[] timings = new long[MAX_TIMINGS];
+        int count = 1;              // timings alternate off and on, starting with off
+        long gap_ms = DEFAULT_GAP_MS;
+        long total_ms = 0;
+
+        for (String term : text.split(",")) {
+
+            String[] words = term.trim().split("\\s+");
+
+            if (words.length < 2 || words.length > 3)
+                throw new IllegalArgumentException("Not a term: " + term.trim());
+
+            long ms = parseNumber(words[0], MAX_TERM_MS, term);
+            boolean on;
+
+            if (words[1].equalsIgnoreCase("on"))
+                on = true;
+            else if (words[1].equalsIgnoreCase("off"))
+                on = false;
+            else
+                throw new IllegalArgumentException("Expected on or off: " + term.trim());
+
+            int repeat = 1;
+
+            if (words.length == 3) {
+
+                if (!on || words[2].length() < 2 || Character.toLowerCase(words[2].charAt(0)) != 'x')
+                    throw new IllegalArgumentException("Not a repeat: " + term.trim());
+
+                repeat = (int) parseNumber(words[2].substring(1), MAX_REPEAT, term);
+            }
+
+            if (!on)
+                gap_ms = ms;
+
+            for (int i = 0; i < repeat; ++i) {
+
+                if (i > 0) {
+
+                    count = append(timings, count, false, gap_ms, term);
+                    total_ms += gap_ms;
+                }
+
+                count = append(timings, count, on, ms, term);
+                total_ms += ms;
+            }
+
+            if (total_ms > MAX_TOTAL_MS)
+                throw new IllegalArgumentException("Pattern longer than " + MAX_TOTAL_MS + " ms");
+        }
+
+        if (count < 2)
+            throw new IllegalArgumentException("No vibration in pattern");
+
+        if (timings[0] == 0)
+            timings[0] = START_MS;
+
+        long[] pattern = new long[count];
+        System.arraycopy(timings, 0, pattern, 0, count);
+
+        return pattern;
+    }
+
+
+
+    /*
+     * Adds the time to the last timing if it is in the same state, otherwise
+     * as a new timing. Returns the new number of timings.
+     */
+    private static int append(long[] timings, int count, boolean on, long ms, String term){
+
+        boolean last_on = (count - 1) % 2 == 1;
+
+        if (last_on == on) {
+
+            timings[count - 1] += ms;
+            return count;
+        }
+
+        if (count == timings.length)
+            throw new IllegalArgumentException("Too many terms at: " + term.trim());
+
+        timings[count] = ms;
+
+        return count + 1;
+    }
+
+
+    private static long parseNumber(String word, long max, String term){
+
+        long value;
+
+        try {
+            value = Long.parseLong(word);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + term.trim());
+        }
+
+        if (value < 1 || value > max)
+            throw new IllegalArgumentException("Out of range 1-" + max + ": " + term.trim());
+
+        return value;
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.core;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * A clock and scheduler whose time only moves when it is advanced. Tasks
+ * run in order of their due time, and in order of posting when due at the
+ * same time, so the alert core can be run deterministically off device.
+ *
+ * @author Michael R. Falcone
+ */
+public class VirtualTimeScheduler implements Clock, Scheduler {
+
+
+    private static final class Task implements Comparable<Task> {
+
+        final long mDueTime;
+        final long mSequence;
+        final Runnable mRunnable;
+
+        Task(long dueTime, long sequence, Runnable runnable){
+
+            mDueTime = dueTime;
+            mSequence = sequence;
+            mRunnable = runnable;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+
+            if (mDueTime != other.mDueTime)
+                return mDueTime < other.mDueTime ? -1 : 1;
+
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+
+
+
+    // MEMBER VARIABLES -----------------------------------------
+
+    private PriorityQueue<Task> mTasks = new PriorityQueue<Task>();
+
+    private long mNow;
+    private long mSequence = 0;
+    private int mTimeZoneOffset;
+    private long mTasksRun = 0;
+
+
+
+
+    // CONSTRUCTOR -----------------------------------------
+
+    /**
+     * Constructs a new VirtualTimeScheduler.
+     * @param startTimeMs initial time in milliseconds since the epoch
+     * @param timeZoneOffsetMs offset of local time from UTC
+     */
+    public VirtualTimeScheduler(long startTimeMs, int timeZoneOffsetMs){
+
+        mNow = startTimeMs;
+        mTimeZoneOffset = timeZoneOffsetMs;
+    }
+
+
+
+
+    // PUBLIC METHODS -----------------------------------------
+
+    @Override
+    public long currentTimeMillis() {
+
+        return mNow;
+    }
+
+
+    @Override
+    public int getTimeZoneOffset(long timeMs) {
+
+        return mTimeZoneOffset;
+    }
+
+
+    @Override
+    public void postDelayed(Runnable runnable, long delayMs) {
+
+        mTasks.add(new Task(mNow + Math.max(0, delayMs), mSequence++, runnable));
+    }
+
+
+    @Override
+    public void removeCallbacks(Runnable runnable) {
+
+        for (Iterator<Task> it = mTasks.iterator(); it.hasNext(); ) {
+
+            if (it.next().mRunnable == runnable)
+                it.remove();
+        }
+    }
+
+
+    /**
+     * Advances time by the given amount, running every task that comes due.
+     */
+    public void advanceBy(long ms){
+
+        advanceTo(mNow + ms);
+    }
+
+
+    /**
+     * Advances time to the given time, running every task that comes due.
+     * Tasks posted by running tasks also run if they come due in time.
+     */
+    public void advanceTo(long timeMs){
+
+        while (!mTasks.isEmpty() && mTasks.peek().mDueTime <= timeMs)
+            runNext();
+
+        if (timeMs > mNow)
+            mNow = timeMs;
+    }
+
+
+    /**
+     * Runs tasks until none remain or the time limit is reached.
+     * @param limitMs time after which no more tasks are run
+     * @return whether no tasks remain
+     */
+    public boolean runUntilIdle(long limitMs){
+
+        while (!mTasks.isEmpty() && mTasks.peek().mDueTime <= limitMs)
+            runNext();
+
+        return mTasks.isEmpty();
+    }
+
+
+    /**
+     * Returns the due time of the next task, or -1 if there are none.
+     */
+    public long getNextDueTime(){
+
+        return mTasks.isEmpty() ? -1 : mTasks.peek().mDueTime;
+    }
+
+
+    /**
+     * Returns the number of tasks waiting to run.
+     */
+    public int getPendingCount(){
+
+        return mTasks.size();
+    }
+
+
+    /**
+     * Returns the number of tasks that have run.
+     */
+    public long getTasksRun(){
+
+        return mTasksRun;
+    }
+
+
+
+
+    // PRIVATE METHODS -----------------------------------------
+
+    private void runNext(){
+
+        Task task = mTasks.poll();
+
+        if (task.mDueTime > mNow)
+            mNow = task.mDueTime;
+
+        ++mTasksRun;
+        task.mRunnable.run();
+    }
+}
@@ -25,7 +25,7 @@ import com.mma.missedmessagealerts.services.MissedMessageListenerService;
 
 /**
  * Receives the power connected broadcast and restarts the listener
- * service in case it was stopped due to low battery.
+ * service in case it was stopped by the system.
  *
  * @author Michael R. Falcone
  */
@@ -34,9 +34,8 @@ public class BatteryPluggedReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
 
-        AppPreferences prefs = new AppPreferences(context);
-
-        if(prefs.getAlertsEnabled())
+        // only the enabled flags are read here to keep the startup path light
+        if(AppPreferences.isAnyAlertEnabled(context))
             context.startService(new Intent(context, MissedMessageListenerService.class));
     }
 }
@@ -34,9 +34,8 @@ public class BootReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
 
-        AppPreferences prefs = new AppPreferences(context);
-
-        if(prefs.getAlertsEnabled())
+        // only the enabled flags are read here to keep the startup path light
+        if(AppPreferences.isAnyAlertEnabled(context))
             context.startService(new Intent(context, MissedMessageListenerService.class));
     }
 }
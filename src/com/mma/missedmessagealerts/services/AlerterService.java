@@ -24,17 +24,33 @@ import android.net.Uri;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.PowerManager;
-import android.os.PowerManager.WakeLock;
+import android.os.SystemClock;
 import android.os.Vibrator;
-import android.util.Log;
 import com.mma.missedmessagealerts.AlertPreferences;
+import com.mma.missedmessagealerts.AppEventLog;
+import com.mma.missedmessagealerts.AppStats;
 import com.mma.missedmessagealerts.AppPreferences;
-
-import java.util.Calendar;
+import com.mma.missedmessagealerts.activities.AcknowledgeActivity;
+import com.mma.missedmessagealerts.core.AdaptiveIntervals;
+import com.mma.missedmessagealerts.core.AlertProfile;
+import com.mma.missedmessagealerts.core.AlertStateMachine;
+import com.mma.missedmessagealerts.core.AudioArbiter;
+import com.mma.missedmessagealerts.core.Channels;
+import com.mma.missedmessagealerts.core.EventLog;
+import com.mma.missedmessagealerts.core.Metrics;
+import com.mma.missedmessagealerts.core.PendingSource;
+import com.mma.missedmessagealerts.core.StatsStore;
+import com.mma.missedmessagealerts.core.VibratePatterns;
+import com.mma.missedmessagealerts.core.WallClock;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 
 /**
  * Alerts the user according the the application's
- * shared preference values specified by the user.
+ * shared preference values specified by the user. When and how to
+ * alert is decided by an AlertStateMachine, this service carries
+ * the alerts out.
  *
  * @author Michael R. Falcone
  */
@@ -56,57 +72,68 @@ public class AlerterService extends Service {
      */
     public static final String STOP_ALERTS = "com.mma.missedmessagealerts.STOP_ALERTS";
 
+    /**
+     * Action that puts off the next alert of every alerting communication type
+     * by SNOOZE_DURATION_MS, stopping any tone that is playing.
+     */
+    public static final String SNOOZE_ALERTS = "com.mma.missedmessagealerts.SNOOZE_ALERTS";
 
     /**
-     * Broadcast by the AlerterService when the service stops alerting.
+     * Time that alerts are put off by the SNOOZE_ALERTS action.
      */
-    public static final String ALERTS_STOPPED = "com.mma.missedmessagealerts.ALERTS_STOPPED";
+    public static final long SNOOZE_DURATION_MS = 5 * 60000;
+
 
     /**
-     * Extra used with AlerterService actions to store the communication type
-     * that the action is for.
+     * Broadcast by the AlerterService when the service stops alerting.
      */
-    public static final String EXTRA_ALERT_FOR = "alertFor";
+    public static final String ALERTS_STOPPED = "com.mma.missedmessagealerts.ALERTS_STOPPED";
 
     /**
-     * Specifies that the action refers to alerts for text messages.
+     * Broadcast by the AlerterService when alerts asked for with START_ALERTS
+     * are not started, because the communication type in the EXTRA_ALERT_FOR
+     * extra is disabled or inside its quiet hours.
      */
-    public static final int ALERT_FOR_TEXT = 0;
+    public static final String ALERTS_DECLINED = "com.mma.missedmessagealerts.ALERTS_DECLINED";
 
     /**
-     * Specifies that the action refers to alerts for missed calls.
+     * Extra used with AlerterService actions to store the communication type
+     * that the action is for.
      */
-    public static final int ALERT_FOR_MISSED_CALL = 1;
+    public static final String EXTRA_ALERT_FOR = "alertFor";
 
     /**
-     * Specifies that the action refers to alerts for voice mail.
+     * Extra used with the START_ALERTS action to store the time in milliseconds
+     * at which the messages were detected, used to measure alert latency.
      */
-    public static final int ALERT_FOR_VOICE_MAIL = 2;
+    public static final String EXTRA_DETECT_TIME = "detectTime";
 
     /**
-     * Vibrate style: two short vibrations
+     * Extra used with the START_ALERTS action, true to alert even if the
+     * communication type is disabled or inside its quiet hours.
      */
-    public static final long[] VIBRATE_PATTERN_0 = {5, 120, 60, 120};
+    public static final String EXTRA_ALWAYS_ALERT = "alwaysAlert";
 
     /**
-     * Vibrate style: one long vibration
+     * Extra used with the START_ALERTS action to store the communication
+     * type whose alert settings are used instead of its own.
      */
-    public static final long[] VIBRATE_PATTERN_1 = {5, 800};
+    public static final String EXTRA_PROFILE_FOR = "profileFor";
 
     /**
-     * Vibrate style: two long vibrations
+     * Specifies that the action refers to alerts for text messages.
      */
-    public static final long[] VIBRATE_PATTERN_2 = {5, 260, 100, 260};
+    public static final int ALERT_FOR_TEXT = Channels.TEXT;
 
     /**
-     * Vibrate style: three medium vibrations
+     * Specifies that the action refers to alerts for missed calls.
      */
-    public static final long[] VIBRATE_PATTERN_3 = {5, 100, 20, 100, 20, 100};
+    public static final int ALERT_FOR_MISSED_CALL = Channels.MISSED_CALL;
 
     /**
-     * Vibrate style: long short long
+     * Specifies that the action refers to alerts for voice mail.
      */
-    public static final long[] VIBRATE_PATTERN_4 = {5, 300, 60, 120, 60, 300};
+    public static final int ALERT_FOR_VOICE_MAIL = Channels.VOICE_MAIL;
 
 
 
@@ -115,12 +142,10 @@ public class AlerterService extends Service {
     // MEMBER VARIABLES -----------------------------------------
 
 
-    private static final String WAKELOCK_TAG = "com.mma.missedmessagealerts.wakelock";
-    private static final String SCREEN_WAKELOCK_TAG = "com.mma.missedmessagealerts.screenwakelock";
-
     private static final long WAKE_DURATION_MS = 1500;
-
-    private static final int INFINITE_DURATION = 0;    // value defined in xml for "Forever" duration
+    private static final long WAKE_LEASE_MARGIN_MS = 5000;     // extra time an audio lease is held past the tone
+    private static final long AUDIO_LEASE_DEFAULT_MS = 10000;  // audio lease when the tone length is unknown
+    private static final long AUDIO_LEASE_MAX_MS = 60000;
 
 
 
@@ -129,23 +154,19 @@ public class AlerterService extends Service {
     private AudioManager mAudioManager;
 
     private PowerManager mPowerManager;
-    private WakeLock mWakeLock;
-    private WakeLock mScreenWakeLock;
-    private int mScreenWakelockFlags = 0;
+    private WakeLockManager mWakeLockManager;
 
     private Vibrator mVibrator;
 
-    private boolean mIsTextAlerting;
-    private boolean mIsMissedCallAlerting;
-    private boolean mIsVoiceMailAlerting;
+    private MediaPlayer mMediaPlayer;    // tone of the channel holding the audio arbiter
+    private VolumeRamp mVolumeRamp = new VolumeRamp();
 
-    private long mTextAlertStartTime;
-    private long mMissedCallAlertStartTime;
-    private long mVoicemailAlertStartTime;
+    private AlertStateMachine mAlerts;
 
-    private MediaPlayer mTextAlertMediaPlayer;
-    private MediaPlayer mMissedCallAlertMediaPlayer;
-    private MediaPlayer mVoiceMailAlertMediaPlayer;
+    private Metrics mMetrics = new Metrics();
+    private Metrics.Histogram mAudioPrepareTime;
+    private SystemTracer mTracer = SystemTracer.getInstance();
+    private EventLog mEventLog;
 
 
     private Handler mHandler = new Handler();
@@ -186,143 +207,158 @@ public class AlerterService extends Service {
             if(intent.hasExtra(EXTRA_ALERT_FOR))
                 alert_for = intent.getExtras().getInt(EXTRA_ALERT_FOR);
 
-            if (action.equals(START_ALERTS)){
-
-                switch(alert_for){
-                    case ALERT_FOR_TEXT:
-                        startTextAlerts();
-                        break;
-                    case ALERT_FOR_MISSED_CALL:
-                        startMissedCallAlerts();
-                        break;
-                    case ALERT_FOR_VOICE_MAIL:
-                        startVoiceMailAlerts();
-                        break;
-                    default:
-                        startTextAlerts();
-                        startMissedCallAlerts();
-                        startVoiceMailAlerts();
-                        break;
+            mTracer.beginSection("alerter.onReceive.control");
+
+            try {
+                if (action.equals(START_ALERTS)){
+
+                    startAlerts(alert_for, intent);
                 }
-            }
 
-            else if (action.equals(STOP_ALERTS)){
-
-                switch(alert_for){
-                    case ALERT_FOR_TEXT:
-                        stopTextAlerts();
-                        break;
-                    case ALERT_FOR_MISSED_CALL:
-                        stopMissedCallAlerts();
-                        break;
-                    case ALERT_FOR_VOICE_MAIL:
-                        stopVoiceMailAlerts();
-                        break;
-                    default:
+                else if (action.equals(STOP_ALERTS)){
+
+                    if (Channels.isChannel(alert_for))
+                        mAlerts.stopAlerts(alert_for);
+                    else
+                        stopSelf();
+
+                    if(!mAlerts.isAnyAlerting() && alert_for != -1)
                         stopSelf();
                 }
 
-                if(!(mIsTextAlerting || mIsMissedCallAlerting || mIsVoiceMailAlerting) && alert_for != -1)
-                    stopSelf();
+                else if (action.equals(SNOOZE_ALERTS)){
+
+                    mAlerts.snoozeAlerts(SNOOZE_DURATION_MS);
+                }
+            } finally {
+                mTracer.endSection();
             }
         }
     }
 
 
-    // ALERT UPDATE RUNNABLES -----------------------------------------
-    private Runnable mTextAlertRunnable = new Runnable() {
+
+
+    // ALERT CORE CALLBACKS -----------------------------------------
+
+    private PendingSource mPendingSource = new PendingSource() {
 
         @Override
-        public void run() {
+        public boolean isPending(int channel) {
 
-            long duration_seconds = (System.currentTimeMillis() - mTextAlertStartTime);
-            int max_duration = Integer.parseInt(mPreferences.getTextAlertPreferences().getDuration()) * 1000;
-            int interval = Integer.parseInt(mPreferences.getTextAlertPreferences().getInterval()) * 1000;
+            return mListenerService != null && mListenerService.isPending(channel);
+        }
+    };
 
 
-            if (!mListenerService.isTextPending() || !mPreferences.getAlertsEnabled()
-                    || (duration_seconds >= max_duration && max_duration != INFINITE_DURATION)) {
+    private AlertStateMachine.Settings mAlertSettings = new AlertStateMachine.Settings() {
 
-                mIsTextAlerting = false;
-            }
+        @Override
+        public boolean isAlertsEnabled() {
+            return mPreferences.getAlertsEnabled();
+        }
 
-            if(!(mIsTextAlerting || mIsMissedCallAlerting || mIsVoiceMailAlerting)){
+        @Override
+        public boolean isChannelEnabled(int channel) {
+            return mPreferences.getAlertPreferences(channel).getEnabled();
+        }
 
-                stopSelf();
-                return;
-            }
-            else if(!mIsTextAlerting){
+        @Override
+        public AlertProfile compileProfile(int channel) {
+            return AlerterService.this.compileProfile(mPreferences.getAlertPreferences(channel));
+        }
 
-                return;
-            }
+        @Override
+        public long getCoalesceWindowMs() {
+            return Integer.parseInt(mPreferences.getCoalesceWindow()) * 1000L;
+        }
+
+        @Override
+        public int getPowerTier() {
 
-            alert(mPreferences.getTextAlertPreferences());
+            // the listener service owns the battery governor, sample the
+            //  battery on each alert as it drains through a long session
+            if (mListenerService == null)
+                return AlertProfile.TIER_FULL;
 
-            mHandler.postDelayed(this, interval);
+            return mListenerService.evaluatePowerTier();
         }
     };
 
-    private Runnable mMissedCallAlertRunnable = new Runnable() {
+
+    private AudioArbiter mAudioArbiter = new AudioArbiter(new AudioArbiter.Player() {
 
         @Override
-        public void run() {
+        public void stopTone(int channel) {
 
-            long duration_seconds = (System.currentTimeMillis() - mMissedCallAlertStartTime);
-            int max_duration = Integer.parseInt(mPreferences.getMissedCallAlertPreferences().getDuration()) * 1000;
-            int interval = Integer.parseInt(mPreferences.getMissedCallAlertPreferences().getInterval()) * 1000;
+            stopAlertTone(channel);
+            mWakeLockManager.release(WakeLockManager.OWNER_AUDIO, channel);
+        }
+    });
 
 
-            if (!mListenerService.isMissedCallPending() || !mPreferences.getAlertsEnabled()
-                    || (duration_seconds >= max_duration && max_duration != INFINITE_DURATION)) {
+    private AlertStateMachine.Output mAlertOutput = new AlertStateMachine.Output() {
 
-                mIsMissedCallAlerting = false;
-            }
+        @Override
+        public boolean isUserActive() {
 
-            if(!(mIsTextAlerting || mIsMissedCallAlerting || mIsVoiceMailAlerting)){
+            // if the screen is already on, user is probably interacting with device
+            //  and does not require alerts
+            // TODO do not alert if screen is unlocked
+            return mPowerManager.isScreenOn() && !mWakeLockManager.isScreenHeld();
+        }
 
-                stopSelf();
-                return;
-            }
-            else if(!mIsMissedCallAlerting){
+        @Override
+        public void vibrate(long[] pattern, int channel) {
 
-                return;
+            try {
+                mVibrator.vibrate(pattern, -1);
+            } catch (Exception e) {
+                mEventLog.log(EventLog.VIBRATE_FAILED, channel, pattern.length, 0);
             }
-
-            alert(mPreferences.getMissedCallAlertPreferences());
-
-            mHandler.postDelayed(this, interval);
         }
-    };
 
-    private Runnable mVoicemailAlertRunnable = new Runnable() {
+        @Override
+        public void playTone(AlertProfile profile, int channel) {
+            playAlertTone(profile, channel);
+        }
 
         @Override
-        public void run() {
+        public void stopTone(int channel) {
 
-            long duration_seconds = (System.currentTimeMillis() - mVoicemailAlertStartTime);
-            int max_duration = Integer.parseInt(mPreferences.getVoiceMailAlertPreferences().getDuration()) * 1000;
-            int interval = Integer.parseInt(mPreferences.getVoiceMailAlertPreferences().getInterval()) * 1000;
+            if (mAudioArbiter.getHolder() == channel) {
 
+                stopAlertTone(channel);
+                mAudioArbiter.release(channel);
+            }
+        }
 
-            if (!mListenerService.isVoiceMailPending() || !mPreferences.getAlertsEnabled()
-                    || (duration_seconds >= max_duration && max_duration != INFINITE_DURATION)) {
+        @Override
+        public void flashScreen(AlertProfile profile, int channel) {
 
-                mIsVoiceMailAlerting = false;
-            }
+            mWakeLockManager.acquireScreen(WakeLockManager.OWNER_SCREEN, channel,
+                    getScreenWakelockFlags(profile), WAKE_DURATION_MS);
 
-            if(!(mIsTextAlerting || mIsMissedCallAlerting || mIsVoiceMailAlerting)){
+            if (mPreferences.getAcknowledgeScreenEnabled())
+                AcknowledgeActivity.show(AlerterService.this, channel);
+        }
 
-                stopSelf();
-                return;
-            }
-            else if(!mIsVoiceMailAlerting){
+        @Override
+        public void holdWakeLock(int channel, long timeoutMs) {
 
-                return;
-            }
+            mWakeLockManager.acquire(WakeLockManager.OWNER_ALERTS, channel, timeoutMs);
+        }
 
-            alert(mPreferences.getVoiceMailAlertPreferences());
+        @Override
+        public void releaseWakeLock(int channel, boolean anyAlerting) {
+
+            mWakeLockManager.releaseChannel(channel);
+            mWakeLockManager.assertNoLeaks(anyAlerting);
+        }
 
-            mHandler.postDelayed(this, interval);
+        @Override
+        public void onAlertsFinished() {
+            stopSelf();
         }
     };
 
@@ -348,25 +384,10 @@ public class AlerterService extends Service {
         
         if (intent.getAction().equals(START_ALERTS)){
 
-            switch(alert_for){
-                case ALERT_FOR_TEXT:
-                    startTextAlerts();
-                    break;
-                case ALERT_FOR_MISSED_CALL:
-                    startMissedCallAlerts();
-                    break;
-                case ALERT_FOR_VOICE_MAIL:
-                    startVoiceMailAlerts();
-                    break;
-                default:
-                    startTextAlerts();
-                    startMissedCallAlerts();
-                    startVoiceMailAlerts();
-                    break;
-            }
+            startAlerts(alert_for, intent);
         }
 
-        if(!(mIsTextAlerting || mIsMissedCallAlerting || mIsVoiceMailAlerting) && alert_for != -1)
+        if(!mAlerts.isAnyAlerting() && alert_for != -1)
             stopSelf();
 
         return Service.START_STICKY;
@@ -376,7 +397,12 @@ public class AlerterService extends Service {
     public void onCreate() {
 
         mPowerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
-        mWakeLock = mPowerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, WAKELOCK_TAG);
+        mEventLog = AppEventLog.get(this);
+        StatsStore stats = AppStats.get(this);
+
+        mWakeLockManager = new WakeLockManager(this, mHandler);
+        mWakeLockManager.setMetrics(mMetrics);
+        mWakeLockManager.setStatsStore(stats);
 
         mAudioManager = (AudioManager)getSystemService(Context.AUDIO_SERVICE);
 
@@ -384,15 +410,38 @@ public class AlerterService extends Service {
 
         mPreferences = new AppPreferences(this);
 
+        mAlerts = new AlertStateMachine(new WallClock(), new HandlerScheduler(mHandler), mPendingSource,
+                mAlertSettings, mAlertOutput);
+        mAlerts.setMetrics(mMetrics);
+        mAlerts.setTracer(mTracer);
+        mAlerts.setStatsStore(stats);
+        mAudioArbiter.setMetrics(mMetrics);
+
+        // the hourly factors only change with the statistics, so learn them once per alerting session
+        if (stats != null)
+            mAlerts.setAdaptiveIntervals(AdaptiveIntervals.fromStats(stats, System.currentTimeMillis()));
+
+        mAudioPrepareTime = mMetrics.histogram("audio.prepare_ms", Metrics.LATENCY_BUCKETS_MS);
+
         bindService(new Intent(this, MissedMessageListenerService.class), mListenerConnection, Context.BIND_AUTO_CREATE);
 
         mControlReceiver = new AlertsControlReceiver();
         registerReceiver(mControlReceiver, new IntentFilter(START_ALERTS));
         registerReceiver(mControlReceiver, new IntentFilter(STOP_ALERTS));
+        registerReceiver(mControlReceiver, new IntentFilter(SNOOZE_ALERTS));
+
+        // load the acknowledge screen's classes and layout before the first flash needs them
+        if (mPreferences.getAcknowledgeScreenEnabled()) {
+
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    AcknowledgeActivity.prewarm(AlerterService.this);
+                }
+            });
+        }
 
-        startTextAlerts();
-        startMissedCallAlerts();
-        startVoiceMailAlerts();
+        mAlerts.startAlertsFor(-1);
     }
 
     @Override
@@ -401,301 +450,216 @@ public class AlerterService extends Service {
         unbindService(mListenerConnection);
         unregisterReceiver(mControlReceiver);
         sendBroadcast(new Intent(ALERTS_STOPPED));
-        stopTextAlerts();
-        stopMissedCallAlerts();
-        stopVoiceMailAlerts();
-    }
-
-
-    // PRIVATE METHODS -----------------------------------------
 
+        mAlerts.stopAllAlerts();
+        mVolumeRamp.quit();
 
-    private void startTextAlerts() {
+        mWakeLockManager.releaseAll();
+    }
 
-        AlertPreferences alertPrefs = mPreferences.getTextAlertPreferences();
-        Calendar now = Calendar.getInstance();
-        Calendar start = (Calendar)now.clone();
-        Calendar end = (Calendar)now.clone();
-        start.set(Calendar.HOUR_OF_DAY, alertPrefs.getSchedulingHourStart());
-        start.set(Calendar.MINUTE, alertPrefs.getSchedulingMinuteStart());
-        end.set(Calendar.HOUR_OF_DAY, alertPrefs.getSchedulingHourEnd());
-        end.set(Calendar.MINUTE, alertPrefs.getSchedulingMinuteEnd());
-        
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
 
-        if (mIsTextAlerting || !mPreferences.getTextAlertPreferences().getEnabled()
-                || (alertPrefs.getSchedulingEnabled() && now.compareTo(start) >= 0 && now.compareTo(end) < 0))
+        if (mTracer.handleDumpArgs(args, writer))
             return;
 
-        mIsTextAlerting = true;
-
-        mTextAlertStartTime = System.currentTimeMillis();
-
-        mHandler.removeCallbacks(mTextAlertRunnable);
-        mHandler.postDelayed(mTextAlertRunnable, Integer.parseInt(alertPrefs.getInterval()) * 1000);
+        writer.println("Alerting:");
 
+        for (int channel = 0; channel < Channels.COUNT; ++channel) {
 
-        if(!mWakeLock.isHeld()){
-
-            try{
-                mWakeLock.acquire();
-            }
-            catch (RuntimeException e){}
+            writer.print("  ");
+            writer.print(Channels.NAMES[channel]);
+            writer.print('=');
+            writer.println(mAlerts.isAlerting(channel));
         }
-    }
 
-    private void stopTextAlerts() {
+        int audio_holder = mAudioArbiter.getHolder();
+        writer.print("  audio=");
+        writer.println(audio_holder != AudioArbiter.NO_CHANNEL ? Channels.NAMES[audio_holder] : "none");
 
-        mIsTextAlerting = false;
-        mHandler.removeCallbacks(mTextAlertRunnable);
+        for (String owner : mWakeLockManager.getOwners()) {
 
-        if(mTextAlertMediaPlayer != null){
-            mTextAlertMediaPlayer.stop();
-            mTextAlertMediaPlayer.release();
+            writer.print("  wakelock.");
+            writer.print(owner);
+            writer.print(".held_total_ms=");
+            writer.println(mWakeLockManager.getHeldTimeMillis(owner));
         }
 
-        if(!(mIsMissedCallAlerting || mIsVoiceMailAlerting) && mWakeLock != null && mWakeLock.isHeld()){
+        writer.println("Metrics:");
+        mMetrics.dump(writer, "  ");
 
-            try{
-                mWakeLock.release();
-            }
-            catch (RuntimeException e){}
-        }
+        AppEventLog.dump(this, writer);
     }
 
-    private void startMissedCallAlerts() {
 
-        AlertPreferences alertPrefs = mPreferences.getMissedCallAlertPreferences();
-        Calendar now = Calendar.getInstance();
-        Calendar start = (Calendar)now.clone();
-        Calendar end = (Calendar)now.clone();
-        start.set(Calendar.HOUR_OF_DAY, alertPrefs.getSchedulingHourStart());
-        start.set(Calendar.MINUTE, alertPrefs.getSchedulingMinuteStart());
-        end.set(Calendar.HOUR_OF_DAY, alertPrefs.getSchedulingHourEnd());
-        end.set(Calendar.MINUTE, alertPrefs.getSchedulingMinuteEnd());
-
-        if(mIsMissedCallAlerting || !mPreferences.getMissedCallAlertPreferences().getEnabled()
-                || (alertPrefs.getSchedulingEnabled() && now.compareTo(start) >= 0 && now.compareTo(end) < 0))
-            return;
-
-        mIsMissedCallAlerting = true;
+    // PRIVATE METHODS -----------------------------------------
 
-        mMissedCallAlertStartTime = System.currentTimeMillis();
 
-        mHandler.removeCallbacks(mMissedCallAlertRunnable);
-        mHandler.postDelayed(mMissedCallAlertRunnable, Integer.parseInt(mPreferences.getMissedCallAlertPreferences().getInterval()) * 1000);
+    /*
+     * Starts the alerts asked for by a START_ALERTS intent, telling the
+     * listener service if they are not started so it does not count their
+     * acknowledgement as a response to an alert.
+     */
+    private void startAlerts(int alertFor, Intent intent) {
 
+        if (mAlerts.startAlertsFor(alertFor, intent.getLongExtra(EXTRA_DETECT_TIME, -1),
+                intent.getBooleanExtra(EXTRA_ALWAYS_ALERT, false), intent.getIntExtra(EXTRA_PROFILE_FOR, -1)))
+            return;
 
-        if(!mWakeLock.isHeld()){
+        Intent declined = new Intent(ALERTS_DECLINED);
+        declined.putExtra(EXTRA_ALERT_FOR, alertFor);
 
-            try{
-                mWakeLock.acquire();
-            }
-            catch (RuntimeException e){}
-        }
+        sendBroadcast(declined);
     }
 
-    private void stopMissedCallAlerts() {
-
-        mIsMissedCallAlerting = false;
-        mHandler.removeCallbacks(mMissedCallAlertRunnable);
-
-        if(mMissedCallAlertMediaPlayer != null){
-            mMissedCallAlertMediaPlayer.stop();
-            mMissedCallAlertMediaPlayer.release();
-        }
-
-        if(!(mIsTextAlerting || mIsVoiceMailAlerting) && mWakeLock != null && mWakeLock.isHeld()){
 
-            try{
-                mWakeLock.release();
-            }
-            catch (RuntimeException e){}
-        }
+    /*
+     * Compiles the alert preferences into a profile with its
+     * power tier variants, resolving the vibrate pattern once.
+     */
+    private AlertProfile compileProfile(AlertPreferences alertPrefs) {
+
+        return new AlertProfile.Builder(alertPrefs.getPrefix())
+                .setIntervalMs(Integer.parseInt(alertPrefs.getInterval()) * 1000L)
+                .setDurationMs(Integer.parseInt(alertPrefs.getDuration()) * 1000L)
+                .setFlashScreen(alertPrefs.getFlashScreenEnabled(), alertPrefs.getDimFlashEnabled())
+                .setVibrate(alertPrefs.getVibrateEnabled(),
+                        VibratePatterns.forStyle(alertPrefs.getVibrateStyle(), alertPrefs.getVibrateCustom()))
+                .setAudio(alertPrefs.getAudioEnabled(), alertPrefs.getAlertTone(),
+                        alertPrefs.getAlertVolume() / 100.0f, alertPrefs.getAudioDisabledOnSilent())
+                .setScheduling(alertPrefs.getSchedulingEnabled(),
+                        AlertProfile.toMinuteOfDay(alertPrefs.getSchedulingHourStart(), alertPrefs.getSchedulingMinuteStart()),
+                        AlertProfile.toMinuteOfDay(alertPrefs.getSchedulingHourEnd(), alertPrefs.getSchedulingMinuteEnd()))
+                .setAdaptiveInterval(alertPrefs.getAdaptiveIntervalEnabled(),
+                        Integer.parseInt(alertPrefs.getMinInterval()) * 1000L,
+                        Integer.parseInt(alertPrefs.getMaxInterval()) * 1000L)
+                .setEscalationStepMs(alertPrefs.getEscalateEnabled()
+                        ? Integer.parseInt(alertPrefs.getEscalationStep()) * 1000L : 0)
+                .setCrescendoMs(Integer.parseInt(alertPrefs.getCrescendo()) * 1000L)
+                .build();
     }
 
-    private void startVoiceMailAlerts() {
 
-        AlertPreferences alertPrefs = mPreferences.getVoiceMailAlertPreferences();
-        Calendar now = Calendar.getInstance();
-        Calendar start = (Calendar)now.clone();
-        Calendar end = (Calendar)now.clone();
-        start.set(Calendar.HOUR_OF_DAY, alertPrefs.getSchedulingHourStart());
-        start.set(Calendar.MINUTE, alertPrefs.getSchedulingMinuteStart());
-        end.set(Calendar.HOUR_OF_DAY, alertPrefs.getSchedulingHourEnd());
-        end.set(Calendar.MINUTE, alertPrefs.getSchedulingMinuteEnd());
+    private void playAlertTone(AlertProfile profile, final int channel) {
 
-        if(mIsVoiceMailAlerting || !mPreferences.getVoiceMailAlertPreferences().getEnabled()
-                || (alertPrefs.getSchedulingEnabled() && now.compareTo(start) >= 0 && now.compareTo(end) < 0))
-            return;
-
-        mIsVoiceMailAlerting = true;
+        String uri_str = profile.alertTone;
 
-        mVoicemailAlertStartTime = System.currentTimeMillis();
+        boolean play_in_silent = !profile.audioDisabledOnSilent;
 
-        mHandler.removeCallbacks(mVoicemailAlertRunnable);
-        mHandler.postDelayed(mVoicemailAlertRunnable, Integer.parseInt(mPreferences.getVoiceMailAlertPreferences().getInterval()) * 1000);
+        float volume = profile.volume;
 
+        int sys_volume = mAudioManager.getStreamVolume(AudioManager.STREAM_SYSTEM);
 
-        if(!mWakeLock.isHeld()){
 
-            try{
-                mWakeLock.acquire();
-            }
-            catch (RuntimeException e){}
-        }
-    }
+        if (uri_str.length() == 0 || (!play_in_silent && sys_volume == 0) || !mAudioArbiter.acquire(channel))
+            return;
 
-    private void stopVoiceMailAlerts() {
+        MediaPlayer mp = null;
+        int failure = EventLog.AUDIO_SOURCE_FAILED;
 
-        mIsVoiceMailAlerting = false;
-        mHandler.removeCallbacks(mVoicemailAlertRunnable);
+        try {
 
-        if(mVoiceMailAlertMediaPlayer != null){
-            mVoiceMailAlertMediaPlayer.stop();
-            mVoiceMailAlertMediaPlayer.release();
-        }
+            mp = new MediaPlayer();
+            mp.setDataSource(this, Uri.parse(uri_str));
 
-        if(!(mIsMissedCallAlerting || mIsTextAlerting) && mWakeLock != null && mWakeLock.isHeld()){
+            mp.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
+                @Override
+                public void onCompletion(MediaPlayer mediaPlayer) {
+                    mVolumeRamp.stop(channel);
+                    mediaPlayer.release();
 
-            try{
-                mWakeLock.release();
-            }
-            catch (RuntimeException e){}
-        }
-    }
+                    if (mMediaPlayer == mediaPlayer) {
 
+                        mMediaPlayer = null;
+                        mAudioArbiter.release(channel);
+                    }
 
-    private void alert(AlertPreferences alertPrefs) {
+                    mWakeLockManager.release(WakeLockManager.OWNER_AUDIO, channel);
+                }
+            });
 
-        // if the screen is already on, user is probably interacting with device
-        //  and does not require alerts
-        if (mPowerManager.isScreenOn() && mScreenWakeLock != null && !mScreenWakeLock.isHeld()
-                || mPowerManager.isScreenOn() && mScreenWakeLock == null) {
+            mp.setOnErrorListener(new MediaPlayer.OnErrorListener() {
+                @Override
+                public boolean onError(MediaPlayer mediaPlayer, int what, int extra) {
 
-            return;
-        }
+                    mEventLog.log(EventLog.AUDIO_PLAYBACK_ERROR, channel, what, extra);
 
-        // TODO do not alert if screen is unlocked
+                    // unhandled, so the completion listener releases the player
+                    return false;
+                }
+            });
 
-        if (alertPrefs.getVibrateEnabled()) {
+            if (profile.crescendoMs <= 0 && volume < 0.9f)
+                mp.setVolume(volume, volume);
 
-            long[] pattern;
+            mp.setAudioStreamType(AudioManager.STREAM_MUSIC);
 
-            switch (Integer.parseInt(alertPrefs.getVibrateStyle())){
+            failure = EventLog.AUDIO_PREPARE_FAILED;
 
-                case 0: pattern = VIBRATE_PATTERN_0;
-                        break;
-                case 1: pattern = VIBRATE_PATTERN_1;
-                        break;
-                case 2: pattern = VIBRATE_PATTERN_2;
-                        break;
-                case 3: pattern = VIBRATE_PATTERN_3;
-                        break;
-                case 4: pattern = VIBRATE_PATTERN_4;
-                        break;
-                default:
-                    pattern = VIBRATE_PATTERN_0;
-            }
+            long prepare_start = SystemClock.elapsedRealtime();
+            mTracer.beginSection("alerter.audio.prepare");
 
             try {
-                mVibrator.vibrate(pattern, -1);
-            } catch (Exception e) {
-                Log.e("AlerterService", "Vibrator error: " + e.getMessage());
+                mp.prepare();
+            } finally {
+                mTracer.endSection();
             }
-        }
-
-
-        if (alertPrefs.getAudioEnabled()) {
-
-            String uri_str = alertPrefs.getAlertTone();
-
-            boolean play_in_silent = !(alertPrefs.getAudioDisabledOnSilent());
-
-            float volume = alertPrefs.getAlertVolume() / 100.0f;
-
-            int sys_volume = mAudioManager.getStreamVolume(AudioManager.STREAM_SYSTEM);
 
+            mAudioPrepareTime.record(SystemClock.elapsedRealtime() - prepare_start);
 
-            try {
-
-                if (uri_str.length() != 0 && (play_in_silent || sys_volume > 0)) {
-                    
-                    MediaPlayer mp = null;
-                    
-                    if(alertPrefs.getPrefix().equals(AppPreferences.PREFIX_TEXT))
-                        mp = mTextAlertMediaPlayer;
-                    else if(alertPrefs.getPrefix().equals(AppPreferences.PREFIX_CALLS))
-                        mp = mMissedCallAlertMediaPlayer;
-                    else if(alertPrefs.getPrefix().equals(AppPreferences.PREFIX_VOICEMAIL))
-                        mp = mVoiceMailAlertMediaPlayer;
-
-                    if (mp == null) {
+            failure = EventLog.AUDIO_START_FAILED;
 
-                        mp = new MediaPlayer();
+            // hold a lease for the length of the tone rather than using the player's wake mode
+            long tone_ms = mp.getDuration() > 0 ? Math.min(mp.getDuration(), AUDIO_LEASE_MAX_MS)
+                    : AUDIO_LEASE_DEFAULT_MS;
+            mWakeLockManager.acquire(WakeLockManager.OWNER_AUDIO, channel, tone_ms + WAKE_LEASE_MARGIN_MS);
 
-                        // TODO manage error states
+            mMediaPlayer = mp;
 
-                        mp.setDataSource(this, Uri.parse(uri_str));
+            if (profile.crescendoMs > 0)
+                mVolumeRamp.start(channel, mp, volume, profile.crescendoMs);
 
-                        mp.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
-                            @Override
-                            public void onCompletion(MediaPlayer mediaPlayer) {
-                                mediaPlayer.release();
-                                mediaPlayer = null;
-                            }
-                        });
+            mp.start();
+        } catch (Exception e) {
 
-                        mp.setWakeMode(this, PowerManager.PARTIAL_WAKE_LOCK);
+            mEventLog.log(failure, channel, sys_volume, 0);
+            mVolumeRamp.stop(channel);
 
-                        if (volume < 0.9f)
-                            mp.setVolume(volume, volume);
+            if (mp != null)
+                mp.release();
 
-                        mp.setAudioStreamType(AudioManager.STREAM_MUSIC);
-                        mp.prepare();
-                        mp.start();
-                    }
-                }
-            } catch (Exception e) {
-            }
+            mMediaPlayer = null;
+            mAudioArbiter.release(channel);
+            mWakeLockManager.release(WakeLockManager.OWNER_AUDIO, channel);
         }
+    }
 
-        if (alertPrefs.getFlashScreenEnabled() && checkAndMakeScreenWakelock(alertPrefs)) {
 
-            if(mScreenWakeLock != null && !mScreenWakeLock.isHeld()){
+    /*
+     * Stops and releases the tone playing for the channel.
+     */
+    private void stopAlertTone(int channel) {
 
-                try{
-                    mScreenWakeLock.acquire(WAKE_DURATION_MS);
-                }
-                catch (RuntimeException e){}
-            }
-        }
+        if (mMediaPlayer == null)
+            return;
 
+        mVolumeRamp.stop(channel);
+        mMediaPlayer.stop();
+        mMediaPlayer.release();
+        mMediaPlayer = null;
     }
 
 
 
-    private boolean checkAndMakeScreenWakelock(AlertPreferences alertPrefs){
+    private int getScreenWakelockFlags(AlertProfile profile){
 
         int screen_wakelock_flags = PowerManager.ACQUIRE_CAUSES_WAKEUP;
 
-        if (alertPrefs.getDimFlashEnabled())
+        if (profile.dimFlash)
             screen_wakelock_flags |= PowerManager.SCREEN_DIM_WAKE_LOCK;
         else
             screen_wakelock_flags |= PowerManager.FULL_WAKE_LOCK;
 
-
-        if (mScreenWakelockFlags != screen_wakelock_flags || mScreenWakeLock == null) {
-
-            try{
-
-                mScreenWakeLock = mPowerManager.newWakeLock(screen_wakelock_flags, SCREEN_WAKELOCK_TAG);
-                mScreenWakelockFlags = screen_wakelock_flags;
-            }
-            catch (Exception e){
-                return false;
-            }
-        }
-
-        return mScreenWakeLock != null;
+        return screen_wakelock_flags;
     }
 }
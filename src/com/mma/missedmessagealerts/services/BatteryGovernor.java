@@ -0,0 +1,241 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.services;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import com.mma.missedmessagealerts.core.AlertProfile;
+import com.mma.missedmessagealerts.AppPreferences;
+
+/**
+ * Watches the battery level against the user's low and critical battery
+ * percentages and maps it to one of the AlertProfile power tiers.
+ * Rather than receiving every battery status change, the governor listens
+ * for the battery low/okay and power connection broadcasts and samples the
+ * sticky battery status only when one of them arrives or when asked to.
+ * The listener is notified only when the battery crosses a threshold.
+ *
+ * @author Michael R. Falcone
+ */
+public class BatteryGovernor {
+
+
+    /**
+     * Callback for changes of the power tier.
+     */
+    public interface OnPowerTierChangedListener {
+
+        /**
+         * Called when the battery crosses a threshold and the power tier changes.
+         * @param tier the new power tier, one of the AlertProfile TIER constants
+         */
+        void onPowerTierChanged(int tier);
+    }
+
+
+
+    // MEMBER VARIABLES -----------------------------------------
+
+    private Context mContext;
+    private AppPreferences mPreferences;
+    private OnPowerTierChangedListener mListener;
+
+    private boolean mThresholdsEnabled = false;
+    private int mLowPercentage = 0;
+    private int mCriticalPercentage = 0;
+
+    private int mLevelPercentage = 100;
+    private boolean mPlugged = false;
+    private int mTier = AlertProfile.TIER_FULL;
+
+    private boolean mStarted = false;
+
+
+
+    // BROADCAST RECEIVER -----------------------------------------
+
+    private BroadcastReceiver mPowerReceiver = new BroadcastReceiver() {
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+
+            String action = intent.getAction();
+
+            if (action.equals(Intent.ACTION_POWER_CONNECTED)) {
+
+                mPlugged = true;
+                updateThresholdState();
+            }
+            else if (action.equals(Intent.ACTION_POWER_DISCONNECTED)) {
+
+                sampleBatteryStatus();
+                mPlugged = false;
+                updateThresholdState();
+            }
+            else
+                evaluate();
+        }
+    };
+
+
+
+
+    // CONSTRUCTOR -----------------------------------------
+
+    /**
+     * Constructs a new BatteryGovernor.
+     * @param context context used to register for battery broadcasts
+     * @param preferences preferences holding the battery thresholds
+     * @param listener notified when the power tier changes
+     */
+    public BatteryGovernor(Context context, AppPreferences preferences, OnPowerTierChangedListener listener){
+
+        mContext = context;
+        mPreferences = preferences;
+        mListener = listener;
+    }
+
+
+
+
+    // PUBLIC METHODS -----------------------------------------
+
+    /**
+     * Registers for battery broadcasts and evaluates the current battery state.
+     */
+    public void start(){
+
+        if (mStarted)
+            return;
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_BATTERY_LOW);
+        filter.addAction(Intent.ACTION_BATTERY_OKAY);
+        filter.addAction(Intent.ACTION_POWER_CONNECTED);
+        filter.addAction(Intent.ACTION_POWER_DISCONNECTED);
+        mContext.registerReceiver(mPowerReceiver, filter);
+
+        mStarted = true;
+
+        reloadThresholds();
+    }
+
+
+    /**
+     * Unregisters from battery broadcasts.
+     */
+    public void stop(){
+
+        if (!mStarted)
+            return;
+
+        mContext.unregisterReceiver(mPowerReceiver);
+        mStarted = false;
+    }
+
+
+    /**
+     * Reloads the cached battery thresholds from the preferences
+     * and evaluates the current battery state against them.
+     */
+    public void reloadThresholds(){
+
+        mThresholdsEnabled = mPreferences.getDisableOnLowBattery();
+        mLowPercentage = mPreferences.getLowBatteryPercentage();
+        mCriticalPercentage = Math.min(mPreferences.getCriticalBatteryPercentage(), mLowPercentage);
+
+        evaluate();
+    }
+
+
+    /**
+     * Samples the sticky battery status and notifies the listener if the
+     * battery has crossed a threshold since the last evaluation.
+     */
+    public void evaluate(){
+
+        sampleBatteryStatus();
+        updateThresholdState();
+    }
+
+
+    /**
+     * Returns the power tier at the last evaluation, one of the
+     * AlertProfile TIER constants.
+     */
+    public int getPowerTier(){
+
+        return mTier;
+    }
+
+
+    /**
+     * Returns the battery percentage at the last evaluation.
+     */
+    public int getLevelPercentage(){
+
+        return mLevelPercentage;
+    }
+
+
+
+
+    // PRIVATE METHODS -----------------------------------------
+
+    /*
+     * Reads the sticky battery status without registering a receiver
+     * for it, so no further status changes are delivered.
+     */
+    private void sampleBatteryStatus(){
+
+        Intent status = mContext.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+
+        if (status == null)
+            return;
+
+        int level = status.getIntExtra(BatteryManager.EXTRA_LEVEL, 100);
+        int scale = status.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+
+        mLevelPercentage = scale > 0 ? level * 100 / scale : level;
+        mPlugged = status.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+
+    private void updateThresholdState(){
+
+        int tier = AlertProfile.TIER_FULL;
+
+        if (mThresholdsEnabled && !mPlugged) {
+
+            if (mLevelPercentage <= mCriticalPercentage)
+                tier = AlertProfile.TIER_CRITICAL;
+            else if (mLevelPercentage <= mLowPercentage)
+                tier = AlertProfile.TIER_REDUCED;
+        }
+
+        if (tier != mTier) {
+
+            mTier = tier;
+
+            if (mListener != null)
+                mListener.onPowerTierChanged(tier);
+        }
+    }
+}
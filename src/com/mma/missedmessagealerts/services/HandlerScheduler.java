@@ -0,0 +1,54 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.services;
+
+import android.os.Handler;
+import com.mma.missedmessagealerts.core.Scheduler;
+
+/**
+ * Runs the alert core's scheduled tasks on an Android Handler.
+ *
+ * @author Michael R. Falcone
+ */
+public class HandlerScheduler implements Scheduler {
+
+    private Handler mHandler;
+
+
+    /**
+     * Constructs a new HandlerScheduler.
+     * @param handler handler on which tasks are run
+     */
+    public HandlerScheduler(Handler handler){
+
+        mHandler = handler;
+    }
+
+
+    @Override
+    public void postDelayed(Runnable task, long delayMs) {
+
+        mHandler.postDelayed(task, delayMs);
+    }
+
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+
+        mHandler.removeCallbacks(task);
+    }
+}
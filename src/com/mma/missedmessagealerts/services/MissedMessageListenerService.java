@@ -24,22 +24,55 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.net.Uri;
-import android.os.BatteryManager;
 import android.os.Binder;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.PowerManager;
+import android.os.SystemClock;
 import android.provider.CallLog;
+import android.util.Log;
 import android.telephony.PhoneStateListener;
+import android.telephony.SmsMessage;
 import android.telephony.TelephonyManager;
 
+import com.mma.missedmessagealerts.AlertPreferences;
+import com.mma.missedmessagealerts.AppEventLog;
+import com.mma.missedmessagealerts.AppStats;
 import com.mma.missedmessagealerts.AppPreferences;
 import com.mma.missedmessagealerts.R;
+import com.mma.missedmessagealerts.core.AlertProfile;
+import com.mma.missedmessagealerts.core.Channels;
+import com.mma.missedmessagealerts.core.ContactCache;
+import com.mma.missedmessagealerts.core.DetectionStateMachine;
+import com.mma.missedmessagealerts.core.DuplicateFilter;
+import com.mma.missedmessagealerts.core.EventTrace;
+import com.mma.missedmessagealerts.core.EventTraceWriter;
+import com.mma.missedmessagealerts.core.KeywordRules;
+import com.mma.missedmessagealerts.core.MessageSource;
+import com.mma.missedmessagealerts.core.MeteredMessageSource;
+import com.mma.missedmessagealerts.core.Metrics;
+import com.mma.missedmessagealerts.core.PendingSenders;
+import com.mma.missedmessagealerts.core.QuantileSketch;
+import com.mma.missedmessagealerts.core.RecordingMessageSource;
+import com.mma.missedmessagealerts.core.RepeatCallers;
+import com.mma.missedmessagealerts.core.SenderRules;
+import com.mma.missedmessagealerts.core.StatsStore;
+import com.mma.missedmessagealerts.core.WallClock;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
 
 /**
  * Service that listens for desired messages and notifies AlerterService
- * to start and stop alerting as needed.
+ * to start and stop alerting as needed. The detection decisions are made
+ * by a DetectionStateMachine, this service feeds it the Android events.
  *
  * @author Michael R. Falcone
  */
@@ -55,44 +88,78 @@ public class MissedMessageListenerService extends Service {
 
     // MEMBER VARIABLES -----------------------------------------
 
-    private static long UPDATE_INTERVAL_MS = 1000;
-    private static long NEW_MESSAGE_TIMEOUT_MS = 3000;  // maximum time to wait for new message to be confirmed after being detected
+    private static final long BOOT_SETTLE_UPTIME_MS = 90000;  // uptime before the system is considered settled after boot
+    private static final long INITIAL_SCAN_DELAY_MS = 5000;
+    private static final long MAX_INITIAL_SCAN_DELAY_MS = 40000;
+
+    private static final long REPEAT_CALL_WINDOW_MS = 5 * 60000;  // calls from a number within this time are repeats
+    private static final int REPEAT_CALL_THRESHOLD = 2;
 
     private static int NOTIFICATION_ID = 1;
 
+    private static final String TAG = "MissedMessageListenerService";
+
     private static final String ACTION_SMS_RECEIVED = "android.provider.Telephony.SMS_RECEIVED";
     private static final String ACTION_MMS_RECEIVED = "android.provider.Telephony.MMS_RECEIVED";
 
-    private static final String STOP_ALL_ALERTS = "com.mma.missedmessagealerts.STOP_ALL_ALERTS";
+    /**
+     * Broadcast to stop alerting for all messages, which the user has acknowledged.
+     */
+    public static final String STOP_ALL_ALERTS = "com.mma.missedmessagealerts.STOP_ALL_ALERTS";
+
+    /**
+     * Name of the event trace of the current run in the application's files directory.
+     */
+    public static final String TRACE_FILE = "events.trace";
+
+    /**
+     * Name of the event trace of the previous run.
+     */
+    public static final String PREVIOUS_TRACE_FILE = "events.trace.old";
 
     private AppPreferences mPreferences;
     
     private Handler mHandler = new Handler();
     private NotificationManager mNotificationManager;
     private Notification mNotification;
+    private PendingIntent mStopAllIntent;
     private TelephonyManager mTelephonyManager;
 
     private ServiceControlReceiver mServiceControlReceiver;
-    private BatteryReceiver mBatteryReceiver;
+    private BatteryGovernor mBatteryGovernor;
     private SmsReceiver mSmsReceiver;
     private MmsReceiver mMmsReceiver;
-
-
-    private boolean mPendingSms = false;
-    private int mLastSmsCount = 0;
-    private long mFirstSmsDetectTime = 0;
-
-    private boolean mPendingMms = false;
-    private int mLastMmsCount = 0;
-    private long mFirstMmsDetectTime = 0;
-
-    private boolean mPendingCall = false;
-    private int mLastMissedCallCount = 0;
-    private long mFirstMissedCallDetectTime = 0;
-
-    private boolean mPendingVoicemail = false;
-
-    private boolean mCurrentlyInCall = false;
+    private ScreenReceiver mScreenReceiver;
+
+    private WallClock mClock = new WallClock();
+    private DetectionStateMachine mDetection;
+    private EventTraceWriter mTraceWriter;
+    private Metrics mMetrics = new Metrics();
+    private SystemTracer mTracer = SystemTracer.getInstance();
+    private StatsStore mStats;
+    private MeteredMessageSource[] mMeteredSources;
+
+    private PhoneLookupResolver mContactResolver;
+    private ContactCache mContacts;
+    private PendingSenders mSenders = new PendingSenders();
+    private boolean[] mAlerting = new boolean[Channels.COUNT];
+    private long[] mAlertStartTime = new long[Channels.COUNT];    // 0 unless START_ALERTS was sent and not declined
+    private int[] mIgnoredMessages = new int[Channels.COUNT];
+    private SenderRules mSenderRules;
+    private String mSenderRulesText;
+    private KeywordRules mKeywordRules;
+    private String mKeywordRulesText;
+    private int mKeywordPolicy = SenderRules.ACTION_NONE;
+    private DuplicateFilter mDuplicates;
+    private RepeatCallers mRepeatCallers = new RepeatCallers(REPEAT_CALL_WINDOW_MS);
+    private int mRepeatCallPolicy = SenderRules.ACTION_NONE;
+    private Metrics.Counter mDuplicateCounter = mMetrics.counter("listener.duplicates_suppressed");
+    private String mRingingNumber = null;
+
+    private long mInitialScanDelay = INITIAL_SCAN_DELAY_MS;
+    private long mStartupTimeMs = 0;
+    private long mInitialScanTimeMs = 0;
+    private long mCreateTime = 0;
 
 
 
@@ -109,17 +176,81 @@ public class MissedMessageListenerService extends Service {
 
 
 
-    // UPDATE RUNNABLE -----------------------------------------
+    // DETECTION CALLBACKS -----------------------------------------
+
+    private DetectionStateMachine.Settings mDetectionSettings = new DetectionStateMachine.Settings() {
+
+        @Override
+        public boolean isAlertsEnabled() {
+            return mPreferences.getAlertsEnabled();
+        }
+
+        @Override
+        public boolean isChannelEnabled(int channel) {
+            return mPreferences.getAlertPreferences(channel).getEnabled()
+                    || SenderRules.getAction(getSenderPolicy(channel)) == SenderRules.ACTION_ALWAYS_ALERT
+                    || (channel == Channels.MISSED_CALL && isRingingAlwaysAlert());
+        }
+    };
+
+
+    private DetectionStateMachine.Output mDetectionOutput = new DetectionStateMachine.Output() {
+
+        @Override
+        public void onStartAlerting(int channel) {
+            startAlertingUser(channel);
+        }
+
+        @Override
+        public void onStopAlerting(int channel, boolean anyPending) {
+            stopAlertingUser(channel, anyPending);
+        }
+
+        @Override
+        public void onAcknowledged(int channel, long latencyMs) {
+
+            // only alerts that were started count, timed from when they were
+            //  asked for rather than from when detection confirmed the message
+            if (!mAlerting[channel] || mAlertStartTime[channel] == 0)
+                return;
+
+            long latency_ms = mClock.currentTimeMillis() - mAlertStartTime[channel];
+
+            if (mStats != null) {
+
+                mStats.add(StatsStore.STAT_ACKS, channel, 1);
+                mStats.add(StatsStore.STAT_ACK_LATENCY_MS, channel, latency_ms);
+            }
+
+            AppStats.addAckLatency(MissedMessageListenerService.this, channel, latency_ms);
+        }
+    };
+
+
+
+    // INITIAL SCAN RUNNABLE -----------------------------------------
 
     /*
-      * Runs when a message is pending.
-      */
-    private Runnable mUpdateRunnable = new Runnable() {
+     * Runs the first scan for missed messages that were already present when
+     * the service started. Deferred with backoff while the system is still
+     * settling after boot.
+     */
+    private Runnable mInitialScanRunnable = new Runnable() {
 
         @Override
         public void run() {
 
-            updateService();
+            if (mStats == null)
+                openFiles();
+
+            if (SystemClock.uptimeMillis() < BOOT_SETTLE_UPTIME_MS) {
+
+                mHandler.postDelayed(this, mInitialScanDelay);
+                mInitialScanDelay = Math.min(mInitialScanDelay * 2, MAX_INITIAL_SCAN_DELAY_MS);
+                return;
+            }
+
+            runInitialScan();
         }
     };
 
@@ -133,31 +264,43 @@ public class MissedMessageListenerService extends Service {
 
             String action = intent.getAction();
 
-            if (action.equals(STOP_ALL_ALERTS) || action.equals(AlerterService.ALERTS_STOPPED)){
+            mTracer.beginSection("listener.onReceive.control");
+
+            try {
+                if (action.equals(STOP_ALL_ALERTS))
+                    recordEvent(EventTrace.TYPE_STOP_ALL, 0);
 
-                mPendingCall = false;
-                stopAlertingUser(AlerterService.ALERT_FOR_MISSED_CALL);
-                mPendingSms = false;
-                mPendingMms = false;
-                stopAlertingUser(AlerterService.ALERT_FOR_TEXT);
-                mPendingVoicemail = false;
-                stopAlertingUser(AlerterService.ALERT_FOR_VOICE_MAIL);
+                if (action.equals(STOP_ALL_ALERTS) || action.equals(AlerterService.ALERTS_STOPPED)){
+
+                    mDetection.onAllAlertsStopped();
+                }
+                else if (action.equals(AlerterService.ALERTS_DECLINED)) {
+
+                    int channel = intent.getIntExtra(AlerterService.EXTRA_ALERT_FOR, -1);
+
+                    if (Channels.isChannel(channel))
+                        mAlertStartTime[channel] = 0;
+                }
+            } finally {
+                mTracer.endSection();
             }
         }
     }
 
 
-    private class BatteryReceiver extends BroadcastReceiver {
+    private BatteryGovernor.OnPowerTierChangedListener mBatteryListener = new BatteryGovernor.OnPowerTierChangedListener() {
 
         @Override
-        public void onReceive(Context context, Intent intent) {
+        public void onPowerTierChanged(int tier) {
+
+            // detection stays alive in every tier, the AlerterService picks
+            //  up the new tier on its next alert
+            Log.i(TAG, "Power tier changed to " + tier);
 
-            // if the battery is too low and device is not charging, stop service
-            if (isBatteryLevelTooLow(intent.getIntExtra(BatteryManager.EXTRA_LEVEL, 100))
-                    && intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, -1) == 0)
-                stopSelf();
+            recordEvent(EventTrace.TYPE_BATTERY, mBatteryGovernor.getLevelPercentage());
+            recordEvent(EventTrace.TYPE_POWER_TIER, tier);
         }
-    }
+    };
 
 
     private class SmsReceiver extends BroadcastReceiver {
@@ -165,19 +308,20 @@ public class MissedMessageListenerService extends Service {
         @Override
         public void onReceive(Context context, Intent intent) {
 
+            mTracer.beginSection("listener.onReceive.sms");
 
-            if (mPreferences.getAlertsEnabled() && !mPendingSms
-                    && mPreferences.getTextAlertPreferences().getEnabled()
-                    && !mCurrentlyInCall) {
+            try {
+                recordEvent(EventTrace.TYPE_SMS, 0);
 
+                // messages only from ignored senders are not worth detecting
+                if (addSmsMessages(intent)) {
 
-                mPendingSms = true;
-                mLastSmsCount = 0;
-                mFirstSmsDetectTime = System.currentTimeMillis();
-                mHandler.removeCallbacks(mUpdateRunnable);
-                mHandler.postDelayed(mUpdateRunnable, UPDATE_INTERVAL_MS);
+                    mDetection.onSmsReceived();
+                    forgetIfNotDetected(Channels.TEXT);
+                }
+            } finally {
+                mTracer.endSection();
             }
-
         }
     }
 
@@ -187,104 +331,154 @@ public class MissedMessageListenerService extends Service {
         @Override
         public void onReceive(Context context, Intent intent) {
 
+            mTracer.beginSection("listener.onReceive.mms");
 
-            if (mPreferences.getAlertsEnabled() && !mPendingMms
-                    && mPreferences.getTextAlertPreferences().getEnabled()
-                    && !mCurrentlyInCall) {
+            try {
+                recordEvent(EventTrace.TYPE_MMS, 0);
 
+                // the sender and body of an mms are not in the push, count it only
+                if (addMessage(Channels.TEXT, null, null)) {
 
-                mPendingMms = true;
-                mLastMmsCount = 0;
-                mFirstMmsDetectTime = System.currentTimeMillis();
-                mHandler.removeCallbacks(mUpdateRunnable);
-                mHandler.postDelayed(mUpdateRunnable, UPDATE_INTERVAL_MS);
+                    mDetection.onMmsReceived();
+                    forgetIfNotDetected(Channels.TEXT);
+                }
+            } finally {
+                mTracer.endSection();
             }
+        }
+    }
+
+
+    private class ScreenReceiver extends BroadcastReceiver {
 
+        @Override
+        public void onReceive(Context context, Intent intent) {
+
+            recordEvent(EventTrace.TYPE_SCREEN, Intent.ACTION_SCREEN_ON.equals(intent.getAction()) ? 1 : 0);
         }
     }
 
 
-    // PHONE STATE LISTENER -----------------------------------------
+    /*
+     * Trace file opened when the trace is first written out. If it cannot be
+     * opened the writes fail, and the trace writer stops recording.
+     */
+    private class TraceFileStream extends OutputStream {
 
+        private OutputStream mOut;
+        private boolean mOpened = false;
 
-    PhoneStateListener mPhoneStateListener = new PhoneStateListener() {
+        @Override
+        public void write(int b) throws IOException {
 
-        private boolean startedRinging = false;
-        private boolean wasAnswered = false;
+            getStream().write(b);
+        }
 
         @Override
-        public void onCallStateChanged(int state, String incomingNumber) {
+        public void write(byte[] b, int off, int len) throws IOException {
 
+            getStream().write(b, off, len);
+        }
 
-            if (!(mPreferences.getAlertsEnabled()
-                    && mPreferences.getMissedCallAlertPreferences().getEnabled()))
-                return;
+        @Override
+        public void flush() throws IOException {
 
+            getStream().flush();
+        }
 
-            switch (state) {
-                case TelephonyManager.CALL_STATE_RINGING:
-                    startedRinging = true;
-                    wasAnswered = false;
-                    break;
-                case TelephonyManager.CALL_STATE_OFFHOOK:
-                    wasAnswered = true;
-                    mCurrentlyInCall = true;
-                    break;
+        @Override
+        public void close() throws IOException {
 
-                case TelephonyManager.CALL_STATE_IDLE:
-                    if (startedRinging && !wasAnswered && !mPendingCall) {     // call was missed
+            if (mOut != null)
+                mOut.close();
+        }
 
-                        mPendingCall = true;
-                        mLastMissedCallCount = 0;
-                        mFirstMissedCallDetectTime = System.currentTimeMillis();
-                        mHandler.removeCallbacks(mUpdateRunnable);
-                        mHandler.postDelayed(mUpdateRunnable, UPDATE_INTERVAL_MS);
-                    }
+        private OutputStream getStream() throws IOException {
 
-                    startedRinging = false;
-                    wasAnswered = false;
+            if (!mOpened) {
 
-                    if (mCurrentlyInCall && mPreferences.getAlertsEnabled()) {
+                mOut = openTrace();
+                mOpened = true;
+            }
 
-                        if (mPreferences.getTextAlertPreferences().getEnabled()) {
-                            mPendingSms = true;
-                            mPendingMms = true;
-                        }
+            if (mOut == null)
+                throw new IOException("Event trace not open");
 
-                        if (mPreferences.getMissedCallAlertPreferences().getEnabled()) {
-                            mPendingCall = true;
-                        }
+            return mOut;
+        }
+    }
 
-                        updateService();
-                    }
 
-                    mCurrentlyInCall = false;
+    private SharedPreferences.OnSharedPreferenceChangeListener mPreferenceListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
 
-                    break;
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
 
-                default:
+            recordPreferences();
+        }
+    };
+
+
+    // PHONE STATE LISTENER -----------------------------------------
+
+
+    PhoneStateListener mPhoneStateListener = new PhoneStateListener() {
+
+        @Override
+        public void onCallStateChanged(int state, String incomingNumber) {
+
+            int call_state;
+
+            switch (state) {
+                case TelephonyManager.CALL_STATE_RINGING:
+                    call_state = DetectionStateMachine.CALL_STATE_RINGING;
+                    break;
+                case TelephonyManager.CALL_STATE_OFFHOOK:
+                    call_state = DetectionStateMachine.CALL_STATE_OFFHOOK;
+                    break;
+                case TelephonyManager.CALL_STATE_IDLE:
+                    call_state = DetectionStateMachine.CALL_STATE_IDLE;
                     break;
+                default:
+                    return;
             }
 
+            mTracer.beginSection("listener.onCallStateChanged");
+
+            try {
+                recordEvent(EventTrace.TYPE_CALL_STATE, call_state);
+
+                // a call that stops ringing without being answered is missed
+                if (call_state == DetectionStateMachine.CALL_STATE_RINGING)
+                    mRingingNumber = incomingNumber != null ? incomingNumber : "";
+                else if (call_state == DetectionStateMachine.CALL_STATE_IDLE && mRingingNumber != null)
+                    addMessage(Channels.MISSED_CALL, mRingingNumber, null);
+
+                mDetection.onCallStateChanged(call_state);
+
+                if (call_state == DetectionStateMachine.CALL_STATE_IDLE && mRingingNumber != null)
+                    forgetIfNotDetected(Channels.MISSED_CALL);
 
+                // the ringing number decides whether detection follows the call
+                if (call_state != DetectionStateMachine.CALL_STATE_RINGING)
+                    mRingingNumber = null;
+            } finally {
+                mTracer.endSection();
+            }
         }
 
 
         @Override
         public void onMessageWaitingIndicatorChanged(boolean mwi) {
 
+            mTracer.beginSection("listener.onMessageWaitingIndicatorChanged");
 
-            if (mwi && !mPendingVoicemail && mPreferences.getAlertsEnabled()
-                    && mPreferences.getVoiceMailAlertPreferences().getEnabled()
-                    && !mCurrentlyInCall) {
-
-                mPendingVoicemail = true;
-                startAlertingUser(AlerterService.ALERT_FOR_VOICE_MAIL);
-                mHandler.removeCallbacks(mUpdateRunnable);
-                mHandler.postDelayed(mUpdateRunnable, UPDATE_INTERVAL_MS);
-            } else{
-                mPendingVoicemail = false;
-                stopAlertingUser(AlerterService.ALERT_FOR_MISSED_CALL);
+            try {
+                recordEvent(EventTrace.TYPE_MWI, mwi ? 1 : 0);
+                mDetection.onMessageWaitingIndicatorChanged(mwi);
+            } finally {
+                mTracer.endSection();
             }
         }
 
@@ -301,30 +495,86 @@ public class MissedMessageListenerService extends Service {
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+
+        // preferences may have changed since the service was created
+        mBatteryGovernor.reloadThresholds();
+        recordPreferences();
+
         return Service.START_STICKY;
     }
 
     @Override
     public void onCreate() {
 
+        mCreateTime = SystemClock.elapsedRealtime();
+
         mPreferences = new AppPreferences(this);
 
         // make notification object for status bar that will send this service STOP_ALL_ALERTS
-        PendingIntent pi = PendingIntent.getBroadcast(getApplicationContext(), 0, new Intent(STOP_ALL_ALERTS), 0);
+        mStopAllIntent = PendingIntent.getBroadcast(getApplicationContext(), 0, new Intent(STOP_ALL_ALERTS), 0);
         mNotificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
         mNotification = new Notification(R.drawable.ic_notification, getResources().getString(R.string.notify_ticker),
                 System.currentTimeMillis());
         mNotification.flags |= Notification.FLAG_ONGOING_EVENT;
         mNotification.setLatestEventInfo(getApplicationContext(), getResources().getString(R.string.notify_title),
-                getResources().getString(R.string.notify_text), pi);
+                getResources().getString(R.string.notify_text), mStopAllIntent);
+
+        // sender names for the notification, cached until the contacts change
+        mContactResolver = new PhoneLookupResolver(getContentResolver());
+        mContacts = new ContactCache(mContactResolver);
+        mContacts.setMetrics(mMetrics);
+
+        // records are buffered until the file is opened off of the creation path
+        mTraceWriter = new EventTraceWriter(new TraceFileStream(), mClock);
+
+        final String unread = "read = 0";
+        final String new_missed_call = CallLog.Calls.TYPE + " = " + CallLog.Calls.MISSED_TYPE + " AND "
+                + CallLog.Calls.NEW + " = 1";
+
+        MessageSource[] sources = new MessageSource[DetectionStateMachine.SOURCE_COUNT];
+        mMeteredSources = new MeteredMessageSource[DetectionStateMachine.SOURCE_COUNT];
+        sources[DetectionStateMachine.SOURCE_SMS] = new ProviderMessageSource(getContentResolver(),
+                Uri.parse("content://sms"), new String[] {"_id"}, unread);
+        sources[DetectionStateMachine.SOURCE_MMS] = new ProviderMessageSource(getContentResolver(),
+                Uri.parse("content://mms"), new String[] {"_id"}, unread);
+        sources[DetectionStateMachine.SOURCE_CALLS] = new ProviderMessageSource(getContentResolver(),
+                CallLog.Calls.CONTENT_URI, new String[] {CallLog.Calls._ID}, new_missed_call);
+
+        final String[] source_names = {"sms", "mms", "calls"};
+
+        for (int i = 0; i < sources.length; ++i) {
+
+            mMeteredSources[i] = new MeteredMessageSource(sources[i], mMetrics, source_names[i]);
+            sources[i] = new RecordingMessageSource(mMeteredSources[i], i, mTraceWriter);
+        }
+
+        mDetection = new DetectionStateMachine(mClock, new HandlerScheduler(mHandler),
+                mDetectionSettings, mDetectionOutput, sources);
+        mDetection.setMetrics(mMetrics);
+        mDetection.setTracer(mTracer);
 
 
         mServiceControlReceiver = new ServiceControlReceiver();
         registerReceiver(mServiceControlReceiver, new IntentFilter(STOP_ALL_ALERTS));
         registerReceiver(mServiceControlReceiver, new IntentFilter(AlerterService.ALERTS_STOPPED));
+        registerReceiver(mServiceControlReceiver, new IntentFilter(AlerterService.ALERTS_DECLINED));
+
+        mBatteryGovernor = new BatteryGovernor(this, mPreferences, mBatteryListener);
+        mBatteryGovernor.start();
+
+        recordPreferences();
+        recordEvent(EventTrace.TYPE_BATTERY, mBatteryGovernor.getLevelPercentage());
+        recordEvent(EventTrace.TYPE_POWER_TIER, mBatteryGovernor.getPowerTier());
+
+        mPreferences.registerOnChangeListener(mPreferenceListener);
 
-        mBatteryReceiver = new BatteryReceiver();
-        registerReceiver(mBatteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        mScreenReceiver = new ScreenReceiver();
+        IntentFilter screen_filter = new IntentFilter(Intent.ACTION_SCREEN_ON);
+        screen_filter.addAction(Intent.ACTION_SCREEN_OFF);
+        registerReceiver(mScreenReceiver, screen_filter);
+
+        PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        recordEvent(EventTrace.TYPE_SCREEN, pm.isScreenOn() ? 1 : 0);
 
 
         mSmsReceiver = new SmsReceiver();
@@ -338,45 +588,107 @@ public class MissedMessageListenerService extends Service {
         mTelephonyManager.listen(mPhoneStateListener, PhoneStateListener.LISTEN_CALL_STATE | PhoneStateListener.LISTEN_MESSAGE_WAITING_INDICATOR);
 
 
-        // run the update method in case there are already missed messages
-        //  when the service starts
-        if (mPreferences.getAlertsEnabled()) {
-
-            if (mPreferences.getTextAlertPreferences().getEnabled()) {
-                mPendingSms = true;
-                mPendingMms = true;
-            }
-
-            if (mPreferences.getMissedCallAlertPreferences().getEnabled()) {
-                mPendingCall = true;
-            }
+        // scan for missed messages that were already present when the service
+        //  starts, but keep the provider queries off of the creation path
+        if (SystemClock.uptimeMillis() < BOOT_SETTLE_UPTIME_MS)
+            mHandler.postDelayed(mInitialScanRunnable, mInitialScanDelay);
+        else
+            mHandler.post(mInitialScanRunnable);
 
-            updateService();
-        }
+        mStartupTimeMs = SystemClock.elapsedRealtime() - mCreateTime;
+        Log.i(TAG, "Listener created in " + mStartupTimeMs + " ms");
     }
 
     @Override
     public void onDestroy() {
 
-        mPendingCall = false;
-        stopAlertingUser(AlerterService.ALERT_FOR_MISSED_CALL);
-        mPendingSms = false;
-        mPendingMms = false;
-        stopAlertingUser(AlerterService.ALERT_FOR_TEXT);
-        mPendingVoicemail = false;
-        stopAlertingUser(AlerterService.ALERT_FOR_VOICE_MAIL);
+        mHandler.removeCallbacks(mInitialScanRunnable);
+
+        mDetection.onAllAlertsStopped();
 
         unregisterReceiver(mServiceControlReceiver);
-        unregisterReceiver(mBatteryReceiver);
+        mBatteryGovernor.stop();
 
         unregisterReceiver(mSmsReceiver);
         unregisterReceiver(mMmsReceiver);
 
         mTelephonyManager.listen(mPhoneStateListener, PhoneStateListener.LISTEN_NONE);
 
+        mContactResolver.stopObserving();
+
+        mPreferences.unregisterOnChangeListener(mPreferenceListener);
+        unregisterReceiver(mScreenReceiver);
+        mTraceWriter.close();
+
+        if (mStats != null)
+            mStats.flush();
+
         stopService(new Intent(this, AlerterService.class));
     }
 
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+
+        if (mTracer.handleDumpArgs(args, writer))
+            return;
+
+        if (args != null && args.length == 1 && args[0].equals("stats")) {
+
+            try {
+                if (mStats != null)
+                    mStats.exportCsv(writer);
+            } catch (IOException e) {
+                writer.println("Export failed: " + e.getMessage());
+            }
+
+            return;
+        }
+
+        writer.println("Pending:");
+
+        for (int channel = 0; channel < Channels.COUNT; ++channel) {
+
+            writer.print("  ");
+            writer.print(Channels.NAMES[channel]);
+            writer.print('=');
+            writer.print(mDetection.isPending(channel));
+            writer.print(" detected_at=");
+            writer.println(mDetection.getDetectTime(channel));
+        }
+
+        writer.println("State:");
+        writer.println("  in_call=" + mDetection.isInCall());
+        writer.println("  power_tier=" + mBatteryGovernor.getPowerTier());
+        writer.println("  battery_percentage=" + mBatteryGovernor.getLevelPercentage());
+        writer.println("  startup_ms=" + mStartupTimeMs);
+        writer.println("  initial_scan_ms=" + mInitialScanTimeMs);
+        writer.println("  system_trace=" + mTracer.isEnabled());
+        writer.println("  sender_rules=" + getSenderRules().getRuleCount());
+        writer.println("  keyword_rules=" + getKeywordRules().getKeywordCount());
+        writer.println("  trace_records=" + mTraceWriter.getRecordCount());
+
+        writer.println("Contact cache:");
+        mContacts.dump(writer, "  ");
+
+        writer.println("Time to acknowledge:");
+
+        QuantileSketch[] sketches = AppStats.getAckSketches(this);
+
+        for (int channel = 0; channel < Channels.COUNT; ++channel) {
+
+            QuantileSketch sketch = sketches[channel];
+
+            writer.println("  " + Channels.NAMES[channel] + ": count=" + sketch.getCount()
+                    + " p50=" + sketch.getQuantile(0.5) + " p90=" + sketch.getQuantile(0.9)
+                    + " p99=" + sketch.getQuantile(0.99));
+        }
+
+        writer.println("Metrics:");
+        mMetrics.dump(writer, "  ");
+
+        AppEventLog.dump(this, writer);
+    }
+
 
 
 
@@ -386,7 +698,7 @@ public class MissedMessageListenerService extends Service {
      * Returns whether a text message (MMS or SMS) is currently pending and unread.
      */
     public boolean isTextPending(){
-        return mPendingMms || mPendingSms;
+        return mDetection.isPending(Channels.TEXT);
     }
 
 
@@ -394,7 +706,7 @@ public class MissedMessageListenerService extends Service {
      * Returns whether a missed call is currently pending.
      */
     public boolean isMissedCallPending(){
-        return mPendingCall;
+        return mDetection.isPending(Channels.MISSED_CALL);
     }
 
 
@@ -402,7 +714,52 @@ public class MissedMessageListenerService extends Service {
      * Returns whether a voice mail is currently pending.
      */
     public boolean isVoiceMailPending(){
-        return mPendingVoicemail;
+        return mDetection.isPending(Channels.VOICE_MAIL);
+    }
+
+
+    /**
+     * Returns whether messages of the given alert channel are currently pending.
+     */
+    public boolean isPending(int channel){
+        return mDetection.isPending(channel);
+    }
+
+
+    /**
+     * Returns the current power tier, one of the AlertProfile TIER constants.
+     */
+    public int getPowerTier(){
+        return mBatteryGovernor.getPowerTier();
+    }
+
+
+    /**
+     * Samples the battery status again and returns the power tier it maps to,
+     * one of the AlertProfile TIER constants. The battery low and okay
+     * broadcasts fire at the system's own level, so while alerting the tier
+     * is kept current with the user's thresholds by calling this on each alert.
+     */
+    public int evaluatePowerTier(){
+        mBatteryGovernor.evaluate();
+        return mBatteryGovernor.getPowerTier();
+    }
+
+
+    /**
+     * Returns the time in milliseconds that the service took to be created.
+     */
+    public long getStartupTimeMillis(){
+        return mStartupTimeMs;
+    }
+
+
+    /**
+     * Returns the time in milliseconds from service creation until the initial
+     * scan for missed messages ran, or 0 if it has not run yet.
+     */
+    public long getInitialScanTimeMillis(){
+        return mInitialScanTimeMs;
     }
 
 
@@ -412,36 +769,38 @@ public class MissedMessageListenerService extends Service {
 
 
     /*
-     * Runs checks to see if pending messages have been acknowledged by the
-     * user, then stops causes alerts to stop or reschedules an update
-     * as needed.
+     * Opens the files and observers the service keeps while it runs. Done on
+     * the first run of the initial scan rather than in onCreate, so creating
+     * the service does no file I/O.
      */
-    private void updateService() {
+    private void openFiles() {
 
-        long cur_time = System.currentTimeMillis();
+        // the event log records crashes in the service from here on
+        AppEventLog.get(this);
 
-        if (mPendingSms)
-            checkAndUpdatePendingSms(cur_time);
+        mStats = AppStats.get(this);
 
-        if (mPendingMms)
-            checkAndUpdatePendingMms(cur_time);
+        for (MeteredMessageSource source : mMeteredSources)
+            source.setStatsStore(mStats);
 
-        if (mPendingCall)
-            checkAndUpdatePendingCall(cur_time);
+        // opens the trace file and writes out the records buffered so far
+        mTraceWriter.flush();
 
-
-        if (mPendingSms || mPendingMms || mPendingCall || mPendingVoicemail)
-            mHandler.postDelayed(mUpdateRunnable, UPDATE_INTERVAL_MS);
+        mContactResolver.startObserving(mContacts, mHandler);
     }
 
 
     /*
-     * If user has chosen to disable service on low battery level, and
-     * the given level is below the specified level, this will return true.
+     * Runs the update method in case there are already missed messages
+     * when the service starts.
      */
-    private boolean isBatteryLevelTooLow(int level) {
+    private void runInitialScan() {
+
+        mInitialScanTimeMs = SystemClock.elapsedRealtime() - mCreateTime;
+        Log.i(TAG, "Initial scan after " + mInitialScanTimeMs + " ms");
 
-        return mPreferences.getDisableOnLowBattery() && level <= mPreferences.getLowBatteryPercentage();
+        recordEvent(EventTrace.TYPE_INITIAL_SCAN, 0);
+        mDetection.runInitialScan();
     }
 
 
@@ -450,14 +809,41 @@ public class MissedMessageListenerService extends Service {
      * in the status bar.
      */
     private void startAlertingUser(int communicationType) {
-        
+
+        // messages found by a scan rather than received, read them from the provider
+        if (mSenders.getTotal(communicationType) == 0 && mIgnoredMessages[communicationType] == 0) {
+
+            if (communicationType == Channels.TEXT)
+                addUnreadSmsMessages();
+            else if (communicationType == Channels.MISSED_CALL)
+                addNewMissedCalls();
+        }
+
+        // messages only from ignored senders or without keywords are not alerted for
+        if (mSenders.getTotal(communicationType) == 0 && mIgnoredMessages[communicationType] > 0)
+            return;
+
+        // the low and okay broadcasts fire at the system's own low level, so
+        //  check the user's thresholds again now that they matter
+        mBatteryGovernor.evaluate();
+
+        int policy = getSenderPolicy(communicationType);
+
         Intent start = new Intent(AlerterService.START_ALERTS);
         start.putExtra(AlerterService.EXTRA_ALERT_FOR, communicationType);
+        start.putExtra(AlerterService.EXTRA_DETECT_TIME, mDetection.getDetectTime(communicationType));
+        start.putExtra(AlerterService.EXTRA_ALWAYS_ALERT,
+                SenderRules.getAction(policy) == SenderRules.ACTION_ALWAYS_ALERT);
+        start.putExtra(AlerterService.EXTRA_PROFILE_FOR, SenderRules.getProfileChannel(policy));
 
         startService(start);
 
-        if (mPreferences.getNotificationEnabled())
-            mNotificationManager.notify(NOTIFICATION_ID, mNotification);
+        // a start sent again to escalate keeps the time of the first, unless it was declined
+        if (!mAlerting[communicationType] || mAlertStartTime[communicationType] == 0)
+            mAlertStartTime[communicationType] = mClock.currentTimeMillis();
+
+        mAlerting[communicationType] = true;
+        updateNotification();
     }
 
 
@@ -465,116 +851,285 @@ public class MissedMessageListenerService extends Service {
      * Tells the AlerterService to stop alerting and removes the notification
      * from the status bar.
      */
-    private void stopAlertingUser(int communicationType) {
+    private void stopAlertingUser(int communicationType, boolean anyPending) {
 
         Intent stop = new Intent(AlerterService.STOP_ALERTS);
         stop.putExtra(AlerterService.EXTRA_ALERT_FOR, communicationType);
         
         sendBroadcast(stop);
 
-        if(!(mPendingCall || mPendingSms || mPendingMms || mPendingVoicemail)){
+        mAlerting[communicationType] = false;
+        mAlertStartTime[communicationType] = 0;
+        clearMessages(communicationType);
+
+        if (anyPending)
+            updateNotification();
+        else {
 
             mNotificationManager.cancel(NOTIFICATION_ID);
-            mHandler.removeCallbacks(mUpdateRunnable);
+
+            // detection has gone idle, a good time to write out the trace
+            mTraceWriter.flush();
         }
     }
 
 
     /*
-     * After a new sms message is detected by way of receiving a broadcast message,
-     * this method first verifies that a new message was actually received. If so,
-     * this method sends a start alert message to the AlerterService and begins
-     * checking for user acknowledgement of the message.
-     *
-     * If no new sms message can be verified after NEW_MESSAGE_TIMEOUT_MS time passes,
-     * the alerts do not begin and this method is no longer called.
+     * Forgets the messages counted for the channel and the policy they set.
      */
-    private void checkAndUpdatePendingSms(long currentTime) {
+    private void clearMessages(int channel) {
 
-        final String[] proj = {"_id"};
-        final String where = "read = 0";
+        mSenders.clear(channel);
+        mIgnoredMessages[channel] = 0;
 
-        Cursor c = getContentResolver().query(Uri.parse("content://sms"), proj, where, null, null);
+        if (channel == Channels.TEXT)
+            mKeywordPolicy = SenderRules.ACTION_NONE;
+        else if (channel == Channels.MISSED_CALL)
+            mRepeatCallPolicy = SenderRules.ACTION_NONE;
+    }
 
-        if (c == null)
-            return;
 
-        try {
-            int sms_count = c.getCount();
+    /*
+     * Forgets the messages just counted for the channel if detection did not
+     * act on them, as when alerts or the channel are disabled. Their senders
+     * and keywords would otherwise carry over into a later, unrelated alert.
+     * Messages received during a call are kept for the scan after it ends.
+     */
+    private void forgetIfNotDetected(int channel) {
 
-            if (sms_count == 0 && mLastSmsCount != 0){
+        if (!mAlerting[channel] && !mDetection.isPending(channel) && !mDetection.isInCall())
+            clearMessages(channel);
+    }
 
-                mPendingSms = false;
-                stopAlertingUser(AlerterService.ALERT_FOR_TEXT);
-            }
 
-            else if (sms_count > 0) {
+    /*
+     * Counts a message from the sender, and shows it in the notification
+     * if the user is already being alerted for the channel. The body of a
+     * text is scanned for keywords, it is null if unknown. Returns false
+     * if the message is ignored or repeats a recent text.
+     */
+    private boolean addMessage(int channel, String number, CharSequence body) {
 
-                if (mLastSmsCount == 0)
-                    startAlertingUser(AlerterService.ALERT_FOR_TEXT);
+        return addMessage(channel, number, body, mClock.currentTimeMillis());
+    }
 
-                mLastSmsCount = sms_count;
 
-            }
-            else if (currentTime - mFirstSmsDetectTime >= NEW_MESSAGE_TIMEOUT_MS){
+    /*
+     * Counts a message received at the given time, as addMessage does.
+     */
+    private boolean addMessage(int channel, String number, CharSequence body, long timeMs) {
+
+        int action = SenderRules.getAction(getSenderRules().match(number));
+
+        // a resent page neither starts alerts again nor raises them
+        if (channel == Channels.TEXT && body != null && action != SenderRules.ACTION_IGNORE
+                && getDuplicateFilter().isDuplicate(number, body)) {
+
+            mDuplicateCounter.increment();
+            ++mIgnoredMessages[channel];
+            return false;
+        }
+
+        if (channel == Channels.TEXT && action != SenderRules.ACTION_ALWAYS_ALERT
+                && action != SenderRules.ACTION_IGNORE) {
+
+            int keyword_policy = getKeywordRules().match(body);
+
+            if (keyword_policy == SenderRules.ACTION_NONE && mPreferences.getKeywordsOnly())
+                action = SenderRules.ACTION_IGNORE;
+
+            mKeywordPolicy = SenderRules.strongest(mKeywordPolicy, keyword_policy);
+        }
+
+        if (action == SenderRules.ACTION_IGNORE) {
 
-                mPendingSms = false;
-                stopAlertingUser(AlerterService.ALERT_FOR_TEXT);
+            ++mIgnoredMessages[channel];
+            return false;
+        }
+
+        mSenders.add(channel, number);
+
+        // a call seen ringing is also in the call log, where it started earlier
+        //  than it was recorded, so only calls after the latest one are new
+        if (channel == Channels.MISSED_CALL && number != null && number.length() > 0
+                && timeMs > mRepeatCallers.getLatest(number)
+                && mRepeatCallers.record(number, timeMs) >= REPEAT_CALL_THRESHOLD) {
+
+            int policy = SenderRules.strongest(mRepeatCallPolicy,
+                    SenderRules.parsePolicy(mPreferences.getRepeatCallerAlert()));
+
+            // a repeat call while alerting escalates the alerts already running
+            if (policy != mRepeatCallPolicy) {
+
+                mRepeatCallPolicy = policy;
+
+                if (mAlerting[channel])
+                    startAlertingUser(channel);
             }
-        } catch (Exception e) {
-            mPendingSms = false;
-            stopAlertingUser(AlerterService.ALERT_FOR_TEXT);
-        } finally {
+        }
 
-            c.close();
+        if (mAlerting[channel])
+            updateNotification();
+
+        return true;
+    }
+
+
+    /*
+     * Returns the sender rules, compiled again only when they have been edited.
+     */
+    private SenderRules getSenderRules() {
+
+        String text = mPreferences.getSenderRules();
+
+        if (mSenderRules == null || !text.equals(mSenderRulesText)) {
+
+            mSenderRules = SenderRules.parse(text);
+            mSenderRulesText = text;
         }
+
+        return mSenderRules;
     }
 
 
     /*
-    * After a new mms message is detected by way of receiving a broadcast message,
-    * this method first verifies that a new message was actually received. If so,
-    * this method sends a start alert message to the AlerterService and begins
-    * checking for user acknowledgement of the message.
-    *
-    * If no new mms message can be verified after NEW_MESSAGE_TIMEOUT_MS time passes,
-    * the alerts do not begin and this method is no longer called.
-    */
-    private void checkAndUpdatePendingMms(long currentTime) {
+     * Returns the duplicate filter, replaced when its window has been changed.
+     */
+    private DuplicateFilter getDuplicateFilter() {
 
-        final String[] proj = {"_id"};
-        final String where = "read = 0";
+        long window_ms = Integer.parseInt(mPreferences.getDuplicateWindow()) * 60000L;
 
-        Cursor c = getContentResolver().query(Uri.parse("content://mms"), proj, where, null, null);
+        if (mDuplicates == null || mDuplicates.getWindowMs() != window_ms)
+            mDuplicates = new DuplicateFilter(mClock, window_ms);
 
-        if (c == null)
-            return;
+        return mDuplicates;
+    }
 
-        try {
-            int mms_count = c.getCount();
 
-            if (mms_count == 0 && mLastMmsCount != 0){
+    /*
+     * Returns the keyword rules, compiled again only when they have been edited.
+     */
+    private KeywordRules getKeywordRules() {
+
+        String text = mPreferences.getKeywordRules();
 
-                mPendingMms = false;
-                stopAlertingUser(AlerterService.ALERT_FOR_TEXT);
-            }
+        if (mKeywordRules == null || !text.equals(mKeywordRulesText)) {
 
-            else if (mms_count > 0) {
+            mKeywordRules = KeywordRules.parse(text);
+            mKeywordRulesText = text;
+        }
 
-                if (mLastMmsCount == 0)
-                    startAlertingUser(AlerterService.ALERT_FOR_TEXT);
+        return mKeywordRules;
+    }
 
-                mLastMmsCount = mms_count;
-            }
-            else if (currentTime - mFirstMmsDetectTime >= NEW_MESSAGE_TIMEOUT_MS){
 
-                mPendingMms = false;
-                stopAlertingUser(AlerterService.ALERT_FOR_TEXT);
+    /*
+     * Returns the policy of the senders of the channel's pending messages,
+     * and of the keywords in them for texts. Always alerting wins over
+     * using another profile.
+     */
+    private int getSenderPolicy(int channel) {
+
+        SenderRules rules = getSenderRules();
+        int policy = SenderRules.ACTION_NONE;
+
+        for (int i = 0; i < mSenders.getSenderCount(channel); ++i) {
+
+            int sender_policy = rules.match(mSenders.getNumber(channel, i));
+            int action = SenderRules.getAction(sender_policy);
+
+            if (action == SenderRules.ACTION_ALWAYS_ALERT)
+                return sender_policy;
+
+            if (action == SenderRules.ACTION_USE_PROFILE && policy == SenderRules.ACTION_NONE)
+                policy = sender_policy;
+        }
+
+        if (channel == Channels.TEXT)
+            policy = SenderRules.strongest(policy, mKeywordPolicy);
+        else if (channel == Channels.MISSED_CALL)
+            policy = SenderRules.strongest(policy, mRepeatCallPolicy);
+
+        return policy;
+    }
+
+
+    /*
+     * Returns whether the call ringing now is from a sender that is always
+     * alerted for. The number is only counted once the call is missed, so
+     * detection asks about it directly while it rings.
+     */
+    private boolean isRingingAlwaysAlert() {
+
+        return mRingingNumber != null
+                && SenderRules.getAction(getSenderRules().match(mRingingNumber)) == SenderRules.ACTION_ALWAYS_ALERT;
+    }
+
+
+    /*
+     * Counts the messages in an SMS_RECEIVED broadcast. The parts of a long
+     * message arrive together and are joined into one body. Returns false
+     * if every message is ignored.
+     */
+    private boolean addSmsMessages(Intent intent) {
+
+        Bundle extras = intent.getExtras();
+        Object[] pdus = extras != null ? (Object[]) extras.get("pdus") : null;
+
+        if (pdus == null || pdus.length == 0)
+            return addMessage(Channels.TEXT, null, null);
+
+        String number = null;
+        StringBuilder body = new StringBuilder();
+        boolean any_added = false;
+
+        for (int i = 0; i < pdus.length; ++i) {
+
+            SmsMessage message = SmsMessage.createFromPdu((byte[]) pdus[i]);
+
+            if (message == null)
+                continue;
+
+            String part_number = message.getOriginatingAddress();
+
+            if (body.length() > 0 && (part_number == null || !part_number.equals(number))) {
+
+                any_added |= addMessage(Channels.TEXT, number, body);
+                body.setLength(0);
             }
 
-        } catch (Exception e) {
-            mPendingMms = false;
-            stopAlertingUser(AlerterService.ALERT_FOR_TEXT);
+            number = part_number;
+
+            if (message.getMessageBody() != null)
+                body.append(message.getMessageBody());
+        }
+
+        any_added |= addMessage(Channels.TEXT, number, body);
+        return any_added;
+    }
+
+
+    /*
+     * Counts the unread texts in the provider, used when they were found by
+     * a scan and their broadcasts were never seen.
+     */
+    private void addUnreadSmsMessages() {
+
+        Cursor c;
+
+        try {
+            c = getContentResolver().query(Uri.parse("content://sms"), new String[] {"address", "body"},
+                    "read = 0", null, null);
+        } catch (RuntimeException e) {
+            return;
+        }
+
+        if (c == null)
+            return;
+
+        try {
+            while (c.moveToNext())
+                addMessage(Channels.TEXT, c.getString(0), c.getString(1));
         } finally {
 
             c.close();
@@ -582,56 +1137,161 @@ public class MissedMessageListenerService extends Service {
     }
 
 
-
     /*
-     * After a missed call is detected by way of receiving a broadcast message,
-     * this method first verifies that a missed call actually occurred. If so,
-     * this method sends a start alert message to the AlerterService and begins
-     * checking for user acknowledgement of the missed call.
-     *
-     * If no missed calls can be verified after NEW_MESSAGE_TIMEOUT_MS time passes,
-     * the alerts do not begin and this method is no longer called.
-     */
-    private void checkAndUpdatePendingCall(long currentTime) {
-
-        final String[] proj = {CallLog.Calls._ID};
-        final String where = CallLog.Calls.TYPE + " = " + CallLog.Calls.MISSED_TYPE + " AND "
-                + CallLog.Calls.NEW + " = 1";
+     * Counts the new missed calls in the call log, oldest first, used when
+     * they were found by a scan and their ringing was never seen.
+     */
+    private void addNewMissedCalls() {
+
+        Cursor c;
 
-        Cursor c = getContentResolver().query(CallLog.Calls.CONTENT_URI, proj, where, null, null);
+        try {
+            c = getContentResolver().query(CallLog.Calls.CONTENT_URI,
+                    new String[] {CallLog.Calls.NUMBER, CallLog.Calls.DATE},
+                    CallLog.Calls.TYPE + " = " + CallLog.Calls.MISSED_TYPE + " AND " + CallLog.Calls.NEW + " = 1",
+                    null, CallLog.Calls.DATE + " ASC");
+        } catch (RuntimeException e) {
+            return;
+        }
 
         if (c == null)
             return;
 
         try {
+            while (c.moveToNext())
+                addMessage(Channels.MISSED_CALL, c.getString(0), null, c.getLong(1));
+        } finally {
 
-            int missed_call_count = c.getCount();
+            c.close();
+        }
+    }
 
-            if (missed_call_count == 0 && mLastMissedCallCount != 0){
 
-                mPendingCall = false;
-                stopAlertingUser(AlerterService.ALERT_FOR_MISSED_CALL);
-            }
+    /*
+     * Shows what the user is being alerted for and who sent it in the
+     * status bar notification, if it is enabled.
+     */
+    private void updateNotification() {
+
+        if (!mPreferences.getNotificationEnabled())
+            return;
+
+        StringBuilder title = new StringBuilder();
+        StringBuilder text = new StringBuilder();
+        int total = 0;
+
+        for (int channel : Channels.PRIORITY) {
 
-            else if (missed_call_count > 0) {
+            if (!mAlerting[channel])
+                continue;
 
-                if (mLastMissedCallCount == 0)
-                    startAlertingUser(AlerterService.ALERT_FOR_MISSED_CALL);
+            int count = Math.max(1, Math.max(mSenders.getTotal(channel), mDetection.getUnreadCount(channel)));
+            total += count;
 
-                mLastMissedCallCount = missed_call_count;
+            if (title.length() > 0)
+                title.append(", ");
+
+            switch (channel) {
+                case Channels.TEXT:
+                    title.append(getResources().getQuantityString(R.plurals.notify_count_text, count, count));
+                    break;
+                case Channels.MISSED_CALL:
+                    title.append(getResources().getQuantityString(R.plurals.notify_count_missed_call, count, count));
+                    break;
+                default:
+                    title.append(getResources().getString(R.string.notify_voice_mail));
+                    break;
             }
-            else if (currentTime - mFirstMissedCallDetectTime >= NEW_MESSAGE_TIMEOUT_MS){
 
-                mPendingCall = false;
-                stopAlertingUser(AlerterService.ALERT_FOR_MISSED_CALL);
+            for (int i = 0; i < mSenders.getSenderCount(channel); ++i) {
+
+                String number = mSenders.getNumber(channel, i);
+                String name = mContacts.getDisplayName(number);
+                int messages = mSenders.getMessageCount(channel, i);
+
+                if (name == null)
+                    name = number;
+
+                if (text.length() > 0)
+                    text.append(", ");
+
+                if (messages > 1)
+                    text.append(getResources().getString(R.string.notify_sender_count, name, messages));
+                else
+                    text.append(name);
             }
-        } catch (Exception e) {
+        }
 
-            mPendingCall = false;
-            stopAlertingUser(AlerterService.ALERT_FOR_MISSED_CALL);
-        } finally {
+        if (title.length() == 0)
+            title.append(getResources().getString(R.string.notify_title));
 
-            c.close();
+        if (text.length() == 0)
+            text.append(getResources().getString(R.string.notify_text));
+
+        mNotification.number = total;
+        mNotification.setLatestEventInfo(getApplicationContext(), title, text, mStopAllIntent);
+        mNotificationManager.notify(NOTIFICATION_ID, mNotification);
+    }
+
+
+    /*
+     * Starts a new event trace file for this run, keeping the trace of the
+     * previous run. Returns null if the file cannot be opened.
+     */
+    private OutputStream openTrace() {
+
+        File current = getFileStreamPath(TRACE_FILE);
+
+        if (current.exists())
+            current.renameTo(getFileStreamPath(PREVIOUS_TRACE_FILE));
+
+        try {
+            return openFileOutput(TRACE_FILE, Context.MODE_PRIVATE);
+        } catch (IOException e) {
+            Log.w(TAG, "Event trace disabled: " + e.getMessage());
+            return null;
+        }
+    }
+
+
+    private void recordEvent(int type, long value) {
+
+        mTraceWriter.record(type, value);
+    }
+
+
+    /*
+     * Records the preferences that affect when alerts happen, so a
+     * replay of the trace alerts on the same schedule.
+     */
+    private void recordPreferences() {
+
+        if (mTraceWriter.hasFailed())
+            return;
+
+        recordEvent(EventTrace.TYPE_PREF_ALERTS_ENABLED, mPreferences.getAlertsEnabled() ? 1 : 0);
+        recordEvent(EventTrace.TYPE_PREF_COALESCE_WINDOW, Integer.parseInt(mPreferences.getCoalesceWindow()));
+
+        for (int channel = 0; channel < Channels.COUNT; ++channel) {
+
+            AlertPreferences prefs = mPreferences.getAlertPreferences(channel);
+
+            int flags = (prefs.getEnabled() ? EventTrace.PREF_FLAG_ENABLED : 0)
+                    | (prefs.getFlashScreenEnabled() ? EventTrace.PREF_FLAG_FLASH : 0)
+                    | (prefs.getVibrateEnabled() ? EventTrace.PREF_FLAG_VIBRATE : 0)
+                    | (prefs.getAudioEnabled() && prefs.getAlertTone().length() != 0 ? EventTrace.PREF_FLAG_AUDIO : 0)
+                    | (prefs.getSchedulingEnabled() ? EventTrace.PREF_FLAG_SCHEDULING : 0);
+
+            int quiet_start = AlertProfile.toMinuteOfDay(prefs.getSchedulingHourStart(), prefs.getSchedulingMinuteStart());
+            int quiet_end = AlertProfile.toMinuteOfDay(prefs.getSchedulingHourEnd(), prefs.getSchedulingMinuteEnd());
+
+            recordEvent(EventTrace.TYPE_PREF_CHANNEL_FLAGS, EventTrace.packChannel(channel, flags));
+            recordEvent(EventTrace.TYPE_PREF_CHANNEL_INTERVAL,
+                    EventTrace.packChannel(channel, Integer.parseInt(prefs.getInterval())));
+            recordEvent(EventTrace.TYPE_PREF_CHANNEL_DURATION,
+                    EventTrace.packChannel(channel, Integer.parseInt(prefs.getDuration())));
+            recordEvent(EventTrace.TYPE_PREF_CHANNEL_QUIET,
+                    EventTrace.packChannel(channel, quiet_start * EventTrace.MINUTES_PER_DAY + quiet_end));
         }
     }
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.services;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.provider.ContactsContract;
+import com.mma.missedmessagealerts.core.ContactCache;
+
+/**
+ * Looks up the display names of numbers with the contacts PhoneLookup
+ * filter, and invalidates a ContactCache whenever the contacts change.
+ *
+ * @author Michael R. Falcone
+ */
+public class PhoneLookupResolver implements ContactCache.Resolver {
+
+    private static final String[] PROJECTION = {ContactsContract.PhoneLookup.DISPLAY_NAME};
+
+    private ContentResolver mResolver;
+    private ContactCache mCache;
+    private ContentObserver mObserver;
+
+
+    /**
+     * Constructs a new PhoneLookupResolver.
+     * @param resolver resolver used for the lookups
+     */
+    public PhoneLookupResolver(ContentResolver resolver){
+
+        mResolver = resolver;
+    }
+
+
+    @Override
+    public String lookupDisplayName(String number) {
+
+        Uri uri = Uri.withAppendedPath(ContactsContract.PhoneLookup.CONTENT_FILTER_URI, Uri.encode(number));
+        Cursor c;
+
+        try {
+            c = mResolver.query(uri, PROJECTION, null, null, null);
+        } catch (RuntimeException e) {
+            // contacts provider unavailable or permission revoked
+            return null;
+        }
+
+        if (c == null)
+            return null;
+
+        try {
+            return c.moveToFirst() ? c.getString(0) : null;
+        } finally {
+
+            c.close();
+        }
+    }
+
+
+    /**
+     * Invalidates the cache on the handler's thread whenever the contacts change.
+     */
+    public void startObserving(ContactCache cache, Handler handler){
+
+        if (mObserver != null)
+            return;
+
+        mCache = cache;
+        mObserver = new ContentObserver(handler) {
+
+            @Override
+            public void onChange(boolean selfChange) {
+                mCache.invalidate();
+            }
+        };
+
+        mResolver.registerContentObserver(ContactsContract.Contacts.CONTENT_URI, true, mObserver);
+    }
+
+
+    /**
+     * Stops invalidating the cache.
+     */
+    public void stopObserving(){
+
+        if (mObserver == null)
+            return;
+
+        mResolver.unregisterContentObserver(mObserver);
+        mObserver = null;
+    }
+}
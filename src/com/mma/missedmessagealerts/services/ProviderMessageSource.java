@@ -0,0 +1,68 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.services;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import com.mma.missedmessagealerts.core.MessageSource;
+
+/**
+ * Counts unread messages by querying a content provider.
+ *
+ * @author Michael R. Falcone
+ */
+public class ProviderMessageSource implements MessageSource {
+
+    private ContentResolver mResolver;
+    private Uri mUri;
+    private String[] mProjection;
+    private String mSelection;
+
+
+    /**
+     * Constructs a new ProviderMessageSource.
+     * @param resolver resolver used for the queries
+     * @param uri content uri of the messages
+     * @param projection columns to query, kept small since only rows are counted
+     * @param selection where clause matching unread messages
+     */
+    public ProviderMessageSource(ContentResolver resolver, Uri uri, String[] projection, String selection){
+
+        mResolver = resolver;
+        mUri = uri;
+        mProjection = projection;
+        mSelection = selection;
+    }
+
+
+    @Override
+    public int countUnread() {
+
+        Cursor c = mResolver.query(mUri, mProjection, mSelection, null, null);
+
+        if (c == null)
+            return UNAVAILABLE;
+
+        try {
+            return c.getCount();
+        } finally {
+
+            c.close();
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.services;
+
+import android.os.Build;
+import android.util.Log;
+import com.mma.missedmessagealerts.core.Tracer;
+
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+
+/**
+ * Writes trace sections to the system trace through android.os.Trace, so
+ * the detection and alert pipelines show up in systrace and Perfetto.
+ * Trace only exists from API 18 and its async sections were hidden until
+ * API 29, so the methods are looked up by reflection once. Tracing is off
+ * until enabled at runtime. Each thread remembers which of its open sections
+ * were written, so a section begun before tracing is switched on or off is
+ * ended the same way, and the system trace stays balanced.
+ *
+ * @author Michael R. Falcone
+ */
+public final class SystemTracer implements Tracer {
+
+
+    /*
+     * Open sections of one thread, with a bit set for each written section.
+     */
+    private static final class SectionStack {
+
+        private int mDepth;
+        private long mWritten;
+    }
+
+
+
+
+    // MEMBER VARIABLES -----------------------------------------
+
+    private static final String TAG = "SystemTracer";
+
+    private static final int TRACE_API_LEVEL = 18;
+    private static final int PUBLIC_ASYNC_API_LEVEL = 29;
+    private static final long TRACE_TAG_APP = 1L << 12;     // android.os.Trace.TRACE_TAG_APP
+
+    // deeper sections are never written, their bit would not fit
+    private static final int MAX_DEPTH = 64;
+
+    private static final SystemTracer sInstance = new SystemTracer();
+
+
+    private volatile boolean mEnabled = false;
+
+    private final ThreadLocal<SectionStack> mSections = new ThreadLocal<SectionStack>() {
+
+        @Override
+        protected SectionStack initialValue() {
+            return new SectionStack();
+        }
+    };
+
+    private Method mBeginSection;
+    private Method mEndSection;
+    private Method mBeginAsyncSection;
+    private Method mEndAsyncSection;
+    private boolean mTaggedAsync;
+
+
+
+
+    // CONSTRUCTOR -----------------------------------------
+
+    private SystemTracer(){
+
+        if (Build.VERSION.SDK_INT < TRACE_API_LEVEL)
+            return;
+
+        try {
+            Class<?> trace = Class.forName("android.os.Trace");
+
+            mBeginSection = trace.getMethod("beginSection", String.class);
+            mEndSection = trace.getMethod("endSection");
+
+            if (Build.VERSION.SDK_INT >= PUBLIC_ASYNC_API_LEVEL) {
+
+                mBeginAsyncSection = trace.getMethod("beginAsyncSection", String.class, int.class);
+                mEndAsyncSection = trace.getMethod("endAsyncSection", String.class, int.class);
+            }
+            else {
+
+                mTaggedAsync = true;
+                mBeginAsyncSection = trace.getMethod("asyncTraceBegin", long.class, String.class, int.class);
+                mEndAsyncSection = trace.getMethod("asyncTraceEnd", long.class, String.class, int.class);
+            }
+        }
+        catch (Exception e) {
+
+            // async sections are optional, plain sections are enough to trace
+            mBeginAsyncSection = null;
+            mEndAsyncSection = null;
+        }
+    }
+
+
+
+
+    // PUBLIC METHODS -----------------------------------------
+
+    /**
+     * Returns the tracer shared by the application's services.
+     */
+    public static SystemTracer getInstance(){
+
+        return sInstance;
+    }
+
+
+    /**
+     * Returns whether sections can be written on this device.
+     */
+    public boolean isAvailable(){
+
+        return mBeginSection != null && mEndSection != null;
+    }
+
+
+    /**
+     * Starts or stops writing sections. Has no effect if tracing is not available.
+     */
+    public void setEnabled(boolean enabled){
+
+        mEnabled = enabled && isAvailable();
+    }
+
+
+    /**
+     * Returns whether sections are being written.
+     */
+    public boolean isEnabled(){
+
+        return mEnabled;
+    }
+
+
+    /**
+     * Handles the arguments "trace on" and "trace off" given to a service's
+     * dump, as in <code>adb shell dumpsys activity service &lt;name&gt; trace on</code>.
+     * @return whether the arguments were a trace command
+     */
+    public boolean handleDumpArgs(String[] args, PrintWriter writer){
+
+        if (args == null || args.length != 2 || !args[0].equals("trace"))
+            return false;
+
+        if (args[1].equals("on"))
+            setEnabled(true);
+        else if (args[1].equals("off"))
+            setEnabled(false);
+        else
+            return false;
+
+        writer.println("Tracing " + (isEnabled() ? "enabled" : isAvailable() ? "disabled" : "not available"));
+
+        return true;
+    }
+
+
+    @Override
+    public void beginSection(String name){
+
+        SectionStack sections = mSections.get();
+
+        if (mEnabled && sections.mDepth < MAX_DEPTH) {
+
+            sections.mWritten |= 1L << sections.mDepth;
+            invoke(mBeginSection, name);
+        }
+
+        ++sections.mDepth;
+    }
+
+
+    @Override
+    public void endSection(){
+
+        SectionStack sections = mSections.get();
+
+        if (sections.mDepth == 0)
+            return;
+
+        --sections.mDepth;
+
+        if (sections.mDepth < MAX_DEPTH && (sections.mWritten & (1L << sections.mDepth)) != 0) {
+
+            sections.mWritten &= ~(1L << sections.mDepth);
+            invoke(mEndSection);
+        }
+    }
+
+
+    @Override
+    public void beginAsyncSection(String name, int cookie){
+
+        if (mEnabled && mBeginAsyncSection != null)
+            invokeAsync(mBeginAsyncSection, name, cookie);
+    }
+
+
+    @Override
+    public void endAsyncSection(String name, int cookie){
+
+        if (mEnabled && mEndAsyncSection != null)
+            invokeAsync(mEndAsyncSection, name, cookie);
+    }
+
+
+
+
+    // PRIVATE METHODS -----------------------------------------
+
+    private void invokeAsync(Method method, String name, int cookie){
+
+        if (mTaggedAsync)
+            invoke(method, TRACE_TAG_APP, name, cookie);
+        else
+            invoke(method, name, cookie);
+    }
+
+
+    private void invoke(Method method, Object... args){
+
+        try {
+            method.invoke(null, args);
+        }
+        catch (Exception e) {
+
+            Log.w(TAG, "Disabling tracing after failed call to " + method.getName(), e);
+            mEnabled = false;
+        }
+    }
+}
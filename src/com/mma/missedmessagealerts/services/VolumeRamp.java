@@ -0,0 +1,189 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.services;
+
+import android.media.MediaPlayer;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import com.mma.missedmessagealerts.core.Channels;
+
+/**
+ * Fades alert tones in from silence to their volume. The volume is raised
+ * in small steps on a background audio thread, so the ramp adds no work to
+ * the main thread, and each channel's step is a runnable created up front,
+ * so stepping allocates nothing. Players are stepped under a lock that stop
+ * also takes, so once stop returns a player may be released safely even in
+ * the middle of a ramp.
+ *
+ * @author Michael R. Falcone
+ */
+public class VolumeRamp {
+
+
+    private static final long STEP_MS = 50;
+
+
+
+    // MEMBER VARIABLES -----------------------------------------
+
+    private final Object mLock = new Object();
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+
+    private MediaPlayer[] mPlayers = new MediaPlayer[Channels.COUNT];    // null when not ramping
+    private float[] mVolumes = new float[Channels.COUNT];
+    private int[] mSteps = new int[Channels.COUNT];
+    private int[] mStepCounts = new int[Channels.COUNT];
+
+
+
+    // STEP RUNNABLES -----------------------------------------
+
+    private class ChannelStepRunnable implements Runnable {
+
+        private final int mChannel;
+
+        ChannelStepRunnable(int channel){
+            mChannel = channel;
+        }
+
+        @Override
+        public void run() {
+
+            synchronized (mLock) {
+
+                MediaPlayer player = mPlayers[mChannel];
+
+                if (player == null)
+                    return;
+
+                int step = ++mSteps[mChannel];
+
+                try {
+                    setVolume(player, mVolumes[mChannel], step, mStepCounts[mChannel]);
+                } catch (IllegalStateException e) {
+
+                    // the player completed or failed, it is released elsewhere
+                    mPlayers[mChannel] = null;
+                    return;
+                }
+
+                if (step < mStepCounts[mChannel])
+                    mHandler.postDelayed(this, STEP_MS);
+                else
+                    mPlayers[mChannel] = null;
+            }
+        }
+    }
+
+
+    private final Runnable[] mStepRunnables = {
+            new ChannelStepRunnable(Channels.TEXT),
+            new ChannelStepRunnable(Channels.MISSED_CALL),
+            new ChannelStepRunnable(Channels.VOICE_MAIL)
+    };
+
+
+
+
+    // PUBLIC METHODS -----------------------------------------
+
+    /**
+     * Silences the player and starts raising its volume to the given volume
+     * over the given time. Call before starting the player, so it does not
+     * begin at full volume.
+     */
+    public void start(int channel, MediaPlayer player, float volume, long rampMs){
+
+        synchronized (mLock) {
+
+            if (mThread == null) {
+
+                mThread = new HandlerThread("alerter.audio", Process.THREAD_PRIORITY_AUDIO);
+                mThread.start();
+                mHandler = new Handler(mThread.getLooper());
+            }
+
+            mHandler.removeCallbacks(mStepRunnables[channel]);
+
+            mPlayers[channel] = player;
+            mVolumes[channel] = volume;
+            mSteps[channel] = 0;
+            mStepCounts[channel] = (int) Math.max(1, rampMs / STEP_MS);
+
+            setVolume(player, volume, 0, mStepCounts[channel]);
+
+            mHandler.postDelayed(mStepRunnables[channel], STEP_MS);
+        }
+    }
+
+
+    /**
+     * Stops raising the volume of the channel's tone, leaving it as it is.
+     * No step touches the player after this returns.
+     */
+    public void stop(int channel){
+
+        synchronized (mLock) {
+
+            mPlayers[channel] = null;
+
+            if (mHandler != null)
+                mHandler.removeCallbacks(mStepRunnables[channel]);
+        }
+    }
+
+
+    /**
+     * Stops every ramp and the audio thread.
+     */
+    public void quit(){
+
+        synchronized (mLock) {
+
+            for (int channel = 0; channel < Channels.COUNT; ++channel)
+                stop(channel);
+
+            if (mThread != null) {
+
+                mThread.quit();
+                mThread = null;
+                mHandler = null;
+            }
+        }
+    }
+
+
+
+
+    // PRIVATE METHODS -----------------------------------------
+
+    /*
+     * Sets the volume at the given step. An even rise in amplitude sounds
+     * like it jumps up early and then levels off, so the amplitude follows
+     * a squared curve instead.
+     */
+    private static void setVolume(MediaPlayer player, float volume, int step, int stepCount){
+
+        float fraction = (float) step / stepCount;
+        float level = volume * fraction * fraction;
+
+        player.setVolume(level, level);
+    }
+}
@@ -0,0 +1,563 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.services;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.os.Handler;
+import android.os.PowerManager;
+import android.os.PowerManager.WakeLock;
+import android.os.SystemClock;
+import android.util.SparseArray;
+import com.mma.missedmessagealerts.core.Metrics;
+import com.mma.missedmessagealerts.core.StatsStore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Hands out named, time-bounded leases on the application's wake locks.
+ * Leases are counted per channel, and the underlying partial wake lock is
+ * held while any partial lease is active. Every lease expires on its own
+ * after its timeout, and the total time held is recorded per owner.
+ * Screen wake locks are cached per set of flags rather than recreated.
+ *
+ * @author Michael R. Falcone
+ */
+public class WakeLockManager {
+
+
+    /**
+     * Owner of the leases that keep the CPU awake between alerts.
+     */
+    public static final String OWNER_ALERTS = "alerts";
+
+    /**
+     * Owner of the leases that turn the screen on for a flash.
+     */
+    public static final String OWNER_SCREEN = "screen";
+
+    /**
+     * Owner of the leases that keep the CPU awake while a tone plays.
+     */
+    public static final String OWNER_AUDIO = "audio";
+
+
+
+    /**
+     * A time-bounded hold on a wake lock by a named owner for a channel.
+     * Expires on its own when its timeout elapses.
+     */
+    public final class Lease implements Runnable {
+
+        private final String mOwner;
+        private final int mChannel;
+        private final int mScreenFlags;
+
+        private long mAcquireTime;
+        private long mExpireTime;
+        private boolean mActive;
+
+
+        private Lease(String owner, int channel, int screenFlags){
+
+            mOwner = owner;
+            mChannel = channel;
+            mScreenFlags = screenFlags;
+        }
+
+
+        /**
+         * Returns the name of the owner of the lease.
+         */
+        public String getOwner(){
+            return mOwner;
+        }
+
+
+        /**
+         * Returns the channel the lease was acquired for.
+         */
+        public int getChannel(){
+            return mChannel;
+        }
+
+
+        /**
+         * Returns whether the lease has not yet been released or expired.
+         */
+        public boolean isActive(){
+            return mActive;
+        }
+
+
+        /**
+         * Releases the lease before it expires.
+         */
+        public void release(){
+            releaseLease(this);
+        }
+
+
+        @Override
+        public void run() {
+
+            // lease expired
+            releaseLease(this);
+        }
+
+
+        private boolean isScreen(){
+            return mScreenFlags != 0;
+        }
+    }
+
+
+
+
+    /*
+     * Totals of the leases of one owner, and the metrics they are recorded in.
+     */
+    private static final class OwnerStats {
+
+        private final String mOwner;
+
+        private long mHeldMs;
+        private long mAcquisitions;
+
+        private Metrics.Counter mAcquisitionCounter;
+        private Metrics.Histogram mHeldHistogram;
+
+
+        private OwnerStats(String owner){
+
+            mOwner = owner;
+        }
+    }
+
+
+
+
+    // MEMBER VARIABLES -----------------------------------------
+
+    private static final String WAKELOCK_TAG = "com.mma.missedmessagealerts.wakelock";
+    private static final String SCREEN_WAKELOCK_TAG = "com.mma.missedmessagealerts.screenwakelock";
+
+
+    private PowerManager mPowerManager;
+    private Handler mHandler;
+    private boolean mDebug;
+
+    private WakeLock mPartialWakeLock;
+    private SparseArray<WakeLock> mScreenWakeLocks = new SparseArray<WakeLock>();
+    private WakeLock mHeldScreenWakeLock;
+
+    private ArrayList<Lease> mLeases = new ArrayList<Lease>();
+    private int mPartialLeaseCount = 0;
+
+    private HashMap<String, OwnerStats> mOwnerStats = new HashMap<String, OwnerStats>();
+    private Metrics mMetrics;
+    private StatsStore mStats;
+    private long mPartialAcquireTime;
+
+
+
+
+    // CONSTRUCTOR -----------------------------------------
+
+    /**
+     * Constructs a new WakeLockManager.
+     * @param context context used to get the power manager
+     * @param handler handler on which leases expire
+     */
+    public WakeLockManager(Context context, Handler handler){
+
+        mPowerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        mHandler = handler;
+        mDebug = (context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+
+        mPartialWakeLock = mPowerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, WAKELOCK_TAG);
+        mPartialWakeLock.setReferenceCounted(false);
+    }
+
+
+
+
+    // PUBLIC METHODS -----------------------------------------
+
+    /**
+     * Acquires a lease on the partial wake lock. If the owner already holds an
+     * active lease for the channel, that lease is extended instead.
+     * @param owner name of the owner of the lease
+     * @param channel channel the lease is held for
+     * @param timeoutMs time after which the lease expires
+     * @return the active lease
+     */
+    public Lease acquire(String owner, int channel, long timeoutMs){
+
+        return acquireLease(owner, channel, 0, timeoutMs, true);
+    }
+
+
+    /**
+     * Acquires a lease on a screen wake lock with the given flags. If a screen
+     * lease is already active it is returned unchanged.
+     * @param owner name of the owner of the lease
+     * @param channel channel the lease is held for
+     * @param flags PowerManager flags of the screen wake lock
+     * @param timeoutMs time after which the lease expires
+     * @return the active lease, or null if the wake lock could not be created
+     */
+    public Lease acquireScreen(String owner, int channel, int flags, long timeoutMs){
+
+        for (int i = 0; i < mLeases.size(); ++i) {
+
+            Lease lease = mLeases.get(i);
+
+            if (lease.isScreen())
+                return lease;
+        }
+
+        return acquireLease(owner, channel, flags, timeoutMs, false);
+    }
+
+
+    /**
+     * Releases the owner's lease for the channel, if any.
+     */
+    public void release(String owner, int channel){
+
+        Lease lease = findLease(owner, channel);
+
+        if (lease != null)
+            releaseLease(lease);
+    }
+
+
+    /**
+     * Releases every lease held for the channel.
+     */
+    public void releaseChannel(int channel){
+
+        for (int i = mLeases.size() - 1; i >= 0; --i) {
+
+            if (mLeases.get(i).mChannel == channel)
+                releaseLease(mLeases.get(i));
+        }
+    }
+
+
+    /**
+     * Releases every lease.
+     */
+    public void releaseAll(){
+
+        while (!mLeases.isEmpty())
+            releaseLease(mLeases.get(mLeases.size() - 1));
+    }
+
+
+    /**
+     * Returns whether a screen wake lock lease is active.
+     */
+    public boolean isScreenHeld(){
+
+        return mHeldScreenWakeLock != null;
+    }
+
+
+    /**
+     * Returns the number of active leases held for the channel.
+     */
+    public int getLeaseCount(int channel){
+
+        int count = 0;
+
+        for (int i = 0; i < mLeases.size(); ++i) {
+
+            if (mLeases.get(i).mChannel == channel)
+                ++count;
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Returns the total time in milliseconds that the owner has held
+     * leases, including leases that are still active.
+     */
+    public long getHeldTimeMillis(String owner){
+
+        OwnerStats stats = mOwnerStats.get(owner);
+        long held = stats == null ? 0 : stats.mHeldMs;
+        long now = SystemClock.elapsedRealtime();
+
+        for (int i = 0; i < mLeases.size(); ++i) {
+
+            Lease lease = mLeases.get(i);
+
+            if (lease.mOwner.equals(owner))
+                held += now - lease.mAcquireTime;
+        }
+
+        return held;
+    }
+
+
+    /**
+     * Returns the number of leases the owner has acquired.
+     */
+    public long getAcquisitions(String owner){
+
+        OwnerStats stats = mOwnerStats.get(owner);
+        return stats == null ? 0 : stats.mAcquisitions;
+    }
+
+
+    /**
+     * Returns the names of every owner that has acquired a lease.
+     */
+    public String[] getOwners(){
+
+        return mOwnerStats.keySet().toArray(new String[mOwnerStats.size()]);
+    }
+
+
+    /**
+     * Counts acquisitions and records the time each lease is held per
+     * owner in the given registry.
+     */
+    public void setMetrics(Metrics metrics){
+
+        mMetrics = metrics;
+
+        for (OwnerStats stats : mOwnerStats.values())
+            lookUpMetrics(stats);
+    }
+
+
+    /**
+     * Records the time the partial wake lock is held in the hourly
+     * statistics of the given store.
+     */
+    public void setStatsStore(StatsStore stats){
+
+        mStats = stats;
+    }
+
+
+    /**
+     * In debuggable builds, throws an IllegalStateException if the partial
+     * wake lock is still held while no alerts are active.
+     * @param alertsActive whether any channel is currently alerting
+     */
+    public void assertNoLeaks(boolean alertsActive){
+
+        if (!mDebug || alertsActive || mPartialLeaseCount == 0)
+            return;
+
+        StringBuilder owners = new StringBuilder();
+
+        for (int i = 0; i < mLeases.size(); ++i) {
+
+            Lease lease = mLeases.get(i);
+
+            if (!lease.isScreen())
+                owners.append(' ').append(lease.mOwner).append('/').append(lease.mChannel);
+        }
+
+        throw new IllegalStateException("Wake lock held with no active alerts by" + owners);
+    }
+
+
+
+
+    // PRIVATE METHODS -----------------------------------------
+
+    private Lease findLease(String owner, int channel){
+
+        for (int i = 0; i < mLeases.size(); ++i) {
+
+            Lease lease = mLeases.get(i);
+
+            if (lease.mChannel == channel && lease.mOwner.equals(owner))
+                return lease;
+        }
+
+        return null;
+    }
+
+
+    private Lease acquireLease(String owner, int channel, int screenFlags, long timeoutMs, boolean extend){
+
+        long now = SystemClock.elapsedRealtime();
+
+        Lease lease = extend ? findLease(owner, channel) : null;
+
+        if (lease == null) {
+
+            lease = new Lease(owner, channel, screenFlags);
+
+            if (!acquireWakeLock(lease, timeoutMs))
+                return null;
+
+            lease.mAcquireTime = now;
+            lease.mActive = true;
+            mLeases.add(lease);
+
+            OwnerStats stats = getStats(owner);
+            stats.mAcquisitions++;
+
+            if (stats.mAcquisitionCounter != null)
+                stats.mAcquisitionCounter.increment();
+        }
+
+        lease.mExpireTime = now + timeoutMs;
+        mHandler.removeCallbacks(lease);
+        mHandler.postDelayed(lease, timeoutMs);
+
+        return lease;
+    }
+
+
+    private void releaseLease(Lease lease){
+
+        if (!lease.mActive)
+            return;
+
+        lease.mActive = false;
+        mHandler.removeCallbacks(lease);
+        mLeases.remove(lease);
+
+        long held = SystemClock.elapsedRealtime() - lease.mAcquireTime;
+        OwnerStats stats = getStats(lease.mOwner);
+        stats.mHeldMs += held;
+
+        if (stats.mHeldHistogram != null)
+            stats.mHeldHistogram.record(held);
+
+        releaseWakeLock(lease);
+    }
+
+
+    private boolean acquireWakeLock(Lease lease, long timeoutMs){
+
+        try {
+
+            if (!lease.isScreen()) {
+
+                if (mPartialLeaseCount++ == 0) {
+
+                    mPartialWakeLock.acquire();
+                    mPartialAcquireTime = SystemClock.elapsedRealtime();
+                }
+
+                return true;
+            }
+
+            WakeLock screen_lock = mScreenWakeLocks.get(lease.mScreenFlags);
+
+            if (screen_lock == null) {
+
+                screen_lock = mPowerManager.newWakeLock(lease.mScreenFlags, SCREEN_WAKELOCK_TAG);
+                screen_lock.setReferenceCounted(false);
+                mScreenWakeLocks.put(lease.mScreenFlags, screen_lock);
+            }
+
+            // the timeout also bounds the screen lock if this lease is never released
+            screen_lock.acquire(timeoutMs);
+            mHeldScreenWakeLock = screen_lock;
+
+            return true;
+        }
+        catch (RuntimeException e) {
+
+            if (!lease.isScreen())
+                --mPartialLeaseCount;
+
+            return false;
+        }
+    }
+
+
+    private void releaseWakeLock(Lease lease){
+
+        WakeLock lock;
+
+        if (!lease.isScreen()) {
+
+            if (--mPartialLeaseCount > 0)
+                return;
+
+            mPartialLeaseCount = 0;
+            lock = mPartialWakeLock;
+
+            if (mStats != null && lock.isHeld())
+                mStats.add(StatsStore.STAT_WAKELOCK_MS, SystemClock.elapsedRealtime() - mPartialAcquireTime);
+        }
+        else {
+
+            lock = mHeldScreenWakeLock;
+            mHeldScreenWakeLock = null;
+        }
+
+        if (lock == null || !lock.isHeld())
+            return;
+
+        try {
+            lock.release();
+        }
+        catch (RuntimeException e) {
+            // the lock timed out between the check and the release
+        }
+    }
+
+
+    private OwnerStats getStats(String owner){
+
+        OwnerStats stats = mOwnerStats.get(owner);
+
+        if (stats == null) {
+
+            stats = new OwnerStats(owner);
+            lookUpMetrics(stats);
+            mOwnerStats.put(owner, stats);
+        }
+
+        return stats;
+    }
+
+
+    /*
+     * Looks up the owner's counter and histogram once, so acquiring and
+     * releasing a lease only updates them.
+     */
+    private void lookUpMetrics(OwnerStats stats){
+
+        if (mMetrics == null) {
+
+            stats.mAcquisitionCounter = null;
+            stats.mHeldHistogram = null;
+            return;
+        }
+
+        stats.mAcquisitionCounter = mMetrics.counter("wakelock." + stats.mOwner + ".acquisitions");
+        stats.mHeldHistogram = mMetrics.histogram("wakelock." + stats.mOwner + ".held_ms",
+                Metrics.LATENCY_BUCKETS_MS);
+    }
+}
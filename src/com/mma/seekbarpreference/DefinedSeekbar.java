@@ -105,15 +105,7 @@ public class DefinedSeekbar extends SeekBar implements OnSeekBarChangeListener {
             return;
         }
 
-        int final_progress = mPossibleValues[0];
-
-        for (int i = 1; i <= mMaxPossibleValuesIndex; ++i) {
-
-            if (progress >= mPossibleValues[i])
-                final_progress = mPossibleValues[i];
-            else
-                break;
-        }
+        int final_progress = DefinedValues.snap(mPossibleValues, mMaxPossibleValuesIndex, progress);
 
         mAllowNextInvalidValue = true;
         setProgress(final_progress);
@@ -218,27 +210,7 @@ public class DefinedSeekbar extends SeekBar implements OnSeekBarChangeListener {
             mPossibleValues = new int[numValues];
 
 
-        mPossibleValues[0] = possibleValues[0];
-        for (int i = 1; i <= mMaxPossibleValuesIndex; ++i) {
-
-            int cur_value = possibleValues[i];
-            int hole = i;
-
-            for (int j = 0; j < i; ++j) {
-
-                if (cur_value < mPossibleValues[j]) {
-
-                    hole = j;
-
-                    for (int k = i; k > hole; --k)
-                        mPossibleValues[k] = mPossibleValues[k - 1];
-
-                    break;
-                }
-            }
-
-            mPossibleValues[hole] = cur_value;
-        }
+        DefinedValues.sort(possibleValues, numValues, mPossibleValues);
 
 
         if (!mIsFree) {
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.seekbarpreference;
+
+
+/**
+ * Sorting and snapping of the defined values of a DefinedSeekbar,
+ * kept apart from the view so they can be measured off device.
+ *
+ * @author Michael R. Falcone
+ */
+public final class DefinedValues {
+
+
+    private DefinedValues() {
+    }
+
+
+    /**
+     * Copies the first numValues values into sorted in ascending order.
+     * @param values         unsorted values
+     * @param numValues      the number of values to use
+     * @param sorted         destination of at least numValues length
+     */
+    public static void sort(int[] values, int numValues, int[] sorted) {
+
+        sorted[0] = values[0];
+        for (int i = 1; i < numValues; ++i) {
+
+            int cur_value = values[i];
+            int hole = i;
+
+            for (int j = 0; j < i; ++j) {
+
+                if (cur_value < sorted[j]) {
+
+                    hole = j;
+
+                    for (int k = i; k > hole; --k)
+                        sorted[k] = sorted[k - 1];
+
+                    break;
+                }
+            }
+
+            sorted[hole] = cur_value;
+        }
+    }
+
+
+    /**
+     * Returns the greatest defined value not above the progress, or the
+     * smallest defined value if all of them are above it.
+     * @param sorted         defined values in ascending order
+     * @param maxIndex       index of the last defined value
+     * @param progress       progress to snap
+     */
+    public static int snap(int[] sorted, int maxIndex, int progress) {
+
+        int final_progress = sorted[0];
+
+        for (int i = 1; i <= maxIndex; ++i) {
+
+            if (progress >= sorted[i])
+                final_progress = sorted[i];
+            else
+                break;
+        }
+
+        return final_progress;
+    }
+}
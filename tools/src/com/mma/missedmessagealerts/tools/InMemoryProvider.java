@@ -0,0 +1,55 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.tools;
+
+import com.mma.missedmessagealerts.core.MessageSource;
+
+/**
+ * Stands in for the SMS, MMS or call log provider, holding a count of
+ * unread rows.
+ *
+ * @author Michael R. Falcone
+ */
+public class InMemoryProvider implements MessageSource {
+
+    private int mUnread = 0;
+
+
+    @Override
+    public int countUnread() {
+
+        return mUnread;
+    }
+
+
+    /**
+     * Adds an unread row.
+     */
+    public void insertUnread(){
+
+        ++mUnread;
+    }
+
+
+    /**
+     * Marks every row as read.
+     */
+    public void markAllRead(){
+
+        mUnread = 0;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A scripted sequence of input events for the Simulator. Times are in
+ * milliseconds since local midnight of the simulated day.
+ *
+ * @author Michael R. Falcone
+ */
+public class Scenario {
+
+
+    /**
+     * A text message is received.
+     */
+    public static final int EVENT_SMS = 0;
+
+    /**
+     * A multimedia message is received.
+     */
+    public static final int EVENT_MMS = 1;
+
+    /**
+     * The phone rings and is not answered.
+     */
+    public static final int EVENT_MISSED_CALL = 2;
+
+    /**
+     * The voice mail waiting indicator changes, value is 1 if on.
+     */
+    public static final int EVENT_MWI = 3;
+
+    /**
+     * The user reads the messages of a channel, value is the channel.
+     */
+    public static final int EVENT_READ = 4;
+
+    /**
+     * The screen turns on or off, value is 1 if on.
+     */
+    public static final int EVENT_SCREEN = 5;
+
+    /**
+     * The battery level changes, value is the percentage.
+     */
+    public static final int EVENT_BATTERY = 6;
+
+
+    /**
+     * One input event of the scenario.
+     */
+    public static final class Event {
+
+        public final long timeMs;
+        public final int type;
+        public final int value;
+
+        Event(long timeMs, int type, int value){
+
+            this.timeMs = timeMs;
+            this.type = type;
+            this.value = value;
+        }
+    }
+
+
+    public static final long MINUTE_MS = 60 * 1000;
+    public static final long HOUR_MS = 60 * MINUTE_MS;
+
+
+
+    private String mName;
+    private long mEndTimeMs;
+    private List<Event> mEvents = new ArrayList<Event>();
+
+
+
+    /**
+     * Constructs a new Scenario.
+     * @param name name shown in the report
+     * @param endTimeMs time at which the simulation stops
+     */
+    public Scenario(String name, long endTimeMs){
+
+        mName = name;
+        mEndTimeMs = endTimeMs;
+    }
+
+
+    /**
+     * Adds an event to the scenario.
+     * @return this scenario
+     */
+    public Scenario add(long timeMs, int type, int value){
+
+        mEvents.add(new Event(timeMs, type, value));
+        return this;
+    }
+
+
+    public Scenario sms(long timeMs){
+        return add(timeMs, EVENT_SMS, 0);
+    }
+
+    public Scenario mms(long timeMs){
+        return add(timeMs, EVENT_MMS, 0);
+    }
+
+    public Scenario missedCall(long timeMs){
+        return add(timeMs, EVENT_MISSED_CALL, 0);
+    }
+
+    public Scenario mwi(long timeMs, boolean on){
+        return add(timeMs, EVENT_MWI, on ? 1 : 0);
+    }
+
+    public Scenario read(long timeMs, int channel){
+        return add(timeMs, EVENT_READ, channel);
+    }
+
+    public Scenario screen(long timeMs, boolean on){
+        return add(timeMs, EVENT_SCREEN, on ? 1 : 0);
+    }
+
+    public Scenario battery(long timeMs, int percentage){
+        return add(timeMs, EVENT_BATTERY, percentage);
+    }
+
+
+    /**
+     * Returns the name of the scenario.
+     */
+    public String getName(){
+        return mName;
+    }
+
+
+    /**
+     * Returns the time at which the simulation stops.
+     */
+    public long getEndTimeMs(){
+        return mEndTimeMs;
+    }
+
+
+    /**
+     * Returns the events in order of time.
+     */
+    public List<Event> getEvents(){
+
+        List<Event> events = new ArrayList<Event>(mEvents);
+
+        // stable, so events at the same time keep the order they were added in
+        Collections.sort(events, new Comparator<Event>() {
+            @Override
+            public int compare(Event a, Event b) {
+                return a.timeMs < b.timeMs ? -1 : (a.timeMs == b.timeMs ? 0 : 1);
+            }
+        });
+
+        return events;
+    }
+}
@@ -0,0 +1,654 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.tools;
+
+import com.mma.missedmessagealerts.core.AlertProfile;
+import com.mma.missedmessagealerts.core.AlertStateMachine;
+import com.mma.missedmessagealerts.core.Channels;
+import com.mma.missedmessagealerts.core.DetectionStateMachine;
+import com.mma.missedmessagealerts.core.MessageSource;
+import com.mma.missedmessagealerts.core.Scheduler;
+import com.mma.missedmessagealerts.core.VirtualTimeScheduler;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * The detection and alert state machines wired together the way the
+ * services wire them, running in virtual time. Detection starts the
+ * alerter, the alerter stopping clears every pending message, and wake
+ * locks, the screen and the battery are modelled just far enough to
+ * measure wakeups, wake lock time and alerts.
+ *
+ * @author Michael R. Falcone
+ */
+public class SimulatedDevice {
+
+
+    private static final long DAY_MS = 24 * 60 * 60 * 1000;
+
+    private static final long SCREEN_FLASH_MS = 1500;
+    private static final long AUDIO_LEASE_MARGIN_MS = 5000;
+
+    // wake lease slots for each channel
+    private static final int LEASE_ALERTS = 0;
+    private static final int LEASE_AUDIO = 1;
+    private static final int LEASE_SCREEN = 2;
+    private static final int LEASE_KINDS = 3;
+
+
+
+    // MEMBER VARIABLES -----------------------------------------
+
+    private Simulator.Config mConfig;
+    private Simulator.Report mReport = new Simulator.Report();
+    private PrintStream mTimeline;
+
+    private VirtualTimeScheduler mTime;
+    private WakeCountingScheduler mScheduler = new WakeCountingScheduler();
+
+    private CountingSource[] mSources;
+    private DetectionStateMachine mDetection;
+    private AlertStateMachine mAlerts;
+
+    private boolean mAlerterRunning = false;
+    private boolean mScreenOn = false;
+    private int mBatteryPercentage = 100;
+    private int mPowerTier = -1;
+    private long mLastAlertTime = -1;
+
+    private boolean mRinging = false;
+    private boolean mAnswered = false;
+    private long[] mDetectStartTime = {-1, -1, -1};
+
+    private long[] mLeaseStart = new long[Channels.COUNT * LEASE_KINDS];
+    private long[] mLeaseEnd = new long[Channels.COUNT * LEASE_KINDS];
+    private List<long[]> mClosedLeases = new ArrayList<long[]>();
+
+
+
+    // SCHEDULER AND SOURCES -----------------------------------------
+
+    /*
+     * Runs tasks in virtual time, counting a wakeup for every task
+     * that runs while no wake lock is held.
+     */
+    private class WakeCountingScheduler implements Scheduler {
+
+        private IdentityHashMap<Runnable, Runnable> mWrapped = new IdentityHashMap<Runnable, Runnable>();
+
+        @Override
+        public void postDelayed(final Runnable task, long delayMs) {
+
+            Runnable wrapped = mWrapped.get(task);
+
+            if (wrapped == null) {
+
+                wrapped = new Runnable() {
+                    @Override
+                    public void run() {
+                        countWakeup("task");
+                        task.run();
+                    }
+                };
+
+                mWrapped.put(task, wrapped);
+            }
+
+            mTime.postDelayed(wrapped, delayMs);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable task) {
+
+            Runnable wrapped = mWrapped.get(task);
+
+            if (wrapped != null)
+                mTime.removeCallbacks(wrapped);
+        }
+    }
+
+
+    private static class CountingSource implements MessageSource {
+
+        private MessageSource mSource;
+        private long mQueries = 0;
+
+        CountingSource(MessageSource source){
+            mSource = source;
+        }
+
+        @Override
+        public int countUnread() {
+
+            ++mQueries;
+            return mSource.countUnread();
+        }
+    }
+
+
+
+    // STATE MACHINE CALLBACKS -----------------------------------------
+
+    private DetectionStateMachine.Settings mDetectionSettings = new DetectionStateMachine.Settings() {
+
+        @Override
+        public boolean isAlertsEnabled() {
+            return mConfig.alertsEnabled;
+        }
+
+        @Override
+        public boolean isChannelEnabled(int channel) {
+            return mConfig.channelEnabled[channel];
+        }
+    };
+
+
+    private DetectionStateMachine.Output mDetectionOutput = new DetectionStateMachine.Output() {
+
+        @Override
+        public void onStartAlerting(int channel) {
+
+            log("detected channel " + channel);
+
+            if (mDetectStartTime[channel] >= 0) {
+
+                long latency = mTime.currentTimeMillis() - mDetectStartTime[channel];
+
+                mReport.detections++;
+                mReport.totalLatencyMs += latency;
+                mReport.maxLatencyMs = Math.max(mReport.maxLatencyMs, latency);
+                mDetectStartTime[channel] = -1;
+            }
+
+            // starting the alerter service starts every channel when it is created
+            if (!mAlerterRunning) {
+
+                mAlerterRunning = true;
+                mAlerts.startAlertsFor(-1);
+            }
+
+            mAlerts.startAlertsFor(channel);
+
+            if (!mAlerts.isAnyAlerting())
+                stopAlerter();
+        }
+
+        @Override
+        public void onStopAlerting(int channel, boolean anyPending) {
+
+            if (!mAlerterRunning)
+                return;
+
+            mAlerts.stopAlerts(channel);
+
+            if (!mAlerts.isAnyAlerting())
+                stopAlerter();
+        }
+
+        @Override
+        public void onAcknowledged(int channel, long latencyMs) {
+        }
+    };
+
+
+    private AlertStateMachine.Settings mAlertSettings = new AlertStateMachine.Settings() {
+
+        @Override
+        public boolean isAlertsEnabled() {
+            return mConfig.alertsEnabled;
+        }
+
+        @Override
+        public boolean isChannelEnabled(int channel) {
+            return mConfig.channelEnabled[channel];
+        }
+
+        @Override
+        public AlertProfile compileProfile(int channel) {
+            return mConfig.profiles[channel];
+        }
+
+        @Override
+        public long getCoalesceWindowMs() {
+            return mConfig.coalesceWindowMs;
+        }
+
+        @Override
+        public int getPowerTier() {
+
+            if (mPowerTier >= 0)
+                return mPowerTier;
+
+            if (!mConfig.batteryThresholdsEnabled)
+                return AlertProfile.TIER_FULL;
+
+            if (mBatteryPercentage <= Math.min(mConfig.criticalBatteryPercentage, mConfig.lowBatteryPercentage))
+                return AlertProfile.TIER_CRITICAL;
+            else if (mBatteryPercentage <= mConfig.lowBatteryPercentage)
+                return AlertProfile.TIER_REDUCED;
+
+            return AlertProfile.TIER_FULL;
+        }
+    };
+
+
+    private AlertStateMachine.Output mAlertOutput = new AlertStateMachine.Output() {
+
+        @Override
+        public boolean isUserActive() {
+            return mScreenOn && !isLeaseHeld(LEASE_SCREEN);
+        }
+
+        @Override
+        public void vibrate(long[] pattern, int channel) {
+            countAlert("vibrate");
+        }
+
+        @Override
+        public void playTone(AlertProfile profile, int channel) {
+
+            countAlert("tone channel " + channel);
+            acquireLease(channel, LEASE_AUDIO, mConfig.toneMs + AUDIO_LEASE_MARGIN_MS);
+        }
+
+        @Override
+        public void stopTone(int channel) {
+            releaseLease(channel * LEASE_KINDS + LEASE_AUDIO);
+        }
+
+        @Override
+        public void flashScreen(AlertProfile profile, int channel) {
+
+            countAlert("flash channel " + channel);
+
+            if (!isLeaseHeld(LEASE_SCREEN))
+                acquireLease(channel, LEASE_SCREEN, SCREEN_FLASH_MS);
+        }
+
+        @Override
+        public void holdWakeLock(int channel, long timeoutMs) {
+            acquireLease(channel, LEASE_ALERTS, timeoutMs);
+        }
+
+        @Override
+        public void releaseWakeLock(int channel, boolean anyAlerting) {
+
+            for (int kind = 0; kind < LEASE_KINDS; ++kind)
+                releaseLease(channel * LEASE_KINDS + kind);
+        }
+
+        @Override
+        public void onAlertsFinished() {
+            stopAlerter();
+        }
+    };
+
+
+
+
+    // CONSTRUCTOR -----------------------------------------
+
+    /**
+     * Constructs a new SimulatedDevice.
+     * @param config settings of the simulation
+     * @param sources message sources indexed by the DetectionStateMachine SOURCE constants
+     * @param startTimeMs virtual time at which the simulation starts
+     * @param timeZoneOffsetMs offset of local time from UTC
+     */
+    public SimulatedDevice(Simulator.Config config, MessageSource[] sources, long startTimeMs, int timeZoneOffsetMs){
+
+        mConfig = config;
+        mTime = new VirtualTimeScheduler(startTimeMs, timeZoneOffsetMs);
+
+        mSources = new CountingSource[sources.length];
+
+        for (int i = 0; i < sources.length; ++i)
+            mSources[i] = new CountingSource(sources[i]);
+
+        mDetection = new DetectionStateMachine(mTime, mScheduler, mDetectionSettings, mDetectionOutput, mSources);
+        mAlerts = new AlertStateMachine(mTime, mScheduler, mDetection, mAlertSettings, mAlertOutput);
+    }
+
+
+
+
+    // INPUT EVENTS -----------------------------------------
+
+    /**
+     * Runs every task due up to the given time and moves time to it.
+     */
+    public void advanceTo(long timeMs){
+
+        mTime.advanceTo(timeMs);
+    }
+
+
+    public void onSmsReceived(){
+
+        countWakeup("sms");
+        markDetectStart(Channels.TEXT);
+        mDetection.onSmsReceived();
+    }
+
+
+    public void onMmsReceived(){
+
+        countWakeup("mms");
+        markDetectStart(Channels.TEXT);
+        mDetection.onMmsReceived();
+    }
+
+
+    /**
+     * @param state a DetectionStateMachine CALL_STATE constant
+     */
+    public void onCallStateChanged(int state){
+
+        countWakeup("call state " + state);
+
+        if (state == DetectionStateMachine.CALL_STATE_RINGING) {
+
+            mRinging = true;
+            mAnswered = false;
+        }
+        else if (state == DetectionStateMachine.CALL_STATE_OFFHOOK)
+            mAnswered = true;
+        else {
+
+            if (mRinging && !mAnswered)
+                markDetectStart(Channels.MISSED_CALL);
+
+            mRinging = false;
+            mAnswered = false;
+        }
+
+        mDetection.onCallStateChanged(state);
+    }
+
+
+    public void onMessageWaitingIndicatorChanged(boolean mwi){
+
+        countWakeup("mwi " + mwi);
+
+        if (mwi)
+            markDetectStart(Channels.VOICE_MAIL);
+
+        mDetection.onMessageWaitingIndicatorChanged(mwi);
+    }
+
+
+    /**
+     * The listener scans for messages already present when it started.
+     */
+    public void runInitialScan(){
+
+        countWakeup("initial scan");
+        mDetection.runInitialScan();
+    }
+
+
+    /**
+     * The user stops every alert from the notification.
+     */
+    public void onStopAll(){
+
+        countWakeup("stop all");
+        mDetection.onAllAlertsStopped();
+        stopAlerter();
+    }
+
+
+    /**
+     * The user reads the messages of the channel, so they no longer count
+     * towards detection latency. The caller clears its sources.
+     */
+    public void onRead(int channel){
+
+        mDetectStartTime[channel] = -1;
+    }
+
+
+    public void setScreenOn(boolean on){
+
+        mScreenOn = on;
+    }
+
+
+    public void setBatteryPercentage(int percentage){
+
+        mBatteryPercentage = percentage;
+    }
+
+
+    /**
+     * Uses the given power tier instead of deriving it from the battery level.
+     */
+    public void setPowerTier(int tier){
+
+        mPowerTier = tier;
+    }
+
+
+
+
+    // PUBLIC METHODS -----------------------------------------
+
+    /**
+     * Prints wakeups, detections and alerts as they happen.
+     */
+    public void setTimeline(PrintStream timeline){
+
+        mTimeline = timeline;
+    }
+
+
+    /**
+     * Returns the clock and scheduler of the simulation.
+     */
+    public VirtualTimeScheduler getTime(){
+
+        return mTime;
+    }
+
+
+    /**
+     * Runs the simulation up to the end time and returns what was measured.
+     */
+    public Simulator.Report finish(String name, long endTimeMs){
+
+        mTime.advanceTo(endTimeMs);
+
+        long queries = 0;
+
+        for (int i = 0; i < mSources.length; ++i)
+            queries += mSources[i].mQueries;
+
+        mReport.name = name;
+        mReport.providerQueries = queries;
+        mReport.wakeLockMs = getWakeLockMs(endTimeMs);
+
+        return mReport;
+    }
+
+
+
+
+    // PRIVATE METHODS -----------------------------------------
+
+    /*
+     * Mirrors the alerter service stopping itself, which broadcasts that
+     * alerts stopped and so clears every pending message.
+     */
+    private void stopAlerter(){
+
+        if (!mAlerterRunning)
+            return;
+
+        mAlerterRunning = false;
+        mAlerts.stopAllAlerts();
+
+        for (int i = 0; i < mLeaseEnd.length; ++i)
+            releaseLease(i);
+
+        log("alerter stopped");
+
+        mDetection.onAllAlertsStopped();
+    }
+
+
+    private void markDetectStart(int channel){
+
+        if (mDetectStartTime[channel] < 0 && !mDetection.isPending(channel))
+            mDetectStartTime[channel] = mTime.currentTimeMillis();
+    }
+
+
+    private void countAlert(String what){
+
+        long now = mTime.currentTimeMillis();
+
+        if (now != mLastAlertTime) {
+
+            mReport.alertsFired++;
+            mLastAlertTime = now;
+        }
+
+        log("alert " + what);
+    }
+
+
+    private void countWakeup(String cause){
+
+        if (!isAwake()) {
+
+            mReport.wakeups++;
+            log("wakeup by " + cause);
+        }
+    }
+
+
+    private void log(String message){
+
+        if (mTimeline == null)
+            return;
+
+        long now = mTime.currentTimeMillis();
+        long local = ((now + mTime.getTimeZoneOffset(now)) % DAY_MS + DAY_MS) % DAY_MS;
+
+        mTimeline.println(String.format("%02d:%02d:%02d.%03d  %s", local / 3600000, local / 60000 % 60,
+                local / 1000 % 60, local % 1000, message));
+    }
+
+
+    private boolean isAwake(){
+
+        long now = mTime.currentTimeMillis();
+
+        for (int i = 0; i < mLeaseEnd.length; ++i) {
+
+            if (mLeaseStart[i] <= now && now < mLeaseEnd[i])
+                return true;
+        }
+
+        return false;
+    }
+
+
+    private boolean isLeaseHeld(int kind){
+
+        long now = mTime.currentTimeMillis();
+
+        for (int channel = 0; channel < Channels.COUNT; ++channel) {
+
+            if (now < mLeaseEnd[channel * LEASE_KINDS + kind])
+                return true;
+        }
+
+        return false;
+    }
+
+
+    /*
+     * Starts a lease, or extends it if it is still held.
+     */
+    private void acquireLease(int channel, int kind, long timeoutMs){
+
+        int slot = channel * LEASE_KINDS + kind;
+        long now = mTime.currentTimeMillis();
+
+        if (now >= mLeaseEnd[slot]) {
+
+            if (mLeaseEnd[slot] > mLeaseStart[slot])
+                mClosedLeases.add(new long[] {mLeaseStart[slot], mLeaseEnd[slot]});
+
+            mLeaseStart[slot] = now;
+        }
+
+        mLeaseEnd[slot] = now + timeoutMs;
+    }
+
+
+    private void releaseLease(int slot){
+
+        mLeaseEnd[slot] = Math.min(mLeaseEnd[slot], mTime.currentTimeMillis());
+    }
+
+
+    /*
+     * Returns the time that any wake lock was held, counting
+     * overlapping leases once.
+     */
+    private long getWakeLockMs(long endTime){
+
+        List<long[]> leases = new ArrayList<long[]>(mClosedLeases);
+
+        for (int i = 0; i < mLeaseEnd.length; ++i) {
+
+            if (mLeaseEnd[i] > mLeaseStart[i])
+                leases.add(new long[] {mLeaseStart[i], Math.min(mLeaseEnd[i], endTime)});
+        }
+
+        Collections.sort(leases, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+            }
+        });
+
+        long held = 0;
+        long covered = Long.MIN_VALUE;
+
+        for (int i = 0; i < leases.size(); ++i) {
+
+            long start = Math.max(leases.get(i)[0], covered);
+            long end = leases.get(i)[1];
+
+            if (end > start) {
+
+                held += end - start;
+                covered = end;
+            }
+        }
+
+        return held;
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.tools;
+
+import com.mma.missedmessagealerts.core.AlertProfile;
+import com.mma.missedmessagealerts.core.Channels;
+import com.mma.missedmessagealerts.core.DetectionStateMachine;
+import com.mma.missedmessagealerts.core.VibratePatterns;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs scripted scenarios through the same detection and alert state
+ * machines that the services use, in virtual time and against in-memory
+ * providers, and reports energy proxies for each: CPU wakeups, time wake
+ * locks were held, provider queries, alerts fired and detection latency.
+ *
+ * Pass "-v" to also print the timeline of each run.
+ *
+ * @author Michael R. Falcone
+ */
+public class Simulator {
+
+
+    /**
+     * Settings of a simulation.
+     */
+    public static final class Config {
+
+        public boolean alertsEnabled = true;
+        public boolean[] channelEnabled = {true, true, true};
+        public AlertProfile[] profiles = new AlertProfile[Channels.COUNT];
+        public long coalesceWindowMs = 10000;
+
+        public boolean batteryThresholdsEnabled = true;
+        public int lowBatteryPercentage = 25;
+        public int criticalBatteryPercentage = 15;
+
+        public long toneMs = 3000;
+
+
+        /**
+         * Returns the default settings: alerts every minute for fifteen
+         * minutes on every channel, with missed call alerts quiet from
+         * midnight until seven.
+         */
+        public static Config defaults(){
+
+            Config config = new Config();
+
+            for (int channel = 0; channel < Channels.COUNT; ++channel) {
+
+                boolean quiet = channel == Channels.MISSED_CALL;
+
+                config.profiles[channel] = new AlertProfile.Builder("SIM" + channel)
+                        .setIntervalMs(60000)
+                        .setDurationMs(15 * 60000)
+                        .setFlashScreen(true, false)
+                        .setVibrate(true, VibratePatterns.forStyle(channel))
+                        .setAudio(true, "content://sim/tone", 1.0f, false)
+                        .setScheduling(quiet, 0, AlertProfile.toMinuteOfDay(7, 0))
+                        .build();
+            }
+
+            return config;
+        }
+    }
+
+
+    /**
+     * Energy proxies measured over one scenario.
+     */
+    public static final class Report {
+
+        public String name;
+        public long wakeups;
+        public long wakeLockMs;
+        public long providerQueries;
+        public long alertsFired;
+        public long detections;
+        public long totalLatencyMs;
+        public long maxLatencyMs;
+
+
+        /**
+         * Returns the mean detection latency, or 0 if nothing was detected.
+         */
+        public long getMeanLatencyMs(){
+
+            return detections == 0 ? 0 : totalLatencyMs / detections;
+        }
+
+
+        /**
+         * Returns the column headers matching toRow.
+         */
+        public static String getHeader(){
+
+            return String.format("%-28s %8s %12s %8s %7s %11s %11s", "scenario", "wakeups", "wakelock_ms",
+                    "queries", "alerts", "latency_avg", "latency_max");
+        }
+
+
+        /**
+         * Returns the report as one row of a table.
+         */
+        public String toRow(){
+
+            return String.format("%-28s %8d %12d %8d %7d %11d %11d", name, wakeups, wakeLockMs,
+                    providerQueries, alertsFired, getMeanLatencyMs(), maxLatencyMs);
+        }
+    }
+
+
+
+    // CONSTANTS -----------------------------------------
+
+    public static final long DAY_MS = 24 * Scenario.HOUR_MS;
+
+    /**
+     * Local midnight of the simulated day, with local time equal to UTC.
+     */
+    public static final long START_TIME_MS = 15000 * DAY_MS;
+
+
+
+
+    // PUBLIC METHODS -----------------------------------------
+
+    /**
+     * Runs the scenario from the start of the simulated day.
+     * @param config settings of the simulation
+     * @param timeline if not null, receives the timeline of the run
+     * @return the energy proxies measured
+     */
+    public static Report run(Scenario scenario, Config config, PrintStream timeline){
+
+        InMemoryProvider[] providers = new InMemoryProvider[DetectionStateMachine.SOURCE_COUNT];
+
+        for (int i = 0; i < providers.length; ++i)
+            providers[i] = new InMemoryProvider();
+
+        SimulatedDevice device = new SimulatedDevice(config, providers, START_TIME_MS, 0);
+        device.setTimeline(timeline);
+
+        List<Scenario.Event> events = scenario.getEvents();
+
+        for (int i = 0; i < events.size(); ++i) {
+
+            Scenario.Event event = events.get(i);
+
+            device.advanceTo(START_TIME_MS + event.timeMs);
+            apply(device, providers, event);
+        }
+
+        return device.finish(scenario.getName(), START_TIME_MS + scenario.getEndTimeMs());
+    }
+
+
+    /**
+     * Runs the built-in scenarios with the default settings and prints
+     * a report row for each.
+     */
+    public static void main(String[] args){
+
+        boolean verbose = args.length > 0 && args[0].equals("-v");
+        List<Scenario> scenarios = getBuiltInScenarios();
+
+        if (!verbose)
+            System.out.println(Report.getHeader());
+
+        for (int i = 0; i < scenarios.size(); ++i) {
+
+            if (verbose)
+                System.out.println("--- " + scenarios.get(i).getName());
+
+            Report report = run(scenarios.get(i), Config.defaults(), verbose ? System.out : null);
+
+            if (verbose)
+                System.out.println(Report.getHeader() + "\n" + report.toRow() + "\n");
+            else
+                System.out.println(report.toRow());
+        }
+    }
+
+
+    /**
+     * Returns the built-in scenarios.
+     */
+    public static List<Scenario> getBuiltInScenarios(){
+
+        final long h = Scenario.HOUR_MS;
+        final long m = Scenario.MINUTE_MS;
+
+        List<Scenario> scenarios = new ArrayList<Scenario>();
+
+        scenarios.add(new Scenario("sms-burst-0300", 4 * h)
+                .sms(3 * h).sms(3 * h + 5000).sms(3 * h + 20000).sms(3 * h + m)
+                .read(3 * h + 20 * m, Channels.TEXT));
+
+        scenarios.add(new Scenario("missed-call-quiet-hours", 8 * h)
+                .missedCall(3 * h)
+                .read(7 * h + 30 * m, Channels.MISSED_CALL));
+
+        scenarios.add(new Scenario("voicemail-mwi-toggles", 12 * h)
+                .mwi(10 * h, true).mwi(10 * h + 5 * m, false)
+                .mwi(10 * h + 30 * m, true).mwi(11 * h, false));
+
+        scenarios.add(new Scenario("screen-on-off", 13 * h)
+                .sms(12 * h).screen(12 * h + 2 * m, true).screen(12 * h + 10 * m, false)
+                .read(12 * h + 30 * m, Channels.TEXT));
+
+        scenarios.add(new Scenario("battery-drop", 16 * h)
+                .battery(0, 50).sms(14 * h).battery(14 * h + 5 * m, 20).battery(14 * h + 10 * m, 10)
+                .read(15 * h + 30 * m, Channels.TEXT));
+
+        scenarios.add(new Scenario("mixed-coalesced", 10 * h)
+                .sms(9 * h).missedCall(9 * h + 30000).mwi(9 * h + m, true)
+                .read(9 * h + 30 * m, Channels.TEXT).read(9 * h + 30 * m, Channels.MISSED_CALL)
+                .mwi(9 * h + 31 * m, false));
+
+        return scenarios;
+    }
+
+
+
+
+    // PRIVATE METHODS -----------------------------------------
+
+    private static void apply(SimulatedDevice device, InMemoryProvider[] providers, Scenario.Event event){
+
+        switch (event.type) {
+
+            case Scenario.EVENT_SMS:
+                providers[DetectionStateMachine.SOURCE_SMS].insertUnread();
+                device.onSmsReceived();
+                break;
+
+            case Scenario.EVENT_MMS:
+                providers[DetectionStateMachine.SOURCE_MMS].insertUnread();
+                device.onMmsReceived();
+                break;
+
+            case Scenario.EVENT_MISSED_CALL:
+                device.onCallStateChanged(DetectionStateMachine.CALL_STATE_RINGING);
+                providers[DetectionStateMachine.SOURCE_CALLS].insertUnread();
+                device.onCallStateChanged(DetectionStateMachine.CALL_STATE_IDLE);
+                break;
+
+            case Scenario.EVENT_MWI:
+                device.onMessageWaitingIndicatorChanged(event.value != 0);
+                break;
+
+            case Scenario.EVENT_READ:
+                if (event.value == Channels.TEXT) {
+                    providers[DetectionStateMachine.SOURCE_SMS].markAllRead();
+                    providers[DetectionStateMachine.SOURCE_MMS].markAllRead();
+                }
+                else if (event.value == Channels.MISSED_CALL)
+                    providers[DetectionStateMachine.SOURCE_CALLS].markAllRead();
+                device.onRead(event.value);
+                break;
+
+            case Scenario.EVENT_SCREEN:
+                device.setScreenOn(event.value != 0);
+                break;
+
+            case Scenario.EVENT_BATTERY:
+                device.setBatteryPercentage(event.value);
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unknown event type " + event.type);
+        }
+    }
+}
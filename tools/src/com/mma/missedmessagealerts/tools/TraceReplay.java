@@ -0,0 +1,321 @@
+/*
+ * Copyright 2011 Michael R. Falcone
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mma.missedmessagealerts.tools;
+
+import com.mma.missedmessagealerts.core.AlertProfile;
+import com.mma.missedmessagealerts.core.Channels;
+import com.mma.missedmessagealerts.core.DetectionStateMachine;
+import com.mma.missedmessagealerts.core.EventTrace;
+import com.mma.missedmessagealerts.core.EventTraceReader;
+import com.mma.missedmessagealerts.core.MessageSource;
+import com.mma.missedmessagealerts.core.VibratePatterns;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replays an event trace captured by the listener service through the
+ * detection and alert state machines, reproducing the wakeup and alert
+ * timeline of the recorded run. Provider queries are answered with the
+ * recorded results, and the replay reports how many of them were asked
+ * for at the same time as on the device.
+ *
+ * Usage: TraceReplay [-q] trace-file
+ *
+ * @author Michael R. Falcone
+ */
+public class TraceReplay {
+
+
+    /*
+     * Answers queries of one source with the recorded results, in order.
+     */
+    private static final class ReplayMessageSource implements MessageSource {
+
+        private TraceReplay mReplay;
+        private List<long[]> mResults = new ArrayList<long[]>();  // time, count
+        private int mNext = 0;
+
+        ReplayMessageSource(TraceReplay replay){
+            mReplay = replay;
+        }
+
+        @Override
+        public int countUnread() {
+
+            if (mNext >= mResults.size()) {
+
+                mReplay.mExtraQueries++;
+                return UNAVAILABLE;
+            }
+
+            long[] result = mResults.get(mNext++);
+
+            if (result[0] == mReplay.mDevice.getTime().currentTimeMillis())
+                mReplay.mMatchedQueries++;
+
+            if (result[1] == EventTrace.QUERY_FAILED)
+                throw new IllegalStateException("Recorded query failure");
+
+            return (int) result[1];
+        }
+    }
+
+
+
+    // MEMBER VARIABLES -----------------------------------------
+
+    private List<long[]> mRecords = new ArrayList<long[]>();   // time, type, value
+    private long mStartTime;
+    private int mTimeZoneOffset;
+
+    private Simulator.Config mConfig = Simulator.Config.defaults();
+    private long[] mIntervalMs = new long[Channels.COUNT];
+    private long[] mDurationMs = new long[Channels.COUNT];
+    private int[] mFlags = new int[Channels.COUNT];
+    private int[] mQuiet = new int[Channels.COUNT];
+
+    private ReplayMessageSource[] mSources = new ReplayMessageSource[DetectionStateMachine.SOURCE_COUNT];
+    private SimulatedDevice mDevice;
+
+    private long mRecordedQueries = 0;
+    private long mMatchedQueries = 0;
+    private long mExtraQueries = 0;
+
+
+
+
+    // CONSTRUCTOR -----------------------------------------
+
+    /**
+     * Constructs a new TraceReplay from the records of the trace.
+     */
+    public TraceReplay(EventTraceReader reader) throws IOException {
+
+        mStartTime = reader.getStartTime();
+        mTimeZoneOffset = reader.getTimeZoneOffset();
+
+        for (int i = 0; i < mSources.length; ++i)
+            mSources[i] = new ReplayMessageSource(this);
+
+        while (reader.next()) {
+
+            if (reader.getType() == EventTrace.TYPE_QUERY) {
+
+                int source = EventTrace.unpackQuerySource(reader.getValue());
+
+                if (source < mSources.length) {
+
+                    mSources[source].mResults.add(new long[] {reader.getTime(),
+                            EventTrace.unpackQueryCount(reader.getValue())});
+                    ++mRecordedQueries;
+                }
+            }
+            else
+                mRecords.add(new long[] {reader.getTime(), reader.getType(), reader.getValue()});
+        }
+
+        for (int channel = 0; channel < Channels.COUNT; ++channel) {
+
+            AlertProfile profile = mConfig.profiles[channel];
+
+            mIntervalMs[channel] = profile.intervalMs;
+            mDurationMs[channel] = profile.durationMs;
+            mFlags[channel] = EventTrace.PREF_FLAG_ENABLED | EventTrace.PREF_FLAG_VIBRATE;
+        }
+
+        mDevice = new SimulatedDevice(mConfig, mSources, mStartTime, mTimeZoneOffset);
+    }
+
+
+
+
+    // PUBLIC METHODS -----------------------------------------
+
+    /**
+     * Replays the trace.
+     * @param timeline if not null, receives the timeline of the replay
+     * @return the energy proxies of the replayed run
+     */
+    public Simulator.Report run(PrintStream timeline){
+
+        mDevice.setTimeline(timeline);
+
+        long end = mStartTime;
+
+        for (int i = 0; i < mRecords.size(); ++i) {
+
+            long[] record = mRecords.get(i);
+
+            mDevice.advanceTo(record[0]);
+            apply((int) record[1], record[2]);
+            end = record[0];
+        }
+
+        for (int i = 0; i < mSources.length; ++i) {
+
+            List<long[]> results = mSources[i].mResults;
+
+            if (!results.isEmpty())
+                end = Math.max(end, results.get(results.size() - 1)[0]);
+        }
+
+        return mDevice.finish("replay", end);
+    }
+
+
+    /**
+     * Returns the number of provider queries in the trace.
+     */
+    public long getRecordedQueries(){
+        return mRecordedQueries;
+    }
+
+
+    /**
+     * Returns the number of recorded queries the replay asked for at the recorded time.
+     */
+    public long getMatchedQueries(){
+        return mMatchedQueries;
+    }
+
+
+    /**
+     * Returns the number of queries the replay made beyond those recorded.
+     */
+    public long getExtraQueries(){
+        return mExtraQueries;
+    }
+
+
+    public static void main(String[] args) throws IOException {
+
+        boolean quiet = args.length > 1 && args[0].equals("-q");
+
+        if (args.length == 0 || (args.length > 1 && !quiet)) {
+
+            System.err.println("Usage: TraceReplay [-q] trace-file");
+            System.exit(2);
+        }
+
+        EventTraceReader reader = new EventTraceReader(new BufferedInputStream(new FileInputStream(args[args.length - 1])));
+        TraceReplay replay;
+
+        try {
+            replay = new TraceReplay(reader);
+        } finally {
+            reader.close();
+        }
+
+        Simulator.Report report = replay.run(quiet ? null : System.out);
+
+        System.out.println(Simulator.Report.getHeader());
+        System.out.println(report.toRow());
+        System.out.println("queries recorded " + replay.getRecordedQueries() + ", matched " + replay.getMatchedQueries()
+                + ", extra " + replay.getExtraQueries());
+    }
+
+
+
+
+    // PRIVATE METHODS -----------------------------------------
+
+    private void apply(int type, long value){
+
+        switch (type) {
+
+            case EventTrace.TYPE_SMS:
+                mDevice.onSmsReceived();
+                break;
+            case EventTrace.TYPE_MMS:
+                mDevice.onMmsReceived();
+                break;
+            case EventTrace.TYPE_CALL_STATE:
+                mDevice.onCallStateChanged((int) value);
+                break;
+            case EventTrace.TYPE_MWI:
+                mDevice.onMessageWaitingIndicatorChanged(value != 0);
+                break;
+            case EventTrace.TYPE_SCREEN:
+                mDevice.setScreenOn(value != 0);
+                break;
+            case EventTrace.TYPE_BATTERY:
+                mDevice.setBatteryPercentage((int) value);
+                break;
+            case EventTrace.TYPE_POWER_TIER:
+                mDevice.setPowerTier((int) value);
+                break;
+            case EventTrace.TYPE_STOP_ALL:
+                mDevice.onStopAll();
+                break;
+            case EventTrace.TYPE_INITIAL_SCAN:
+                mDevice.runInitialScan();
+                break;
+
+            case EventTrace.TYPE_PREF_ALERTS_ENABLED:
+                mConfig.alertsEnabled = value != 0;
+                break;
+            case EventTrace.TYPE_PREF_COALESCE_WINDOW:
+                mConfig.coalesceWindowMs = value * 1000;
+                break;
+            case EventTrace.TYPE_PREF_CHANNEL_FLAGS:
+                mFlags[EventTrace.unpackChannel(value)] = (int) EventTrace.unpackChannelValue(value);
+                updateProfile(EventTrace.unpackChannel(value));
+                break;
+            case EventTrace.TYPE_PREF_CHANNEL_INTERVAL:
+                mIntervalMs[EventTrace.unpackChannel(value)] = EventTrace.unpackChannelValue(value) * 1000;
+                updateProfile(EventTrace.unpackChannel(value));
+                break;
+            case EventTrace.TYPE_PREF_CHANNEL_DURATION:
+                mDurationMs[EventTrace.unpackChannel(value)] = EventTrace.unpackChannelValue(value) * 1000;
+                updateProfile(EventTrace.unpackChannel(value));
+                break;
+            case EventTrace.TYPE_PREF_CHANNEL_QUIET:
+                mQuiet[EventTrace.unpackChannel(value)] = (int) EventTrace.unpackChannelValue(value);
+                updateProfile(EventTrace.unpackChannel(value));
+                break;
+
+            default:
+                // records of later versions are skipped
+                break;
+        }
+    }
+
+
+    private void updateProfile(int channel){
+
+        if (!Channels.isChannel(channel))
+            return;
+
+        int flags = mFlags[channel];
+
+        mConfig.channelEnabled[channel] = (flags & EventTrace.PREF_FLAG_ENABLED) != 0;
+        mConfig.profiles[channel] = new AlertProfile.Builder("TRACE" + channel)
+                .setIntervalMs(mIntervalMs[channel])
+                .setDurationMs(mDurationMs[channel])
+                .setFlashScreen((flags & EventTrace.PREF_FLAG_FLASH) != 0, false)
+                .setVibrate((flags & EventTrace.PREF_FLAG_VIBRATE) != 0, VibratePatterns.forStyle(0))
+                .setAudio((flags & EventTrace.PREF_FLAG_AUDIO) != 0, "trace", 1.0f, false)
+                .setScheduling((flags & EventTrace.PREF_FLAG_SCHEDULING) != 0,
+                        mQuiet[channel] / EventTrace.MINUTES_PER_DAY, mQuiet[channel] % EventTrace.MINUTES_PER_DAY)
+                .build();
+    }
+}